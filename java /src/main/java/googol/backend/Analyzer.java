@@ -0,0 +1,274 @@
+package googol.backend;
+
+import java.text.Normalizer;
+import java.util.*;
+
+
+/**
+ * Classe que transforma texto nas palavras guardadas no índice. O texto é partido em
+ * palavras (sequências de letras e dígitos em qualquer alfabeto, pelo que palavras
+ * acentuadas ficam inteiras) em minúsculas, e cada palavra passa depois por uma cadeia
+ * de filtros, que a podem alterar ou descartar. A mesma análise é usada pelo Downloader
+ * ao indexar as páginas e pelo Gateway ao interpretar as pesquisas, para que as palavras
+ * dos dois lados coincidam. Cada palavra guarda a sua posição no texto original, pelo que
+ * as palavras descartadas deixam um intervalo entre as posições das restantes
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class Analyzer {
+
+	/**
+	 * Interface que representa um filtro da cadeia de análise
+	 */
+	@FunctionalInterface
+	public interface TokenFilter {
+
+		/**
+		 * Método que aplica o filtro a uma palavra
+		 * @param token palavra produzida pelos filtros anteriores
+		 * @return palavra filtrada, ou null para a descartar
+		 */
+		String apply(String token);
+	}
+
+	/**
+	 * Classe que representa uma palavra produzida pela análise
+	 */
+	public static final class Token {
+
+		/**
+		 * Palavra a guardar ou a pesquisar no índice
+		 */
+		private final String term;
+
+		/**
+		 * Posição da palavra no texto, contando também as palavras descartadas
+		 */
+		private final int position;
+
+		/**
+		 * Posição do primeiro caractere da palavra no texto
+		 */
+		private final int start;
+
+		/**
+		 * Posição a seguir ao último caractere da palavra no texto
+		 */
+		private final int end;
+
+		/**
+		 * Palavra tal como aparece no texto, só em minúsculas (com acentos e sem stemmer)
+		 */
+		private final String surface;
+
+		/**
+		 * Construtor da classe
+		 * @param term palavra analisada
+		 * @param position posição da palavra no texto
+		 * @param start primeiro caractere no texto
+		 * @param end caractere a seguir ao último no texto
+		 * @param surface palavra original em minúsculas
+		 */
+		Token(String term, int position, int start, int end, String surface) {
+			this.term = term;
+			this.position = position;
+			this.start = start;
+			this.end = end;
+			this.surface = surface;
+		}
+
+		/**
+		 * Método que devolve a palavra analisada
+		 * @return palavra
+		 */
+		public String getTerm() {
+			return term;
+		}
+
+		/**
+		 * Método que devolve a posição da palavra no texto
+		 * @return posição, contando também as palavras descartadas
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * Método que devolve o primeiro caractere da palavra no texto
+		 * @return índice do caractere
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * Método que devolve o caractere a seguir ao último da palavra no texto
+		 * @return índice do caractere
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		/**
+		 * Método que devolve a palavra tal como aparece no texto, usada para mostrar sugestões
+		 * @return palavra original em minúsculas
+		 */
+		public String getSurface() {
+			return surface;
+		}
+	}
+
+	/**
+	 * Palavras demasiado comuns para distinguir páginas, já sem acentos
+	 */
+	static final Set<String> PORTUGUESE_STOPWORDS = new HashSet<>(Arrays.asList(
+			"a", "o", "as", "os", "um", "uma", "uns", "umas", "de", "do", "da", "dos", "das", "dum", "duma",
+			"em", "no", "na", "nos", "nas", "num", "numa", "por", "pelo", "pela", "pelos", "pelas", "para", "pra",
+			"com", "sem", "sob", "sobre", "ao", "aos", "ate", "entre", "desde", "e", "ou", "mas", "nem", "que",
+			"se", "como", "mais", "menos", "muito", "muita", "muitos", "muitas", "ja", "nao", "sim", "tambem",
+			"eu", "tu", "ele", "ela", "vos", "eles", "elas", "me", "te", "lhe", "lhes", "seu", "sua",
+			"seus", "suas", "meu", "minha", "meus", "minhas", "teu", "tua", "nosso", "nossa", "este", "esta",
+			"estes", "estas", "esse", "essa", "esses", "essas", "isto", "isso", "aquele", "aquela", "aqueles",
+			"aquelas", "aquilo", "ser", "foi", "era", "sao", "sera", "tem", "ter", "ha", "estar", "quando",
+			"onde", "qual", "quais", "quem", "cujo", "cuja", "so", "ainda", "entao", "pois", "porque",
+			"the", "and", "of", "to", "in", "is", "for", "on", "with", "an", "or", "by", "at", "it", "be"));
+
+	/**
+	 * Número mínimo de caracteres de uma palavra indexada
+	 */
+	static final int MIN_LENGTH = 2;
+
+	/**
+	 * Número máximo de caracteres de uma palavra indexada, palavras maiores são quase sempre lixo (hashes, base64)
+	 */
+	static final int MAX_LENGTH = 40;
+
+	/**
+	 * Análise usada por omissão: minúsculas, sem acentos, sem palavras comuns, stemmer leve de português
+	 */
+	private static final Analyzer STANDARD = new Analyzer(Arrays.asList(
+			foldAccents(),
+			stopwords(PORTUGUESE_STOPWORDS),
+			PortugueseStemmer::stem,
+			length(MIN_LENGTH, MAX_LENGTH)));
+
+	/**
+	 * Filtros aplicados a cada palavra, por ordem
+	 */
+	private final List<TokenFilter> filters;
+
+	/**
+	 * Construtor da classe
+	 * @param filters filtros aplicados a cada palavra, por ordem
+	 */
+	public Analyzer(List<TokenFilter> filters) {
+		this.filters = new ArrayList<>(filters);
+	}
+
+	/**
+	 * Método que devolve a análise partilhada pelo Downloader e pelo Gateway
+	 * @return análise por omissão
+	 */
+	public static Analyzer standard() {
+		return STANDARD;
+	}
+
+	/**
+	 * Método que analisa um texto
+	 * @param text texto
+	 * @return palavras analisadas, pela ordem em que aparecem
+	 */
+	public List<Token> analyze(String text) {
+		List<Token> tokens = new ArrayList<>();
+		int position = 0;
+		int i = 0;
+		while (i < text.length()) {
+			int codePoint = text.codePointAt(i);
+			if (!isWordPart(codePoint)) {
+				i += Character.charCount(codePoint);
+				continue;
+			}
+			int start = i;
+			while (i < text.length() && isWordPart(text.codePointAt(i))) {
+				i += Character.charCount(text.codePointAt(i));
+			}
+			String surface = text.substring(start, i).toLowerCase(Locale.ROOT);
+			String term = filter(surface);
+			if (term != null) {
+				tokens.add(new Token(term, position, start, i, surface));
+			}
+			position++;
+		}
+		return tokens;
+	}
+
+	/**
+	 * Método que analisa uma única palavra, já separada do texto
+	 * @param word palavra
+	 * @return palavra analisada, ou null se for descartada
+	 */
+	public String analyzeWord(String word) {
+		List<Token> tokens = analyze(word);
+		return tokens.isEmpty() ? null : tokens.get(0).getTerm();
+	}
+
+	/**
+	 * Método que aplica a cadeia de filtros a uma palavra
+	 * @param token palavra em minúsculas
+	 * @return palavra filtrada, ou null se algum filtro a descartar
+	 */
+	private String filter(String token) {
+		for (TokenFilter filter : filters) {
+			if (token == null) {
+				return null;
+			}
+			token = filter.apply(token);
+		}
+		return token;
+	}
+
+	/**
+	 * Método que indica se um caractere faz parte de uma palavra: letras e dígitos de qualquer
+	 * alfabeto e os acentos que vêm separados da letra (texto em forma decomposta)
+	 * @param codePoint caractere
+	 * @return true se o caractere faz parte de uma palavra
+	 */
+	private static boolean isWordPart(int codePoint) {
+		return Character.isLetterOrDigit(codePoint) || Character.getType(codePoint) == Character.NON_SPACING_MARK;
+	}
+
+	/**
+	 * Método que cria o filtro que retira os acentos (coração passa a coracao)
+	 * @return filtro
+	 */
+	public static TokenFilter foldAccents() {
+		return token -> {
+			for (int i = 0; i < token.length(); i++) {
+				if (token.charAt(i) >= 0x80) {
+					return Normalizer.normalize(token, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+				}
+			}
+			return token;
+		};
+	}
+
+	/**
+	 * Método que cria o filtro que descarta palavras de uma lista
+	 * @param stopwords palavras a descartar
+	 * @return filtro
+	 */
+	public static TokenFilter stopwords(Set<String> stopwords) {
+		return token -> stopwords.contains(token) ? null : token;
+	}
+
+	/**
+	 * Método que cria o filtro que descarta palavras demasiado curtas ou compridas
+	 * @param min número mínimo de caracteres
+	 * @param max número máximo de caracteres
+	 * @return filtro
+	 */
+	public static TokenFilter length(int min, int max) {
+		return token -> (token.length() >= min && token.length() <= max) ? token : null;
+	}
+}
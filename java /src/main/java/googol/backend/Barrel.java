@@ -7,6 +7,8 @@ import java.util.*;
 import java.io.*;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 
 /**
@@ -29,19 +31,150 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 	final int barrelNumber;
 
 	/**
-	 * Índice que associa uma palavra aos links em que ocorre 
+	 * Dicionário que associa cada URL a um identificador inteiro
 	 */
-	private final Map<String, HashSet<String>> index = new HashMap<>();
+	private final UrlDictionary urlDictionary = new UrlDictionary();
 
 	/**
-	 * Informação de cada url título e descrição 
+	 * Índice que associa uma palavra aos identificadores dos links em que ocorre,
+	 * dividido numa tabela em memória e em segmentos imutáveis gravados em disco.
+	 * Cada posting list da tabela em memória tem o seu próprio lock, pelo que palavras
+	 * diferentes são atualizadas em paralelo pelas várias threads RMI
 	 */
-	private final HashMap<String, SimpleEntry<String, String>> urlInfos = new HashMap<>();
+	private final SegmentedIndex index = new SegmentedIndex();
+
+	/**
+	 * Comprimento (número de palavras) de cada URL indexado
+	 */
+	private final DocumentStats documentStats = new DocumentStats();
+
+	/**
+	 * Palavras de cada URL indexado, usadas para retirar as ocorrências antigas quando
+	 * a página volta a ser indexada ou é apagada
+	 */
+	private final ForwardIndex forwardIndex = new ForwardIndex();
+
+	/**
+	 * Forma original mais frequente de cada palavra, mostrada nas sugestões
+	 */
+	private final SurfaceForms surfaceForms = new SurfaceForms();
+
+	/**
+	 * Número máximo de palavras devolvidas ao completar um prefixo
+	 */
+	private static final int MAX_SUGGESTIONS = 50;
+
+	/**
+	 * Posições enviadas ao Gateway para as palavras que não estão em frases
+	 */
+	private static final int[] NO_POSITIONS = new int[0];
+
+	/**
+	 * Número máximo de correções pelas quais uma palavra inexistente é substituída numa pesquisa
+	 */
+	private int maxExpansions = 3;
+
+	/**
+	 * Dicionário ordenado das palavras do índice, usado para completar prefixos. É imutável
+	 * e substituído por inteiro quando é reconstruído
+	 */
+	private volatile TermDictionary termDictionary = TermDictionary.EMPTY;
+
+	/**
+	 * Indica se o dicionário de palavras está a ser reconstruído
+	 */
+	private final AtomicBoolean rebuildingDictionary = new AtomicBoolean();
+
+	/**
+	 * Instante (em milissegundos) da última reconstrução do dicionário de palavras
+	 */
+	private volatile long dictionaryBuiltAt = 0;
+
+	/**
+	 * Intervalo mínimo entre reconstruções do dicionário de palavras, em milissegundos
+	 */
+	private long dictionaryRefreshMillis = 10_000;
+
+	/**
+	 * Avaliador das pesquisas sobre o índice
+	 */
+	private final QueryEvaluator queryEvaluator = new QueryEvaluator(index, documentStats);
+
+	/**
+	 * Informação de cada url título e descrição, indexada pelo identificador do URL
+	 */
+	private final Map<Integer, SimpleEntry<String, String>> urlInfos = new ConcurrentHashMap<>();
 	
 	/**
-	 * Links que apontam para um determinado URL.
+	 * Grafo dos links entre os URLs, guardado em vetores compactos nos dois sentidos.
+	 */
+	private final LinkGraph linkGraph = new LinkGraph();
+
+	/**
+	 * Indica se os links novos estão a ser juntos aos vetores compactos do grafo
+	 */
+	private final AtomicBoolean mergingLinks = new AtomicBoolean();
+
+	/**
+	 * Número mínimo de links novos a partir do qual são juntos aos vetores compactos do grafo
+	 */
+	private int linkDeltaMaxEdges = 100_000;
+
+	/**
+	 * URLs ordenados pelo número de links que apontam para eles, atualizado a cada link novo
+	 */
+	private final InDegreeRanking linkRanking = new InDegreeRanking();
+
+	/**
+	 * PageRank dos URLs, recalculado em segundo plano quando os links mudam. É imutável
+	 * e substituído por inteiro quando é recalculado
+	 */
+	private volatile PageRank pageRank = PageRank.EMPTY;
+
+	/**
+	 * Número de alterações aos links, usado para saber se o PageRank está desatualizado
+	 */
+	private final AtomicLong linksVersion = new AtomicLong();
+
+	/**
+	 * Valor de linksVersion quando o PageRank foi calculado
+	 */
+	private long rankedLinksVersion = -1;
+
+	/**
+	 * Peso do PageRank na pontuação dos resultados
+	 */
+	private double pageRankWeight = 1.0;
+
+	/**
+	 * Thread que recalcula o PageRank
+	 */
+	private ScheduledExecutorService rankScheduler;
+
+	/**
+	 * Divisão do índice pelos barrels, lida do config.properties
+	 */
+	private ShardMap shardMap = ShardMap.DEFAULT;
+
+	/**
+	 * Fila onde as páginas recebidas esperam pelos indexadores
+	 */
+	private IngestQueue ingestQueue;
+
+	/**
+	 * Tempo máximo, em milissegundos, que uma chamada espera por espaço na fila de ingestão
+	 */
+	private long ingestOfferMillis = 100;
+
+	/**
+	 * Registo das escritas recebidas desde o último snapshot
+	 */
+	private WriteAheadLog writeAheadLog;
+
+	/**
+	 * Responsável pelos checkpoints do estado do barrel
 	 */
-	private final Map<String, HashSet<String>> reverseLinks = new HashMap<>();
+	private Checkpointer checkpointer;
 
 	/**
 	* Construtor da classe, recebe dados para a inicialização
@@ -62,11 +195,64 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 			}
 			properties.load(input);
 
+			// Num índice dividido, o barrel só recebe as palavras do seu shard
+			shardMap = ShardMap.fromProperties(properties);
+
+			// Os dados das posting lists podem ficar fora do heap, para as pausas do garbage collector não crescerem com o índice
+			BlockStorage.setOffHeap(Boolean.parseBoolean(properties.getProperty("offHeapPostings", "false")));
+			long flushMillis = Long.parseLong(properties.getProperty("walFlushMillis", "20"));
+			int fullEvery = Integer.parseInt(properties.getProperty("checkpointFullEvery", "10"));
+			int mergeFactor = Integer.parseInt(properties.getProperty("segmentMergeFactor", "4"));
+			writeAheadLog = new WriteAheadLog(new File(".").toPath(), "barrel" + barrelNumber, flushMillis);
+			checkpointer = new Checkpointer(new File(".").toPath(), "barrel" + barrelNumber, writeAheadLog,
+					urlDictionary, index, documentStats, urlInfos, linkGraph, surfaceForms, fullEvery, mergeFactor);
+			// A tabela em memória do índice é gravada num segmento em disco quando atinge este número de ocorrências
+			index.setFlushPolicy(Long.parseLong(properties.getProperty("memtableMaxPostings", "1000000")), checkpointer::requestFlush);
+			// O número de URLs de cada palavra é contado pelo índice direto, sem as versões antigas das páginas
+			index.setDocumentFrequencies(forwardIndex::documentFrequency);
+
+			// Os links novos são juntos aos vetores compactos do grafo quando atingem este número (ou um oitavo do grafo)
+			linkDeltaMaxEdges = Integer.parseInt(properties.getProperty("linkDeltaMaxEdges", "100000"));
+
 			loadDataFromFile();
+			buildForwardIndex();
+			rankLinks();
+
+			// As escritas posteriores ao último checkpoint são recuperadas do registo
+			recoverFromLog();
+			checkpointer.start(Long.parseLong(properties.getProperty("checkpointIntervalSeconds", "60")));
+			dictionaryRefreshMillis = 1000 * Long.parseLong(properties.getProperty("suggestRefreshSeconds", "10"));
+			// As palavras com erros são substituídas pelas suas correções (0 desliga, ficando só as sugestões)
+			maxExpansions = Integer.parseInt(properties.getProperty("spellingExpansions", "3"));
+			queryEvaluator.setCorrector(term -> new ArrayList<>(termDictionary().corrections(term, maxExpansions).keySet()));
+			refreshTermDictionary();
+			// O PageRank é somado à pontuação BM25 com este peso (0 ordena só por BM25)
+			pageRankWeight = Double.parseDouble(properties.getProperty("pageRankWeight", "1.0"));
+			startPageRank(Long.parseLong(properties.getProperty("pageRankIntervalSeconds", "60")));
+			// As páginas recebidas esperam numa fila limitada e são aplicadas em lotes pelos indexadores
+			ingestOfferMillis = Long.parseLong(properties.getProperty("ingestOfferMillis", "100"));
+			ingestQueue = new IngestQueue("barrel" + barrelNumber,
+					Integer.parseInt(properties.getProperty("ingestQueueCapacity", "1000")),
+					Integer.parseInt(properties.getProperty("indexerThreads", "1")),
+					Integer.parseInt(properties.getProperty("ingestBatchSize", "64")),
+					new IngestQueue.Applier() {
+						@Override
+						public long log(IndexDocument document) {
+							// Um único registo para a página inteira
+							return writeAheadLog.logDocument(document);
+						}
+
+						@Override
+						public int apply(List<IndexDocument> documents, long[] records) {
+							return applyDocuments(documents, records);
+						}
+					});
 			
 			gateway.registerBarrel(this);
 			System.out.println("Barrel " + barrelNumber + " iniciado.");
 
+        } catch (RemoteException e) {
+            throw e;
         } catch (IOException e) {
             throw new RemoteException("Erro ao inicializar MulticastSocket", e);
         }
@@ -75,22 +261,20 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 
 	@Override
 	public Map<String, HashSet<String>> getIndex() throws RemoteException {
-        return index;
+		Map<String, HashSet<String>> result = new HashMap<>();
+		index.forEachTerm((term, cursor) -> result.put(term, toUrls(cursor)));
+		return result;
     }
 
 	@Override
 	public int getIndexSize() throws RemoteException {
-		synchronized (index) {
-			return index.size();
-		}
+		return index.termCount();
 	}
 
 	@Override
 	public int getLinkCount(String url) throws RemoteException {
-		synchronized (reverseLinks) {
-			HashSet<String> links = reverseLinks.get(url);
-			return (links != null) ? links.size() : 0;  
-		}
+		int id = urlDictionary.getId(url);
+		return (id >= 0) ? linkGraph.inDegree(id) : 0;
 	}
 
 	@Override
@@ -101,152 +285,637 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 
 	@Override
     public void addLink(String sourceUrl, String targetUrl) throws RemoteException {
-		synchronized (reverseLinks) {
-			HashSet<String> sources = reverseLinks.get(targetUrl);
-			if (sources == null) {
-				sources = new HashSet<>();
-				reverseLinks.put(targetUrl, sources);
+		storeLink(sourceUrl, targetUrl);
+		writeAheadLog.logLink(sourceUrl, targetUrl);
+    }
+
+	/**
+	 * Método para armazenar um link
+	 * @param sourceUrl URL de origem
+	 * @param targetUrl URL de destino
+	 */
+	private void storeLink(String sourceUrl, String targetUrl) {
+		int source = urlDictionary.getOrAssign(sourceUrl);
+		int target = urlDictionary.getOrAssign(targetUrl);
+		storeLink(source, target);
+		forwardIndex.addLink(source, target);
+	}
+
+	/**
+	 * Método para acrescentar um link ao grafo e atualizar o número de links do destino
+	 * @param source identificador da origem
+	 * @param target identificador do destino
+	 */
+	private void storeLink(int source, int target) {
+		if (linkGraph.add(source, target)) {
+			linkRanking.add(target, 1);
+			linksVersion.incrementAndGet();
+			checkpointer.linksChanged(target);
+			// O limite cresce com o grafo, para que cada link seja copiado um número limitado de vezes
+			if (linkGraph.deltaSize() >= Math.max(linkDeltaMaxEdges, linkGraph.edgeCount() / 8)) {
+				mergeLinks();
 			}
-			sources.add(sourceUrl);
-			
 		}
-    }
+	}
+
+	/**
+	 * Método para substituir os links de um URL: os que a página deixou de ter saem do grafo,
+	 * e deixam de contar para o número de links e para o PageRank do destino
+	 * @param source identificador da origem
+	 * @param targetUrls URLs de destino dos links novos (vazio para retirar todos)
+	 */
+	private void replaceLinks(int source, String[] targetUrls) {
+		int[] targets = new int[targetUrls.length];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = urlDictionary.getOrAssign(targetUrls[i]);
+		}
+		targets = Arrays.stream(targets).sorted().distinct().toArray();
+		for (int previous : forwardIndex.links(source)) {
+			if (Arrays.binarySearch(targets, previous) < 0 && linkGraph.remove(source, previous)) {
+				linkRanking.add(previous, -1);
+				linksVersion.incrementAndGet();
+				checkpointer.linksChanged(previous);
+			}
+		}
+		for (int target : targets) {
+			storeLink(source, target);
+		}
+		forwardIndex.setLinks(source, targets);
+	}
+
+	/**
+	 * Método para juntar, em segundo plano, os links novos aos vetores compactos do grafo
+	 */
+	private void mergeLinks() {
+		if (!mergingLinks.compareAndSet(false, true)) {
+			return;
+		}
+		ForkJoinPool.commonPool().execute(() -> {
+			try {
+				linkGraph.merge();
+			} finally {
+				mergingLinks.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Método para armazenar o título e a descrição de um URL
+	 * @param url URL
+	 * @param title título da página
+	 * @param description descrição da página
+	 */
+	private void storeUrlInfo(String url, String title, String description) {
+		int id = urlDictionary.getOrAssign(url);
+		urlInfos.put(id, new SimpleEntry<>(title, description));
+		checkpointer.urlInfoChanged(id);
+	}
 
 	
 
 	@Override
 	public List<String> searchMultipleWords(String[] words) throws RemoteException {
-		synchronized (index) {
-			if (words == null || words.length == 0) {
-				return new ArrayList<>();
+		List<String> resultTitles = new ArrayList<>();
+		for (SearchHit hit : searchScored(SearchQuery.of(words))) {
+			resultTitles.add(hit.toString());
+		}
+		return resultTitles;
+	}
+
+	@Override
+	public List<SearchHit> searchScored(SearchQuery query) throws RemoteException {
+		// Os cursores leem uma fotografia de cada posting list, as escritas não ficam bloqueadas
+		return toSearchHits(queryEvaluator.evaluate(query));
+	}
+
+	@Override
+	public List<SearchHit> searchTopK(SearchQuery query, int k, int offset) throws RemoteException {
+		return searchTopK(query, k, offset, null);
+	}
+
+	@Override
+	public List<SearchHit> searchTopK(SearchQuery query, int k, int offset, CollectionStatistics statistics) throws RemoteException {
+		if (k <= 0 || offset < 0) {
+			return new ArrayList<>();
+		}
+		// Só os resultados da página pedida são convertidos e enviados ao cliente
+		List<QueryEvaluator.Match> matches = queryEvaluator.evaluate(query, (int) Math.min(Integer.MAX_VALUE, (long) offset + k), statistics);
+		if (offset >= matches.size()) {
+			return new ArrayList<>();
+		}
+		return toSearchHits(matches.subList(offset, matches.size()));
+	}
+
+	@Override
+	public int getShard() throws RemoteException {
+		return shardMap.shardOfBarrel(barrelNumber);
+	}
+
+	@Override
+	public List<TermPostings> getPostings(List<String> terms, Set<String> phraseTerms, List<String> candidates) throws RemoteException {
+		PostingCursor[] cursors = new PostingCursor[terms.size()];
+		boolean all = true;
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = index.cursor(terms.get(i));
+			all &= cursors[i] != null;
+		}
+		int[] allowed = null;
+		if (candidates != null) {
+			allowed = candidates.stream().mapToInt(urlDictionary::getId).filter(docId -> docId >= 0).sorted().toArray();
+		}
+		List<String> urls = new ArrayList<>();
+		List<List<Integer>> frequencies = new ArrayList<>();
+		List<List<int[]>> positions = new ArrayList<>();
+		for (int i = 0; i < cursors.length; i++) {
+			frequencies.add(new ArrayList<>());
+			positions.add(new ArrayList<>());
+		}
+		// Os cursores avançam juntos até um URL comum a todas as palavras (e aos candidatos)
+		int next = 0;
+		int target = 0;
+		while (all && (allowed == null || next < allowed.length)) {
+			int doc = (allowed != null) ? Math.max(target, allowed[next]) : target;
+			for (int i = 0; i < cursors.length && doc != PostingList.NO_MORE_DOCS;) {
+				int found = (cursors[i].docId() >= doc) ? cursors[i].docId() : cursors[i].advance(doc);
+				if (found == doc) {
+					i++;
+				} else {
+					doc = found;
+					i = 0;
+				}
 			}
-	
-			Set<String> result = null;
-	
-			for (String word : words) {
-				//System.out.println("Palavra '" + word + "' dentro do for");
-				word = word.toLowerCase();
-				//System.out.println(index);
-				HashSet<String> urlsForWord = index.get(word);
-	
-				if (urlsForWord == null) {
-					//System.out.println("urlsForWord == null");
-					return new ArrayList<>();
+			if (doc == PostingList.NO_MORE_DOCS) {
+				break;
+			}
+			target = doc + 1;
+			if (allowed != null) {
+				while (next < allowed.length && allowed[next] < doc) {
+					next++;
 				}
-	
-				if (result == null) {
-					result = new HashSet<>(urlsForWord);
-				} else {
-					result.retainAll(urlsForWord);
+				if (next == allowed.length || allowed[next] != doc) {
+					continue;
 				}
+				next++;
 			}
-			List<String> resultTitles = new ArrayList<>();
-			if (result != null) {
-				for (String url : result) {
-					SimpleEntry<String, String> urlInfo = urlInfos.get(url);
-					if (urlInfo != null) {
-						String title = urlInfo.getKey();
-						String description = urlInfo.getValue();
-						resultTitles.add(url + " | Título: " + title + " | Descrição: " + description );
-					}
+			// Tal como nas pesquisas locais, uma página a meio da indexação é ignorada
+			if (!queryEvaluator.isHidden(doc)) {
+				urls.add(urlDictionary.getUrl(doc));
+				for (int i = 0; i < cursors.length; i++) {
+					frequencies.get(i).add(cursors[i].freq());
+					positions.get(i).add(phraseTerms.contains(terms.get(i)) ? cursors[i].positions() : NO_POSITIONS);
 				}
 			}
+		}
+		String[] found = urls.toArray(new String[0]);
+		List<TermPostings> result = new ArrayList<>(terms.size());
+		for (int i = 0; i < cursors.length; i++) {
+			result.add(new TermPostings(terms.get(i), found, frequencies.get(i).stream().mapToInt(Integer::intValue).toArray(),
+					positions.get(i).toArray(new int[0][]), (cursors[i] != null) ? cursors[i].cost() : 0));
+		}
+		return result;
+	}
+
+	@Override
+	public ShardStatistics getShardStatistics(List<String> urls) throws RemoteException {
+		PageRank ranks = pageRank;
+		int[] lengths = new int[urls.size()];
+		double[] staticScores = new double[urls.size()];
+		for (int i = 0; i < lengths.length; i++) {
+			int docId = urlDictionary.getId(urls.get(i));
+			if (docId >= 0) {
+				lengths[i] = documentStats.length(docId);
+				staticScores[i] = pageRankWeight * ranks.staticScore(docId);
+			}
+		}
+		// Na divisão por palavras todos os Barrels guardam a informação de todas as páginas, mesmo sem palavras do shard
+		return new ShardStatistics(urlInfos.size(), documentStats.totalLength(), lengths, staticScores);
+	}
+
+	@Override
+	public CollectionStatistics getCollectionStatistics(List<String> terms) throws RemoteException {
+		// O número de URLs de cada palavra é o mesmo que a pesquisa local usa no idf
+		Map<String, Integer> documentFrequencies = new HashMap<>();
+		for (String term : terms) {
+			PostingCursor cursor = index.cursor(term);
+			documentFrequencies.put(term, (cursor != null) ? cursor.cost() : 0);
+		}
+		return new CollectionStatistics(documentStats.documentCount(), documentStats.totalLength(), documentFrequencies);
+	}
+
+	@Override
+	public List<SearchHit> getSearchHits(List<String> urls, double[] scores) throws RemoteException {
+		List<SearchHit> hits = new ArrayList<>(urls.size());
+		for (int i = 0; i < urls.size(); i++) {
+			int docId = urlDictionary.getId(urls.get(i));
+			SimpleEntry<String, String> urlInfo = (docId >= 0) ? urlInfos.get(docId) : null;
+			if (urlInfo != null) {
+				hits.add(new SearchHit(urls.get(i), urlInfo.getKey(), urlInfo.getValue(), scores[i]));
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Método que converte os resultados do avaliador em resultados com título e descrição
+	 * @param matches resultados do avaliador
+	 * @return resultados de pesquisa, pela mesma ordem
+	 */
+	private List<SearchHit> toSearchHits(List<QueryEvaluator.Match> matches) {
+		List<SearchHit> hits = new ArrayList<>(matches.size());
+		for (QueryEvaluator.Match match : matches) {
+			SimpleEntry<String, String> urlInfo = urlInfos.get(match.docId);
+			if (urlInfo != null) {
+				hits.add(new SearchHit(urlDictionary.getUrl(match.docId), urlInfo.getKey(), urlInfo.getValue(), match.score));
+			}
+		}
+		return hits;
+	}
+
+
+	@Override
+	public LinkedHashMap<String, Integer> suggest(String prefix, int limit) throws RemoteException {
+		// O dicionário tem as palavras sem acentos e reduzidas pelo stemmer: o prefixo perde os acentos
+		// e, se for já uma palavra mais comprida que a sua forma reduzida, também é reduzido
+		String folded = Analyzer.foldAccents().apply(prefix.trim().toLowerCase(Locale.ROOT));
+		int max = Math.min(limit, MAX_SUGGESTIONS);
+		TermDictionary dictionary = termDictionary();
+		LinkedHashMap<String, Integer> terms = dictionary.complete(folded, max);
+		String stemmed = PortugueseStemmer.stem(folded);
+		if (terms.size() < max && !stemmed.isEmpty() && !stemmed.equals(folded)) {
+			dictionary.complete(stemmed, max).forEach(terms::putIfAbsent);
+		}
+		// As palavras são mostradas na forma original mais frequente, e duas palavras com a mesma forma contam uma vez
+		Map<String, Integer> counts = new HashMap<>();
+		terms.forEach((term, count) -> counts.merge(surfaceForms.get(term), count, Math::max));
+		List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+		LinkedHashMap<String, Integer> suggestions = new LinkedHashMap<>();
+		for (int i = 0; i < Math.min(max, entries.size()); i++) {
+			suggestions.put(entries.get(i).getKey(), entries.get(i).getValue());
+		}
+		return suggestions;
+	}
 
+	@Override
+	public String didYouMean(String input) throws RemoteException {
+		TermDictionary dictionary = termDictionary();
+		// Só as palavras corrigidas são substituídas, o resto do texto (aspas, palavras comuns) fica igual
+		StringBuilder corrected = new StringBuilder();
+		int copied = 0;
+		for (Analyzer.Token token : Analyzer.standard().analyze(input)) {
+			if (index.cursor(token.getTerm()) != null) {
+				continue;
+			}
+			Iterator<String> corrections = dictionary.corrections(token.getTerm(), 1).keySet().iterator();
+			if (corrections.hasNext()) {
+				corrected.append(input, copied, token.getStart()).append(corrections.next());
+				copied = token.getEnd();
+			}
+		}
+		if (copied == 0) {
+			return null;
+		}
+		return corrected.append(input.substring(copied)).toString();
+	}
 
-        	return resultTitles;
+	/**
+	 * Método que devolve o dicionário de palavras atual, pedindo a sua reconstrução em segundo
+	 * plano se o índice mudou desde a última. A resposta nunca espera pela reconstrução
+	 * @return dicionário de palavras
+	 */
+	private TermDictionary termDictionary() {
+		TermDictionary dictionary = termDictionary;
+		if (dictionary.getVersion() != index.version() && System.currentTimeMillis() - dictionaryBuiltAt >= dictionaryRefreshMillis) {
+			refreshTermDictionary();
 		}
+		return dictionary;
 	}
 
+	/**
+	 * Método que reconstrói o dicionário de palavras numa thread de fundo, se não estiver já a ser reconstruído
+	 */
+	private void refreshTermDictionary() {
+		if (!rebuildingDictionary.compareAndSet(false, true)) {
+			return;
+		}
+		ForkJoinPool.commonPool().execute(() -> {
+			try {
+				termDictionary = TermDictionary.build(index);
+			} catch (RuntimeException e) {
+				System.err.println("Erro ao reconstruir o dicionário do barrel " + barrelNumber + ": " + e.getMessage());
+			} finally {
+				dictionaryBuiltAt = System.currentTimeMillis();
+				rebuildingDictionary.set(false);
+			}
+		});
+	}
 
 	@Override
 	public List<String> getPagesLinkingToPage(String url) throws RemoteException {
-		synchronized (reverseLinks) {
-			HashSet<String> sources = reverseLinks.get(url);
-			if (sources != null) {
-				return new ArrayList<>(sources);
-			} else {
-				return new ArrayList<>();
+		int id = urlDictionary.getId(url);
+		List<String> pages = new ArrayList<>();
+		if (id >= 0) {
+			for (int source : linkGraph.sources(id)) {
+				pages.add(urlDictionary.getUrl(source));
 			}
 		}
+		return pages;
 	}
 
 	@Override
     public LinkedHashMap<String, Integer> getTop10PagesByLinks() throws RemoteException {
-        synchronized (reverseLinks) {
-            Map<String, Integer> linkCountMap = new HashMap<>();
-            
-            for (Map.Entry<String, HashSet<String>> entry : reverseLinks.entrySet()) {
-                linkCountMap.put(entry.getKey(), entry.getValue().size());
-            }
-            
-            List<Map.Entry<String, Integer>> entries = new ArrayList<>(linkCountMap.entrySet());
-            entries.sort((entry1, entry2) -> entry2.getValue().compareTo(entry1.getValue()));
-            
-            LinkedHashMap<String, Integer> top10Pages = new LinkedHashMap<>();
-            for (int i = 0; i < Math.min(10, entries.size()); i++) {
-                Map.Entry<String, Integer> entry = entries.get(i);
-                String pageUrl = entry.getKey();
-                int referenceCount = entry.getValue();
-
-                //System.out.println("Página: " + pageUrl + " | Referências: " + referenceCount);
-                top10Pages.put(pageUrl, referenceCount);
-            }
-            return top10Pages;
-        }
+		// A ordenação é mantida a cada link recebido, só os 10 primeiros URLs são lidos
+		LinkedHashMap<String, Integer> top10Pages = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Integer> entry : linkRanking.top(10).entrySet()) {
+			top10Pages.put(urlDictionary.getUrl(entry.getKey()), entry.getValue());
+		}
+		return top10Pages;
     }
 
+	/**
+	 * Método para ordenar os URLs pelo número de links depois de carregar os dados, que
+	 * acrescentam os links em bloco. Os URLs são acrescentados por ordem crescente
+	 * do número de links, pelo que cada um entra diretamente no último balde da ordenação
+	 */
+	private void rankLinks() {
+		linkGraph.merge();
+		LinkGraph.Csr reverse = linkGraph.reverseCsr();
+		List<Integer> targets = new ArrayList<>();
+		for (int target = 0; target < reverse.nodes(); target++) {
+			if (reverse.degree(target) > 0) {
+				targets.add(target);
+			}
+		}
+		targets.sort(Comparator.comparingInt(reverse::degree));
+		linkRanking.clear();
+		for (int target : targets) {
+			linkRanking.add(target, reverse.degree(target));
+		}
+		linksVersion.incrementAndGet();
+	}
+
+	/**
+	 * Método para iniciar o cálculo periódico do PageRank numa thread própria. O primeiro
+	 * cálculo começa de imediato, os seguintes só são feitos se os links tiverem mudado
+	 * @param intervalSeconds intervalo entre cálculos, 0 desliga o PageRank
+	 */
+	private void startPageRank(long intervalSeconds) {
+		if (intervalSeconds <= 0) {
+			return;
+		}
+		rankScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "barrel" + barrelNumber + "-pagerank");
+			thread.setDaemon(true);
+			return thread;
+		});
+		rankScheduler.scheduleWithFixedDelay(this::refreshPageRank, 0, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Método que recalcula o PageRank se os links mudaram desde o último cálculo. As pesquisas
+	 * continuam a usar o PageRank anterior até o novo estar completo
+	 */
+	private void refreshPageRank() {
+		long version = linksVersion.get();
+		if (version == rankedLinksVersion) {
+			return;
+		}
+		try {
+			// A análise lê só os vetores compactos, que passam a conter todos os links recebidos até aqui
+			linkGraph.merge();
+			PageRank ranks = PageRank.compute(linkGraph.reverseCsr(), urlDictionary.size());
+			pageRank = ranks;
+			rankedLinksVersion = version;
+			queryEvaluator.setPageRank(ranks, pageRankWeight);
+		} catch (RuntimeException e) {
+			// Uma exceção cancelaria os cálculos seguintes
+			System.err.println("Erro ao calcular o PageRank do barrel " + barrelNumber + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public String getPageRankStatistics() throws RemoteException {
+		return pageRank.toString();
+	}
+
+	/**
+	 * Método para converter os identificadores percorridos por um cursor nos respetivos URLs
+	 * @param docIds cursor sobre os identificadores dos URLs
+	 * @return conjunto de URLs
+	 */
+	private HashSet<String> toUrls(PostingCursor docIds) {
+		HashSet<String> urls = new HashSet<>();
+		for (int docId = docIds.nextDoc(); docId != PostingList.NO_MORE_DOCS; docId = docIds.nextDoc()) {
+			urls.add(urlDictionary.getUrl(docId));
+		}
+		return urls;
+	}
+
 	/**
 	 * Método para armazenar uma palavra e o URL onde foi encontrada
 	 * @param url URL onde a palavra foi encontrada
 	 * @param word Palavra a ser armazenada
+	 * @param position Posição da palavra no texto do URL, negativa se for desconhecida
 	 * 
 	 * */
-    protected synchronized void storeWordAndUrl(String url,String word) {
-		synchronized(index){
-			word = word.toLowerCase();  
-
-			// Verifica se a palavra já existe no índice
-			if (index.containsKey(word)) {
-				HashSet<String> urls = index.get(word);
-				if (urls != null) {
-					urls.add(url);
-				} else {
-					urls = new HashSet<>();
-					urls.add(url);
-					index.put(word, urls);	
-				}
-			} else {
-				HashSet<String> urls = new HashSet<>();
-				urls.add(url);
-				index.put(word, urls);
-			}
+    protected void storeWordAndUrl(String url, String word, int position) {
+		word = word.toLowerCase();  
+		int docId = urlDictionary.getOrAssign(url);
 
+		// Só a posting list desta palavra é bloqueada durante a escrita
+		int added = index.add(word, docId, position);
+		if (added > 0) {
+			documentStats.addLength(docId, added);
 		}
+		forwardIndex.add(docId, word);
 	}
 
 
 	@Override
-    public synchronized boolean receiveWord(String url, String word) throws RemoteException {
-        storeWordAndUrl(url, word.toLowerCase());
+    public boolean receiveWord(String url, String word) throws RemoteException {
+        return receiveWord(url, word, -1);
+    }
+
+	@Override
+    public boolean receiveWord(String url, String word, int position) throws RemoteException {
+		// A palavra fica na mesma tabela em memória que o seu registo, mesmo durante uma troca da tabela
+		Lock lock = index.ingestLock();
+		lock.lock();
+		try {
+			storeWordAndUrl(url, word.toLowerCase(), position);
+			// O registo só é gravado no disco em lote, a chamada não espera pelo fsync
+			writeAheadLog.logWord(url, word.toLowerCase(), position);
+		} finally {
+			lock.unlock();
+		}
 		return true;
     }
 
 	@Override
-    public synchronized boolean receiveUrlInfo(String url, String title, String description) throws RemoteException {
-        urlInfos.put(url, new SimpleEntry<>(title, description));
+	public boolean receiveDocument(IndexDocument document) throws RemoteException {
+		// A chamada só espera por espaço na fila; com a fila cheia a página é recusada e o Downloader volta a tentar.
+		// A página aceite já está no registo de escritas, que é gravado no disco em lote sem a chamada esperar pelo fsync
+		return ingestQueue.offer(document, ingestOfferMillis);
+	}
+
+	/**
+	 * Método chamado pelos indexadores para aplicar um lote de páginas da fila de ingestão,
+	 * já gravadas no registo de escritas quando foram aceites. Todo o lote é aplicado com uma só
+	 * aquisição do lock, mas cada página à parte: uma página que falhe é registada como
+	 * falhada e não impede as seguintes. Uma página já indexada substitui a versão anterior,
+	 * e uma página apagada é retirada do índice
+	 * @param documents páginas a aplicar, pela ordem em que foram recebidas
+	 * @param records números dos registos das páginas no registo de escritas
+	 * @return número de páginas aplicadas
+	 */
+	private int applyDocuments(List<IndexDocument> documents, long[] records) {
+		int[] docIds = new int[documents.size()];
+		for (int i = 0; i < docIds.length; i++) {
+			docIds[i] = urlDictionary.getOrAssign(documents.get(i).getUrl());
+			// As pesquisas ignoram o URL até todas as palavras da página estarem no índice
+			queryEvaluator.hide(docIds[i]);
+		}
+		int applied = 0;
+		try {
+			Lock lock = index.ingestLock();
+			lock.lock();
+			try {
+				for (int i = 0; i < records.length; i++) {
+					try {
+						storeDocument(documents.get(i));
+						applied++;
+					} catch (RuntimeException e) {
+						System.err.println("Erro ao aplicar a página " + documents.get(i).getUrl() + ": " + e.getMessage());
+					} finally {
+						// Uma página falhada também deixa de passar para os segmentos novos do registo,
+						// para não voltar a falhar em cada recuperação
+						writeAheadLog.applied(records[i]);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			for (int docId : docIds) {
+				queryEvaluator.show(docId);
+			}
+		}
+		return applied;
+	}
+
+	@Override
+	public String getIngestStatistics() throws RemoteException {
+		return ingestQueue.toString();
+	}
+
+	/**
+	 * Método para armazenar uma página inteira: as ocorrências de cada palavra de uma só vez,
+	 * o título e a descrição, e os links para outros URLs. As ocorrências de uma versão
+	 * anterior da página são retiradas primeiro, e os links que deixou de ter saem do grafo;
+	 * se a página foi apagada, fica sem ocorrências, sem título e sem links. Um documento só
+	 * com os links (de uma página de outro shard) não mexe na informação do URL
+	 * @param document página analisada
+	 */
+	private void storeDocument(IndexDocument document) {
+		int docId = urlDictionary.getOrAssign(document.getUrl());
+		removeDocument(docId);
+		if (document.isDeletion()) {
+			urlInfos.remove(docId);
+			checkpointer.urlInfoChanged(docId);
+			replaceLinks(docId, new String[0]);
+			return;
+		}
+		String[] terms = document.getTerms();
+		int[] frequencies = document.getFrequencies();
+		int[] positions = document.getPositions();
+		String[] surfaces = document.getSurfaces();
+		int added = 0;
+		int start = 0;
+		for (int i = 0; i < terms.length; i++) {
+			added += index.add(terms[i], docId, frequencies[i], Arrays.copyOfRange(positions, start, start + frequencies[i]));
+			surfaceForms.add(terms[i], surfaces[i]);
+			start += frequencies[i];
+		}
+		if (added > 0) {
+			documentStats.addLength(docId, added);
+		}
+		forwardIndex.set(docId, terms);
+		if (document.hasInfo()) {
+			storeUrlInfo(document.getUrl(), document.getTitle(), document.getDescription());
+		}
+		replaceLinks(docId, document.getLinks());
+	}
+
+	/**
+	 * Método para retirar do índice as ocorrências de um URL, com as palavras do índice direto.
+	 * Os links do URL são tratados à parte, por replaceLinks
+	 * @param docId identificador do URL
+	 */
+	private void removeDocument(int docId) {
+		String[] terms = forwardIndex.terms(docId);
+		if (terms.length == 0) {
+			return;
+		}
+		index.delete(docId, terms);
+		documentStats.addLength(docId, -documentStats.length(docId));
+		forwardIndex.set(docId, new String[0]);
+	}
+
+	/**
+	 * Método para construir o índice direto a partir das palavras e dos links carregados do disco
+	 */
+	private void buildForwardIndex() {
+		// Com os links todos nos vetores compactos, os destinos de cada URL são lidos diretamente
+		linkGraph.merge();
+		for (int source = 0; source < linkGraph.nodeCount(); source++) {
+			int[] targets = linkGraph.targets(source);
+			if (targets.length > 0) {
+				forwardIndex.setLinks(source, targets);
+			}
+		}
+		// As palavras são percorridas por ordem, pelo que cada uma entra no fim das palavras do URL
+		index.forEachTerm((term, cursor) -> {
+			for (int docId = cursor.nextDoc(); docId != PostingList.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+				forwardIndex.add(docId, term);
+			}
+		});
+		if (forwardIndex.size() > 0) {
+			System.out.println("Índice direto do barrel " + barrelNumber + " construído com " + forwardIndex.size() + " pares URL, palavra");
+		}
+	}
+
+	@Override
+    public boolean receiveUrlInfo(String url, String title, String description) throws RemoteException {
+        storeUrlInfo(url, title, description);
+		writeAheadLog.logUrlInfo(url, title, description);
 		return true;
     }
 
 	@Override
-    public synchronized boolean receiveLink(String sourceUrl, String targetUrl) throws RemoteException {
+    public boolean receiveLink(String sourceUrl, String targetUrl) throws RemoteException {
         addLink(sourceUrl, targetUrl);
 		return true;
     }
 
 	/**
-	 * Método para carregar os dados do ficheiro do barrel
+	 * Método para carregar os dados do barrel, a partir dos checkpoints binários ou,
+	 * se ainda não existirem, do ficheiro de texto usado pelas versões anteriores
+	 * @throws RemoteException se os dados existirem mas não puderem ser lidos, o que impede o arranque
 	 */
-	private synchronized void loadDataFromFile() {
+	private synchronized void loadDataFromFile() throws RemoteException {
+		try {
+			if (checkpointer.load()) {
+				System.out.println("Dados carregados dos checkpoints do barrel " + barrelNumber +
+								 ": " + index.termCount() + " palavras, " +
+								 urlInfos.size() + " URLs, " +
+								 linkGraph.edgeCount() + " conexões");
+				return;
+			}
+		} catch (IOException e) {
+			// Arrancar vazio levaria o checkpoint seguinte a substituir os dados que não puderam ser lidos
+			throw new RemoteException("Erro ao ler os checkpoints do barrel " + barrelNumber, e);
+		}
+
 		String fileName = "barrel" + barrelNumber + ".txt";
 		File file = new File(fileName);
 		
@@ -256,22 +925,69 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 		}
 	
 		try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+			// Cada linha descreve uma palavra, URL ou destino diferente e as estruturas do barrel
+			// aceitam escritas concorrentes, pelo que as linhas são processadas em paralelo
+			List<String> lines = new ArrayList<>();
 			String line;
 			while ((line = reader.readLine()) != null) {
-				if (line.startsWith("word|")) {
-					processWordLine(line);
-				} else if (line.startsWith("info|")) {
-					processInfoLine(line);
-				} else if (line.startsWith("connections|")) {
-					processConnectionsLine(line);
-				}
+				lines.add(line);
 			}
+			RangeTask.run(0, lines.size(), 64, (from, to) -> {
+				for (String current : lines.subList(from, to)) {
+					if (current.startsWith("word|")) {
+						processWordLine(current);
+					} else if (current.startsWith("info|")) {
+						processInfoLine(current);
+					} else if (current.startsWith("connections|")) {
+						processConnectionsLine(current);
+					}
+				}
+			});
 			System.out.println("Dados carregados do ficheiro " + fileName + 
-							 ": " + index.size() + " palavras, " + 
+							 ": " + index.termCount() + " palavras, " + 
 							 urlInfos.size() + " URLs, " + 
-							 reverseLinks.size() + " conexões");
+							 linkGraph.edgeCount() + " conexões");
 		} catch (IOException e) {
-			System.err.println("Erro ao ler o ficheiro " + fileName + ": " + e.getMessage());
+			throw new RemoteException("Erro ao ler o ficheiro " + fileName, e);
+		}
+	}
+
+	/**
+	 * Método para reaplicar as escritas registadas depois do último checkpoint.
+	 * As palavras com posição, as informações e os links podem ser reaplicados
+	 * sem alterar o resultado, mesmo que já estejam no checkpoint. As escritas
+	 * reaplicadas ficam marcadas como alteradas e entram no checkpoint seguinte
+	 * @throws IOException se o registo não puder ser lido
+	 */
+	private void recoverFromLog() throws IOException {
+		int records = writeAheadLog.replay(new WriteAheadLog.Handler() {
+			@Override
+			public void word(String url, String word, int position) {
+				storeWordAndUrl(url, word, position);
+			}
+
+			@Override
+			public void urlInfo(String url, String title, String description) {
+				storeUrlInfo(url, title, description);
+			}
+
+			@Override
+			public void link(String sourceUrl, String targetUrl) {
+				storeLink(sourceUrl, targetUrl);
+			}
+
+			@Override
+			public void document(IndexDocument document) {
+				storeDocument(document);
+			}
+
+			@Override
+			public void delete(String url) {
+				storeDocument(IndexDocument.deletion(url));
+			}
+		});
+		if (records > 0) {
+			System.out.println("Recuperadas " + records + " escritas do registo do barrel " + barrelNumber);
 		}
 	}
 
@@ -280,22 +996,30 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 	 * @param line Linha a ser processada
 	 */
 	private void processWordLine(String line) {
-		// Formato: word|palavra: url1, url2, url3
+		// Formato: word|palavra; url1 frequência1 posição1 posição2, url2 frequência2 posição1
+		// (ficheiros antigos não têm frequências nem posições)
 		String[] parts = line.split("\\|");
 		if (parts.length < 2) return;
 		
 		String[] wordAndUrls = parts[1].split(";");
 		if (wordAndUrls.length < 2) return;
 		
-		String word = wordAndUrls[0].trim();
+		// Os ficheiros antigos guardam as palavras sem análise, que é aplicada ao importar
+		String word = Analyzer.standard().analyzeWord(wordAndUrls[0].trim());
+		if (word == null) return;
 		String[] urls = wordAndUrls[1].split(",");
 		
-		HashSet<String> urlSet = new HashSet<>();
-		for (String url : urls) {
-			urlSet.add(url.trim());
+		for (String entry : urls) {
+			String[] fields = entry.trim().split(" ");
+			int freq = (fields.length > 1) ? Integer.parseInt(fields[1]) : 1;
+			int[] positions = new int[Math.max(0, fields.length - 2)];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = Integer.parseInt(fields[i + 2]);
+			}
+			int docId = urlDictionary.getOrAssign(fields[0]);
+			int added = index.add(word, docId, freq, positions);
+			documentStats.addLength(docId, added);
 		}
-		
-		index.put(word, urlSet);
 	}
 
 	/**
@@ -311,7 +1035,7 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 		String title = parts[2].trim();
 		String description = parts[3].trim();
 		
-		urlInfos.put(url, new SimpleEntry<>(title, description));
+		urlInfos.put(urlDictionary.getOrAssign(url), new SimpleEntry<>(title, description));
 	}
 
 	/**
@@ -329,49 +1053,18 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 		String url = urlAndSources[0].trim();
 		String[] sources = urlAndSources[1].split(",");
 		
-		HashSet<String> sourceSet = new HashSet<>();
+		int target = urlDictionary.getOrAssign(url);
 		for (String source : sources) {
-			sourceSet.add(source.trim());
+			linkGraph.add(urlDictionary.getOrAssign(source.trim()), target);
 		}
-		
-		reverseLinks.put(url, sourceSet);
 	}
 
 
 	@Override
-	public synchronized void writeAllInformationToFile() throws RemoteException {
-		String fileName = "barrel" + barrelNumber + ".txt"; 
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) { 
-
-			// Escreve as palavras no índice
-			for (Map.Entry<String, HashSet<String>> entry : index.entrySet()) {
-				String word = entry.getKey();
-				HashSet<String> urls = entry.getValue();
-				String line = "word|" + word + "; " + String.join(", ", urls);
-				writer.write(line);
-				writer.newLine();
-			}
-
-			// Escreve as informações sobre os URLs (título e descrição)
-			for (Map.Entry<String, SimpleEntry<String, String>> entry : urlInfos.entrySet()) {
-				String url = entry.getKey();
-				SimpleEntry<String, String> info = entry.getValue();
-				String line = "info|" + url + "|" + info.getKey() + "| " + info.getValue();
-				writer.write(line);
-				writer.newLine();
-			}
-
-			// Escreve os links reversos
-			for (Map.Entry<String, HashSet<String>> entry : reverseLinks.entrySet()) {
-				String targetUrl = entry.getKey();
-				HashSet<String> sources = entry.getValue();
-				String line = "connections|" + targetUrl + "; " + String.join(", ", sources);
-				writer.write(line);
-				writer.newLine();
-
-			}
-			writer.flush(); 
-
+	public void writeAllInformationToFile() throws RemoteException {
+		// Só o que mudou desde o último checkpoint é gravado, sem bloquear as escritas nem as pesquisas
+		try {
+			checkpointer.checkpoint(false);
 		} catch (IOException e) {
 			System.err.println("Erro ao gravar no arquivo: " + e.getMessage());
 			e.printStackTrace();
@@ -408,6 +1101,8 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 				System.out.println("\n[LOG] Barrel " + finalBarrel.barrelNumber + " recebeu Ctrl+C. A guardar no ficheiro...");
 				try {
+					// As páginas já aceites são aplicadas antes do último checkpoint
+					finalBarrel.ingestQueue.close(5000);
 					finalBarrel.writeAllInformationToFile();
 					Thread.sleep(1000);
 					gateway.removeBarrel(finalBarrel.barrelNumber);
@@ -423,6 +1118,8 @@ public class Barrel extends UnicastRemoteObject implements BarrelInterface{
 	
 		} catch (Exception e) {
 			e.printStackTrace();
+			// Um barrel que não arrancou (por exemplo, com um checkpoint ilegível) termina sem gravar nada
+			System.exit(1);
 		}
 	}
 }
\ No newline at end of file
@@ -41,6 +41,93 @@ public interface BarrelInterface extends Remote {
 	 */
 	List<String> searchMultipleWords(String[] words) throws RemoteException;
 
+	/**
+	 * Método para pesquisar no índice, devolvendo os resultados já pontuados com BM25
+	 * e PageRank e ordenados do mais para o menos relevante
+	 * @param query pesquisa com as palavras e as frases entre aspas
+	 * @return lista de resultados que contêm todas as palavras e frases
+	 */
+	List<SearchHit> searchScored(SearchQuery query) throws RemoteException;
+
+	/**
+	 * Método para pesquisar no índice devolvendo apenas uma página dos resultados ordenados
+	 * por pontuação BM25 e PageRank. Os URLs que não podem entrar na página são ignorados sem serem
+	 * pontuados, pelo que o custo depende do tamanho da página e não do número de resultados
+	 * @param query pesquisa com as palavras e as frases entre aspas
+	 * @param k número máximo de resultados a devolver
+	 * @param offset número de resultados melhores a saltar (páginas anteriores)
+	 * @return resultados da página, do mais para o menos relevante
+	 */
+	List<SearchHit> searchTopK(SearchQuery query, int k, int offset) throws RemoteException;
+
+	/**
+	 * Método que devolve uma página dos resultados de uma pesquisa sobre os URLs do shard do
+	 * barrel, pontuados com as estatísticas do índice inteiro, num índice dividido por páginas
+	 * @param query pesquisa com as palavras e as frases entre aspas
+	 * @param k número máximo de resultados a devolver
+	 * @param offset número de resultados melhores a saltar (páginas anteriores)
+	 * @param statistics estatísticas somadas de todos os shards
+	 * @return resultados da página, do mais para o menos relevante
+	 */
+	List<SearchHit> searchTopK(SearchQuery query, int k, int offset, CollectionStatistics statistics) throws RemoteException;
+
+	/**
+	 * Método que devolve as estatísticas do índice do barrel usadas pelo BM25, para o Gateway
+	 * as somar num índice dividido por páginas
+	 * @param terms palavras já analisadas da pesquisa
+	 * @return número de URLs, soma dos comprimentos e número de URLs de cada palavra
+	 */
+	CollectionStatistics getCollectionStatistics(List<String> terms) throws RemoteException;
+
+	/**
+	 * Método que devolve o shard do barrel, num índice dividido (0 se o índice não estiver dividido)
+	 * @return número do shard
+	 */
+	int getShard() throws RemoteException;
+
+	/**
+	 * Método que devolve as ocorrências de palavras do shard do barrel nos URLs que contêm
+	 * todas essas palavras, para o Gateway juntar as pesquisas num índice dividido por palavras
+	 * @param terms palavras já analisadas
+	 * @param phraseTerms palavras de frases, as únicas cujas posições são enviadas
+	 * @param candidates URLs a que a resposta se limita, ou null para todos
+	 * @return ocorrências de cada palavra, pela mesma ordem e nos mesmos URLs (nenhum se uma palavra não existir)
+	 */
+	List<TermPostings> getPostings(List<String> terms, Set<String> phraseTerms, List<String> candidates) throws RemoteException;
+
+	/**
+	 * Método que devolve as estatísticas do shard do barrel e os comprimentos e pontuações
+	 * estáticas de um conjunto de URLs, usados pelo Gateway para pontuar uma pesquisa
+	 * @param urls URLs a pontuar
+	 * @return estatísticas do shard e de cada URL
+	 */
+	ShardStatistics getShardStatistics(List<String> urls) throws RemoteException;
+
+	/**
+	 * Método que junta o título e a descrição guardados no barrel a URLs já pontuados
+	 * @param urls URLs, do mais para o menos relevante
+	 * @param scores pontuação de cada URL
+	 * @return resultados de pesquisa, pela mesma ordem (os URLs desconhecidos são ignorados)
+	 */
+	List<SearchHit> getSearchHits(List<String> urls, double[] scores) throws RemoteException;
+
+	/**
+	 * Método que completa um prefixo (com ou sem acentos) com as palavras do índice em que mais
+	 * URLs ocorrem, cada uma na forma original mais frequente nas páginas
+	 * @param prefix prefixo a completar
+	 * @param limit número máximo de palavras
+	 * @return palavras e respetivo número de URLs, da mais para a menos frequente
+	 */
+	LinkedHashMap<String, Integer> suggest(String prefix, int limit) throws RemoteException;
+
+	/**
+	 * Método que corrige as palavras de uma pesquisa que não existem no índice, substituindo cada
+	 * uma pela palavra mais parecida, para sugerir "quis dizer" ao utilizador
+	 * @param input texto da pesquisa
+	 * @return texto corrigido, ou null se não houver nada a corrigir
+	 */
+	String didYouMean(String input) throws RemoteException;
+
 	/**
 	 * Método que devolve a lista de links que apontam para uma dada página
 	 * @param url url
@@ -62,6 +149,18 @@ public interface BarrelInterface extends Remote {
 	 */
 	int getLinkCount(String url) throws RemoteException;
 
+	/**
+	 * Método que devolve o resumo do último cálculo do PageRank
+	 * @return número de URLs e links, iterações, convergência e duração do cálculo
+	 */
+	String getPageRankStatistics() throws RemoteException;
+
+	/**
+	 * Método que devolve o estado da fila de ingestão do barrel
+	 * @return páginas à espera, atraso na aplicação, páginas aplicadas e recusadas
+	 */
+	String getIngestStatistics() throws RemoteException;
+
 	
 	/**
 	 * Método para receber do downloader uma palavra e os links em que ocorre 
@@ -70,6 +169,15 @@ public interface BarrelInterface extends Remote {
 	 */
 	boolean receiveWord(String url, String word) throws RemoteException;
 
+	/**
+	 * Método para receber do downloader uma palavra, o link em que ocorre e a sua posição no texto,
+	 * usada para responder a pesquisas por frases
+	 * @param url,word url e word
+	 * @param position posição da palavra no texto da página
+	 * @return true se a palavra foi recebida com sucesso
+	 */
+	boolean receiveWord(String url, String word, int position) throws RemoteException;
+
 	/**
 	 * Método para receber informação de um link
 	 * @param url, title, description
@@ -77,6 +185,16 @@ public interface BarrelInterface extends Remote {
 	 */
 	boolean receiveUrlInfo(String url, String title, String description) throws RemoteException;
 
+	/**
+	 * Método para receber do downloader uma página inteira numa só chamada: informação,
+	 * palavras com as frequências e posições, e links. A página entra na fila de ingestão do barrel
+	 * e é aplicada depois, de forma atómica: as pesquisas só a encontram com todas as palavras no índice.
+	 * Uma página já indexada é substituída, e um documento de {@link IndexDocument#deletion(String)} retira-a
+	 * @param document página analisada
+	 * @return true se a página foi aceite e registada, false se a fila está cheia ou o registo falhou e a página deve ser reenviada mais tarde
+	 */
+	boolean receiveDocument(IndexDocument document) throws RemoteException;
+
 	/**
 	 * Método para receber um link que aponta para outro 
 	 * @param sourceUrl,targetUrl source e target
@@ -0,0 +1,643 @@
+package googol.backend;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.AbstractMap.SimpleEntry;
+
+
+/**
+ * Classe que representa um checkpoint do estado de um Barrel e o formato binário
+ * em que é gravado. Um checkpoint completo contém todo o estado; um checkpoint
+ * incremental contém apenas o que mudou desde o checkpoint anterior (URLs novos,
+ * posting lists, informações e links alterados), que substitui a versão anterior
+ * ao ser lido. Os comprimentos dos URLs não são gravados: são recalculados a partir
+ * das frequências das posting lists lidas, pelo que ficam sempre coerentes com elas.
+ * As posting lists incluídas são só as da tabela em memória do índice; o checkpoint
+ * guarda também a lista dos segmentos do índice ({@link IndexSegment}) em vigor e,
+ * nos incrementais, se a tabela em memória foi trocada (e por isso está completa).
+ * O ficheiro começa por um número mágico, uma versão, o tipo e o número de
+ * sequência do checkpoint e os segmentos do índice, seguidos das secções: tabela de URLs, dicionário de palavras com os blocos comprimidos das posting lists, título e
+ * descrição dos URLs, URLs cuja informação foi retirada (só nos incrementais), grafo de links, URLs apagados (com a geração de cada um, ver {@link Tombstones}) e forma original das palavras ({@link SurfaceForms}). Os URLs são referidos pelo seu identificador
+ * e os blocos são gravados tal como estão em memória, pelo que a leitura (feita
+ * sobre o ficheiro mapeado em memória) não precisa de partir texto nem de voltar
+ * a comprimir nada
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class BarrelSnapshot {
+
+	/**
+	 * Número mágico que identifica um snapshot de um Barrel ("GOOG")
+	 */
+	static final int MAGIC = 0x474F4F47;
+
+	/**
+	 * Versão atual do formato
+	 */
+	static final int VERSION = 6;
+
+	/**
+	 * Número de entradas de uma secção lidas por cada tarefa paralela
+	 */
+	private static final int PARALLEL_THRESHOLD = 256;
+
+	/**
+	 * Indica se o checkpoint contém todo o estado ou só as alterações
+	 */
+	private final boolean full;
+
+	/**
+	 * Número de sequência do checkpoint
+	 */
+	private final long sequence;
+
+	/**
+	 * Indica se as palavras incluídas substituem toda a tabela em memória (depois de uma troca da tabela)
+	 */
+	private final boolean termsComplete;
+
+	/**
+	 * Números dos segmentos do índice em vigor
+	 */
+	private final long[] segments;
+
+	/**
+	 * Identificador do primeiro URL da tabela deste checkpoint
+	 */
+	private final int firstUrl;
+
+	/**
+	 * URLs com identificadores a partir de firstUrl
+	 */
+	private final String[] urls;
+
+	/**
+	 * Palavras incluídas
+	 */
+	private final String[] terms;
+
+	/**
+	 * Blocos da posting list de cada palavra
+	 */
+	private final PostingBlock[][] postings;
+
+	/**
+	 * Identificadores dos URLs com informação incluída
+	 */
+	private final int[] infoIds;
+
+	/**
+	 * Título e descrição de cada URL incluído
+	 */
+	private final String[][] infos;
+
+	/**
+	 * Identificadores dos URLs cuja informação foi retirada (páginas apagadas)
+	 */
+	private final int[] removedInfoIds;
+
+	/**
+	 * Identificadores dos URLs de destino dos links incluídos
+	 */
+	private final int[] linkTargets;
+
+	/**
+	 * Identificadores dos URLs que apontam para cada destino
+	 */
+	private final int[][] linkSources;
+
+	/**
+	 * Pares identificador, geração dos URLs apagados incluídos
+	 */
+	private final int[][] tombstones;
+
+	/**
+	 * Palavras com forma original incluída
+	 */
+	private final String[] surfaceTerms;
+
+	/**
+	 * Forma original de cada palavra incluída
+	 */
+	private final String[] surfaces;
+
+	/**
+	 * Votos a favor da forma de cada palavra incluída
+	 */
+	private final int[] surfaceCounts;
+
+	/**
+	 * Construtor da classe
+	 * @param full true se o checkpoint contém todo o estado
+	 * @param sequence número de sequência
+	 * @param termsComplete true se as palavras substituem toda a tabela em memória
+	 * @param segments números dos segmentos do índice
+	 * @param firstUrl identificador do primeiro URL da tabela
+	 * @param urls URLs a partir de firstUrl
+	 * @param terms palavras
+	 * @param postings blocos de cada palavra
+	 * @param infoIds URLs com informação
+	 * @param infos título e descrição de cada URL
+	 * @param removedInfoIds URLs cuja informação foi retirada
+	 * @param linkTargets URLs de destino
+	 * @param linkSources URLs de origem de cada destino
+	 * @param tombstones pares identificador, geração dos URLs apagados
+	 * @param surfaceTerms palavras com forma original
+	 * @param surfaces forma original de cada palavra
+	 * @param surfaceCounts votos a favor de cada forma
+	 */
+	private BarrelSnapshot(boolean full, long sequence, boolean termsComplete, long[] segments, int firstUrl, String[] urls, String[] terms, PostingBlock[][] postings, int[] infoIds, String[][] infos, int[] removedInfoIds, int[] linkTargets, int[][] linkSources, int[][] tombstones,
+			String[] surfaceTerms, String[] surfaces, int[] surfaceCounts) {
+		this.full = full;
+		this.sequence = sequence;
+		this.termsComplete = termsComplete;
+		this.segments = segments;
+		this.firstUrl = firstUrl;
+		this.urls = urls;
+		this.terms = terms;
+		this.postings = postings;
+		this.infoIds = infoIds;
+		this.infos = infos;
+		this.removedInfoIds = removedInfoIds;
+		this.linkTargets = linkTargets;
+		this.linkSources = linkSources;
+		this.tombstones = tombstones;
+		this.surfaceTerms = surfaceTerms;
+		this.surfaces = surfaces;
+		this.surfaceCounts = surfaceCounts;
+	}
+
+	/**
+	 * Método que copia o estado de um Barrel para um checkpoint. A cópia só guarda referências
+	 * para os blocos comprimidos (que são imutáveis), pelo que é rápida e não bloqueia as escritas
+	 * durante a gravação do ficheiro. As marcas de alteração das estruturas copiadas são limpas
+	 * @param full true para copiar todo o estado, false para copiar só o que mudou
+	 * @param sequence número de sequência do checkpoint
+	 * @param termsComplete true se a tabela em memória foi trocada desde o último checkpoint
+	 * @param segments números dos segmentos do índice em vigor
+	 * @param firstUrl primeiro URL ainda não incluído num checkpoint (ignorado se full)
+	 * @param urlDictionary dicionário de URLs
+	 * @param index tabela em memória do índice
+	 * @param urlInfos título e descrição de cada URL, indexados pelo identificador
+	 * @param changedInfos URLs cuja informação mudou, esvaziado pela cópia
+	 * @param linkGraph grafo dos links entre os URLs
+	 * @param changedLinks URLs de destino cujos links mudaram, esvaziado pela cópia
+	 * @param surfaceForms forma original das palavras
+	 * @param tombstones URLs apagados
+	 * @return checkpoint
+	 */
+	public static BarrelSnapshot capture(boolean full, long sequence, boolean termsComplete, long[] segments, int firstUrl, UrlDictionary urlDictionary,
+			Map<String, PostingList> index, Map<Integer, SimpleEntry<String, String>> urlInfos, Set<Integer> changedInfos,
+			LinkGraph linkGraph, Set<Integer> changedLinks, SurfaceForms surfaceForms, Tombstones tombstones) {
+		// As marcas são copiadas antes das posting lists: uma lista copiada depois de um URL ser
+		// apagado já não o contém, e a marca do URL fica no checkpoint ou no seguinte
+		int[][] deleted = tombstones.checkpointEntries(!full);
+
+		// As posting lists, títulos e links são copiados antes da tabela de URLs, pelo que
+		// qualquer identificador que refiram (mesmo de escritas concorrentes) já está na tabela
+		List<String> terms = new ArrayList<>();
+		List<PostingBlock[]> postings = new ArrayList<>();
+		for (Map.Entry<String, PostingList> entry : index.entrySet()) {
+			// Depois de uma troca da tabela em memória, todas as suas listas são novas e estão marcadas como alteradas
+			PostingBlock[] blocks = entry.getValue().checkpointBlocks(!full);
+			if (blocks != null) {
+				terms.add(entry.getKey());
+				postings.add(blocks);
+			}
+		}
+
+		Collection<Integer> infoUrls = full ? urlInfos.keySet() : drain(changedInfos);
+		if (full) {
+			changedInfos.clear();
+		}
+		List<Integer> infoIds = new ArrayList<>();
+		List<String[]> infos = new ArrayList<>();
+		List<Integer> removedInfoIds = new ArrayList<>();
+		for (int url : infoUrls) {
+			SimpleEntry<String, String> info = urlInfos.get(url);
+			if (info != null) {
+				infoIds.add(url);
+				infos.add(new String[] { info.getKey(), info.getValue() });
+			} else if (!full) {
+				// A informação de uma página apagada tem de ser retirada ao aplicar os checkpoints anteriores
+				removedInfoIds.add(url);
+			}
+		}
+
+		Collection<Integer> targets = full ? allTargets(linkGraph) : drain(changedLinks);
+		if (full) {
+			changedLinks.clear();
+		}
+		List<Integer> linkTargets = new ArrayList<>();
+		List<int[]> linkSources = new ArrayList<>();
+		for (int target : targets) {
+			// Num checkpoint incremental, um destino que ficou sem links também é gravado, para os retirar
+			int[] sources = linkGraph.sources(target);
+			if (sources.length > 0 || !full) {
+				linkTargets.add(target);
+				linkSources.add(sources);
+			}
+		}
+
+		Map<String, SurfaceForms.Vote> votes = surfaceForms.checkpointEntries(full);
+		String[] surfaceTerms = new String[votes.size()];
+		String[] surfaces = new String[surfaceTerms.length];
+		int[] surfaceCounts = new int[surfaceTerms.length];
+		int next = 0;
+		for (Map.Entry<String, SurfaceForms.Vote> entry : votes.entrySet()) {
+			SurfaceForms.Vote vote = entry.getValue();
+			synchronized (vote) {
+				surfaceTerms[next] = entry.getKey();
+				surfaces[next] = vote.getSurface();
+				surfaceCounts[next++] = vote.getCount();
+			}
+		}
+
+		int urlCount = urlDictionary.size();
+		int from = full ? 0 : Math.min(firstUrl, urlCount);
+		String[] urls = new String[urlCount - from];
+		for (int id = from; id < urlCount; id++) {
+			urls[id - from] = urlDictionary.getUrl(id);
+		}
+
+		return new BarrelSnapshot(full, sequence, termsComplete, segments, from, urls, terms.toArray(new String[0]), postings.toArray(new PostingBlock[0][]),
+				infoIds.stream().mapToInt(Integer::intValue).toArray(), infos.toArray(new String[0][]),
+				removedInfoIds.stream().mapToInt(Integer::intValue).toArray(),
+				linkTargets.stream().mapToInt(Integer::intValue).toArray(), linkSources.toArray(new int[0][]), deleted,
+				surfaceTerms, surfaces, surfaceCounts);
+	}
+
+	/**
+	 * Método que devolve os URLs com pelo menos um link a apontar para eles
+	 * @param linkGraph grafo dos links
+	 * @return identificadores dos destinos, por ordem crescente
+	 */
+	private static List<Integer> allTargets(LinkGraph linkGraph) {
+		List<Integer> targets = new ArrayList<>();
+		int nodes = linkGraph.nodeCount();
+		for (int target = 0; target < nodes; target++) {
+			if (linkGraph.inDegree(target) > 0) {
+				targets.add(target);
+			}
+		}
+		return targets;
+	}
+
+	/**
+	 * Método que retira todos os elementos de um conjunto concorrente. Um elemento
+	 * acrescentado de novo depois de retirado fica para o checkpoint seguinte
+	 * @param changed conjunto a esvaziar
+	 * @return elementos retirados
+	 */
+	private static List<Integer> drain(Set<Integer> changed) {
+		List<Integer> drained = new ArrayList<>();
+		for (Iterator<Integer> iterator = changed.iterator(); iterator.hasNext();) {
+			drained.add(iterator.next());
+			iterator.remove();
+		}
+		return drained;
+	}
+
+	/**
+	 * Método que indica se o checkpoint não contém nenhuma alteração
+	 * @return true se não existir nada para gravar
+	 */
+	public boolean isEmpty() {
+		return urls.length == 0 && terms.length == 0 && infoIds.length == 0 && removedInfoIds.length == 0 && linkTargets.length == 0 && tombstones.length == 0 && surfaceTerms.length == 0;
+	}
+
+	/**
+	 * Método que indica se o checkpoint inclui URLs apagados
+	 * @return true se algum URL foi apagado
+	 */
+	public boolean hasTombstones() {
+		return tombstones.length > 0;
+	}
+
+	/**
+	 * Método que indica se o checkpoint contém todo o estado
+	 * @return true se for um checkpoint completo
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Método que devolve o número de sequência do checkpoint
+	 * @return número de sequência
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Método que devolve os números dos segmentos do índice em vigor quando o checkpoint foi tirado
+	 * @return números dos segmentos
+	 */
+	public long[] getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Método que devolve o número de URLs conhecidos quando o checkpoint foi tirado
+	 * @return número de URLs
+	 */
+	public int getUrlCount() {
+		return firstUrl + urls.length;
+	}
+
+	/**
+	 * Método para gravar o checkpoint. O ficheiro é escrito primeiro com um nome
+	 * temporário e só depois substitui o anterior, pelo que uma falha a meio da escrita
+	 * nunca deixa um checkpoint incompleto
+	 * @param file ficheiro de destino
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	public void write(Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temp.toFile());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(full);
+			out.writeLong(sequence);
+			out.writeBoolean(termsComplete);
+			out.writeInt(segments.length);
+			for (long segment : segments) {
+				out.writeLong(segment);
+			}
+
+			out.writeInt(firstUrl);
+			out.writeInt(urls.length);
+			for (String url : urls) {
+				writeString(out, url);
+			}
+
+			out.writeInt(terms.length);
+			for (int i = 0; i < terms.length; i++) {
+				writeString(out, terms[i]);
+				out.writeInt(postings[i].length);
+				for (PostingBlock block : postings[i]) {
+					block.writeTo(out);
+				}
+			}
+
+			out.writeInt(infoIds.length);
+			for (int i = 0; i < infoIds.length; i++) {
+				out.writeInt(infoIds[i]);
+				writeString(out, infos[i][0]);
+				writeString(out, infos[i][1]);
+			}
+			out.writeInt(removedInfoIds.length);
+			for (int id : removedInfoIds) {
+				out.writeInt(id);
+			}
+
+			out.writeInt(linkTargets.length);
+			for (int i = 0; i < linkTargets.length; i++) {
+				out.writeInt(linkTargets[i]);
+				out.writeInt(linkSources[i].length);
+				for (int source : linkSources[i]) {
+					out.writeInt(source);
+				}
+			}
+
+			out.writeInt(tombstones.length);
+			for (int[] tombstone : tombstones) {
+				out.writeInt(tombstone[0]);
+				out.writeInt(tombstone[1]);
+			}
+
+			out.writeInt(surfaceTerms.length);
+			for (int i = 0; i < surfaceTerms.length; i++) {
+				writeString(out, surfaceTerms[i]);
+				writeString(out, surfaces[i]);
+				out.writeInt(surfaceCounts[i]);
+			}
+			// O checkpoint tem de estar no disco antes de o registo que o cobre ser apagado
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(file);
+	}
+
+	/**
+	 * Método que grava no disco a entrada de diretório de um ficheiro acabado de mudar de nome,
+	 * para que a mudança sobreviva a uma falha de energia. No Windows os diretórios não podem
+	 * ser abertos e a mudança de nome já é gravada pelo sistema
+	 * @param file ficheiro cujo diretório é gravado
+	 * @throws IOException se o diretório não puder ser gravado
+	 */
+	static void syncDirectory(Path file) throws IOException {
+		if (System.getProperty("os.name", "").startsWith("Windows")) {
+			return;
+		}
+		Path directory = file.toAbsolutePath().getParent();
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Método para ler um checkpoint gravado por {@link #write(Path)}, ou por uma versão
+	 * anterior do formato (a versão 1 é sempre completa e sem sequência, as versões 1 e 2 não têm segmentos
+	 * e as anteriores à 4 não têm URLs apagados, as anteriores à 5 não têm informação retirada e as anteriores à 6 não têm formas originais)
+	 * @param file ficheiro a ler
+	 * @return checkpoint lido
+	 * @throws IOException se o ficheiro não puder ser lido ou não for um checkpoint suportado
+	 */
+	public static BarrelSnapshot read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot demasiado grande para ser mapeado: " + channel.size() + " bytes");
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				if (buffer.getInt() != MAGIC) {
+					throw new IOException("O ficheiro " + file + " não é um snapshot de um Barrel");
+				}
+				int version = buffer.getInt();
+				if (version < 1 || version > VERSION) {
+					throw new IOException("Versão " + version + " do snapshot não suportada");
+				}
+				boolean full = (version == 1) || buffer.get() != 0;
+				long sequence = (version == 1) ? 0 : buffer.getLong();
+				boolean termsComplete = (version >= 3) && buffer.get() != 0;
+				long[] segments = new long[(version >= 3) ? buffer.getInt() : 0];
+				for (int i = 0; i < segments.length; i++) {
+					segments[i] = buffer.getLong();
+				}
+
+				int firstUrl = (version == 1) ? 0 : buffer.getInt();
+				String[] urls = new String[buffer.getInt()];
+				for (int i = 0; i < urls.length; i++) {
+					urls[i] = readString(buffer);
+				}
+
+				if (version == 1) {
+					// A versão 1 gravava os comprimentos, que agora são recalculados
+					buffer.position(buffer.position() + urls.length * Integer.BYTES);
+				}
+
+				// Uma primeira passagem só lê os tamanhos, para saber onde começa cada palavra;
+				// as palavras são depois lidas em paralelo, cada tarefa com a sua cópia do buffer
+				String[] terms = new String[buffer.getInt()];
+				PostingBlock[][] postings = new PostingBlock[terms.length][];
+				int[] offsets = new int[terms.length];
+				for (int i = 0; i < terms.length; i++) {
+					offsets[i] = buffer.position();
+					int termLength = buffer.getInt();
+					buffer.position(buffer.position() + termLength);
+					int blockCount = buffer.getInt();
+					for (int b = 0; b < blockCount; b++) {
+						PostingBlock.skip(buffer);
+					}
+				}
+				RangeTask.run(0, terms.length, PARALLEL_THRESHOLD, (from, to) -> {
+					ByteBuffer local = buffer.duplicate();
+					for (int i = from; i < to; i++) {
+						local.position(offsets[i]);
+						terms[i] = readString(local);
+						postings[i] = new PostingBlock[local.getInt()];
+						for (int b = 0; b < postings[i].length; b++) {
+							postings[i][b] = PostingBlock.readFrom(local);
+						}
+					}
+				});
+
+				int[] infoIds = new int[buffer.getInt()];
+				String[][] infos = new String[infoIds.length][];
+				for (int i = 0; i < infoIds.length; i++) {
+					infoIds[i] = buffer.getInt();
+					infos[i] = new String[] { readString(buffer), readString(buffer) };
+				}
+				int[] removedInfoIds = new int[(version >= 5) ? buffer.getInt() : 0];
+				for (int i = 0; i < removedInfoIds.length; i++) {
+					removedInfoIds[i] = buffer.getInt();
+				}
+
+				int[] linkTargets = new int[buffer.getInt()];
+				int[][] linkSources = new int[linkTargets.length][];
+				for (int i = 0; i < linkTargets.length; i++) {
+					linkTargets[i] = buffer.getInt();
+					linkSources[i] = new int[buffer.getInt()];
+					for (int s = 0; s < linkSources[i].length; s++) {
+						linkSources[i][s] = buffer.getInt();
+					}
+				}
+				int[][] tombstones = new int[(version >= 4) ? buffer.getInt() : 0][];
+				for (int i = 0; i < tombstones.length; i++) {
+					tombstones[i] = new int[] { buffer.getInt(), buffer.getInt() };
+				}
+				String[] surfaceTerms = new String[(version >= 6) ? buffer.getInt() : 0];
+				String[] surfaces = new String[surfaceTerms.length];
+				int[] surfaceCounts = new int[surfaceTerms.length];
+				for (int i = 0; i < surfaceTerms.length; i++) {
+					surfaceTerms[i] = readString(buffer);
+					surfaces[i] = readString(buffer);
+					surfaceCounts[i] = buffer.getInt();
+				}
+				return new BarrelSnapshot(full, sequence, termsComplete, segments, firstUrl, urls, terms, postings, infoIds, infos, removedInfoIds, linkTargets, linkSources, tombstones,
+						surfaceTerms, surfaces, surfaceCounts);
+			} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+				throw new IOException("Snapshot " + file + " incompleto ou corrompido", e);
+			}
+		}
+	}
+
+	/**
+	 * Método para aplicar o checkpoint às estruturas de um Barrel. Um checkpoint completo
+	 * deve ser aplicado a estruturas vazias; um incremental substitui as posting lists,
+	 * informações, links e formas originais que contém, retira a informação dos URLs apagados (e, se a tabela em memória foi trocada, começa por a esvaziar). Os comprimentos dos URLs são atualizados com as
+	 * frequências das posting lists substituídas. Só a tabela de URLs é aplicada por ordem,
+	 * as restantes secções são aplicadas em paralelo
+	 * @param urlDictionary dicionário de URLs
+	 * @param index tabela em memória do índice
+	 * @param documentStats comprimentos dos URLs
+	 * @param urlInfos título e descrição de cada URL, indexados pelo identificador
+	 * @param linkGraph grafo dos links entre os URLs
+	 * @param surfaceForms forma original das palavras
+	 * @param tombstones URLs apagados
+	 * @throws IOException se a tabela de URLs não continuar a do dicionário
+	 */
+	public void applyTo(UrlDictionary urlDictionary, Map<String, PostingList> index, DocumentStats documentStats,
+			Map<Integer, SimpleEntry<String, String>> urlInfos, LinkGraph linkGraph, SurfaceForms surfaceForms, Tombstones tombstones) throws IOException {
+		for (int i = 0; i < urls.length; i++) {
+			if (urlDictionary.getOrAssign(urls[i]) != firstUrl + i) {
+				throw new IOException("Checkpoint " + sequence + " não continua a tabela de URLs");
+			}
+		}
+		if (termsComplete && !full) {
+			// As listas anteriores foram gravadas num segmento, que já está na lista de segmentos
+			for (PostingList previous : index.values()) {
+				previous.addLengthsTo(documentStats, -1);
+			}
+			index.clear();
+		}
+		// Cada palavra, URL e destino aparece uma única vez no checkpoint, as tarefas nunca escrevem na mesma entrada
+		RangeTask.run(0, terms.length, PARALLEL_THRESHOLD, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				PostingList docs = new PostingList(postings[i]);
+				PostingList previous = index.put(terms[i], docs);
+				if (previous != null) {
+					previous.addLengthsTo(documentStats, -1);
+				}
+				docs.addLengthsTo(documentStats, 1);
+			}
+		});
+		RangeTask.run(0, infoIds.length, PARALLEL_THRESHOLD, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				urlInfos.put(infoIds[i], new SimpleEntry<>(infos[i][0], infos[i][1]));
+			}
+		});
+		for (int id : removedInfoIds) {
+			urlInfos.remove(id);
+		}
+		// As origens gravadas substituem as atuais: as que já não estão no checkpoint são retiradas
+		if (!full) {
+			for (int t = 0; t < linkTargets.length; t++) {
+				for (int source : linkGraph.sources(linkTargets[t])) {
+					if (Arrays.binarySearch(linkSources[t], source) < 0) {
+						linkGraph.remove(source, linkTargets[t]);
+					}
+				}
+			}
+		}
+		linkGraph.addAll(linkTargets, linkSources);
+		for (int[] tombstone : this.tombstones) {
+			tombstones.restore(tombstone[0], tombstone[1]);
+		}
+		for (int i = 0; i < surfaceTerms.length; i++) {
+			surfaceForms.restore(surfaceTerms[i], surfaces[i], surfaceCounts[i]);
+		}
+	}
+
+	/**
+	 * Método para escrever uma string em UTF-8 precedida do seu tamanho
+	 * @param out destino dos dados
+	 * @param value string a escrever
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	private static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Método para ler uma string escrita por {@link #writeString(DataOutput, String)}
+	 * @param buffer origem dos dados
+	 * @return string lida
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,108 @@
+package googol.backend;
+
+import java.nio.*;
+
+
+/**
+ * Classe que reserva a memória dos dados comprimidos dos blocos das posting lists.
+ * Por omissão os dados ficam em arrays no heap; no modo fora do heap ficam em memória
+ * direta, reservada em pedaços grandes que são divididos pelos blocos, pelo que o heap
+ * só guarda os cabeçalhos dos blocos e o garbage collector nunca percorre os dados.
+ * Um pedaço é libertado quando deixa de existir qualquer bloco que o use
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class BlockStorage {
+
+	/**
+	 * Tamanho de cada pedaço de memória direta
+	 */
+	static final int CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Tamanho a partir do qual um bloco recebe memória direta só para si
+	 */
+	private static final int LARGE_BLOCK = CHUNK_SIZE / 8;
+
+	/**
+	 * Buffer vazio partilhado por todas as secções sem dados
+	 */
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/**
+	 * Indica se os dados dos blocos são guardados fora do heap
+	 */
+	private static volatile boolean offHeap = false;
+
+	/**
+	 * Pedaço de memória direta atual, só é usado com o lock da classe
+	 */
+	private static ByteBuffer chunk;
+
+	/**
+	 * Número de bytes de memória direta reservados
+	 */
+	private static long reservedBytes = 0;
+
+	/**
+	 * Construtor privado, a classe só tem métodos estáticos
+	 */
+	private BlockStorage() {
+	}
+
+	/**
+	 * Método para escolher onde são guardados os dados dos blocos criados a partir daqui
+	 * @param enabled true para guardar os dados fora do heap
+	 */
+	public static void setOffHeap(boolean enabled) {
+		offHeap = enabled;
+	}
+
+	/**
+	 * Método que indica se os dados dos blocos são guardados fora do heap
+	 * @return true se os dados ficam fora do heap
+	 */
+	public static boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Método que devolve o número de bytes de memória direta reservados até agora,
+	 * incluindo pedaços que já possam ter sido libertados
+	 * @return número de bytes
+	 */
+	public static synchronized long reservedBytes() {
+		return reservedBytes;
+	}
+
+	/**
+	 * Método para reservar espaço para os dados de um bloco, preenchido com zeros
+	 * @param size número de bytes
+	 * @return buffer com posição 0 e capacidade size
+	 */
+	static ByteBuffer allocate(int size) {
+		if (size == 0) {
+			return EMPTY;
+		}
+		if (!offHeap) {
+			return ByteBuffer.allocate(size);
+		}
+		if (size >= LARGE_BLOCK) {
+			synchronized (BlockStorage.class) {
+				reservedBytes += size;
+			}
+			return ByteBuffer.allocateDirect(size);
+		}
+		synchronized (BlockStorage.class) {
+			if (chunk == null || chunk.remaining() < size) {
+				// O resto do pedaço anterior fica por usar, no máximo LARGE_BLOCK bytes
+				chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+				reservedBytes += CHUNK_SIZE;
+			}
+			ByteBuffer slice = chunk.slice(chunk.position(), size);
+			chunk.position(chunk.position() + size);
+			return slice;
+		}
+	}
+}
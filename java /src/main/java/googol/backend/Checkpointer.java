@@ -0,0 +1,538 @@
+package googol.backend;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+
+/**
+ * Classe responsável pelos checkpoints periódicos de um Barrel, feitos em segundo plano.
+ * O estado é gravado num checkpoint completo (barrelN.snap) seguido de checkpoints
+ * incrementais (barrelN-1.delta, barrelN-2.delta, ...) que só contêm o que mudou.
+ * Ao fim de um número configurável de checkpoints incrementais é gravado um novo
+ * checkpoint completo e os incrementais anteriores são apagados. Cada checkpoint
+ * começa um segmento novo do registo de escritas, e os segmentos anteriores são
+ * apagados assim que o checkpoint fica gravado. É também responsável pelos segmentos
+ * do índice (barrelN-1.seg, ...): quando a tabela em memória do índice fica cheia,
+ * o checkpoint seguinte grava-a num segmento novo, e uma thread em segundo plano
+ * junta os segmentos segundo a política por níveis de {@link SegmentedIndex}, e reescreve
+ * os segmentos com muitos URLs apagados para eliminar as suas ocorrências.
+ * Cada segmento novo só passa a ser usado depois de um checkpoint o referir, e os
+ * segmentos substituídos só são apagados depois de um checkpoint deixar de os referir
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class Checkpointer implements Closeable {
+
+	/**
+	 * Diretoria dos ficheiros do barrel
+	 */
+	private final Path directory;
+
+	/**
+	 * Prefixo do nome dos ficheiros (por exemplo "barrel1")
+	 */
+	private final String prefix;
+
+	/**
+	 * Registo de escritas do barrel
+	 */
+	private final WriteAheadLog writeAheadLog;
+
+	/**
+	 * Dicionário de URLs do barrel
+	 */
+	private final UrlDictionary urlDictionary;
+
+	/**
+	 * Índice segmentado do barrel
+	 */
+	private final SegmentedIndex index;
+
+	/**
+	 * Comprimentos dos URLs do barrel
+	 */
+	private final DocumentStats documentStats;
+
+	/**
+	 * Título e descrição de cada URL do barrel, indexados pelo identificador do URL
+	 */
+	private final Map<Integer, SimpleEntry<String, String>> urlInfos;
+
+	/**
+	 * Grafo dos links entre os URLs do barrel
+	 */
+	private final LinkGraph linkGraph;
+
+	/**
+	 * Forma original das palavras do barrel, usada nas sugestões
+	 */
+	private final SurfaceForms surfaceForms;
+
+	/**
+	 * URLs cuja informação mudou desde o último checkpoint
+	 */
+	private final Set<Integer> changedInfos = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * URLs de destino cujos links mudaram desde o último checkpoint
+	 */
+	private final Set<Integer> changedLinks = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Número de checkpoints incrementais entre dois checkpoints completos
+	 */
+	private final int fullEvery;
+
+	/**
+	 * Número de segmentos de um nível que são juntos num só
+	 */
+	private final int mergeFactor;
+
+	/**
+	 * Número do próximo segmento do índice
+	 */
+	private final AtomicLong nextSegment = new AtomicLong(1);
+
+	/**
+	 * Segmentos do índice referidos pelo último checkpoint gravado
+	 */
+	private long[] committedSegments = new long[0];
+
+	/**
+	 * Indica se a tabela em memória foi trocada desde o último checkpoint gravado
+	 */
+	private boolean termsReset = false;
+
+	/**
+	 * Indica se já existe uma junção de segmentos agendada
+	 */
+	private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+
+	/**
+	 * Número de sequência do último checkpoint gravado
+	 */
+	private long sequence = 0;
+
+	/**
+	 * Número de URLs incluídos nos checkpoints gravados
+	 */
+	private int checkpointedUrls = 0;
+
+	/**
+	 * Número de checkpoints incrementais desde o último completo
+	 */
+	private int deltasSinceFull = 0;
+
+	/**
+	 * Indica se o próximo checkpoint tem de ser completo (não existe nenhum ou o último falhou)
+	 */
+	private boolean fullRequired = true;
+
+	/**
+	 * Indica se os checkpoints existentes foram carregados. Enquanto não forem, nenhum checkpoint
+	 * é gravado, para que um ficheiro que não pôde ser lido nunca seja substituído por um estado vazio
+	 */
+	private boolean loaded = false;
+
+	/**
+	 * Thread que tira os checkpoints periódicos e grava a tabela em memória quando fica cheia
+	 */
+	private volatile ScheduledExecutorService scheduler;
+
+	/**
+	 * Thread que junta os segmentos do índice
+	 */
+	private volatile ExecutorService merger;
+
+	/**
+	 * Construtor da classe
+	 * @param directory diretoria dos ficheiros
+	 * @param prefix prefixo do nome dos ficheiros
+	 * @param writeAheadLog registo de escritas
+	 * @param urlDictionary dicionário de URLs
+	 * @param index índice segmentado
+	 * @param documentStats comprimentos dos URLs
+	 * @param urlInfos título e descrição de cada URL
+	 * @param linkGraph grafo dos links entre os URLs
+	 * @param surfaceForms forma original das palavras
+	 * @param fullEvery número de checkpoints incrementais entre dois completos
+	 * @param mergeFactor número de segmentos de um nível que são juntos num só
+	 */
+	public Checkpointer(Path directory, String prefix, WriteAheadLog writeAheadLog, UrlDictionary urlDictionary,
+			SegmentedIndex index, DocumentStats documentStats,
+			Map<Integer, SimpleEntry<String, String>> urlInfos, LinkGraph linkGraph, SurfaceForms surfaceForms, int fullEvery, int mergeFactor) {
+		this.directory = directory;
+		this.prefix = prefix;
+		this.writeAheadLog = writeAheadLog;
+		this.urlDictionary = urlDictionary;
+		this.index = index;
+		this.documentStats = documentStats;
+		this.urlInfos = urlInfos;
+		this.linkGraph = linkGraph;
+		this.surfaceForms = surfaceForms;
+		this.fullEvery = Math.max(1, fullEvery);
+		this.mergeFactor = Math.max(2, mergeFactor);
+	}
+
+	/**
+	 * Método para carregar o último checkpoint completo, os incrementais que se lhe seguem
+	 * e os segmentos do índice referidos pelo último checkpoint lido
+	 * @return true se existia um checkpoint completo
+	 * @throws IOException se um checkpoint ou segmento não puder ser lido
+	 */
+	public synchronized boolean load() throws IOException {
+		List<Long> existingSegments = segmentFiles();
+		if (!existingSegments.isEmpty()) {
+			nextSegment.set(existingSegments.get(existingSegments.size() - 1) + 1);
+		}
+		Path base = basePath();
+		if (!Files.exists(base)) {
+			deleteUnreferencedSegments(existingSegments);
+			loaded = true;
+			return false;
+		}
+		BarrelSnapshot snapshot = BarrelSnapshot.read(base);
+		snapshot.applyTo(urlDictionary, index.memtable(), documentStats, urlInfos, linkGraph, surfaceForms, index.tombstones());
+		sequence = snapshot.getSequence();
+		checkpointedUrls = snapshot.getUrlCount();
+		committedSegments = snapshot.getSegments();
+
+		// Checkpoints incrementais mais antigos que o completo já estão incluídos nele
+		for (long number : deltas()) {
+			if (number > sequence) {
+				BarrelSnapshot delta = BarrelSnapshot.read(deltaPath(number));
+				delta.applyTo(urlDictionary, index.memtable(), documentStats, urlInfos, linkGraph, surfaceForms, index.tombstones());
+				sequence = number;
+				checkpointedUrls = delta.getUrlCount();
+				committedSegments = delta.getSegments();
+				deltasSinceFull++;
+			}
+		}
+
+		List<IndexSegment> segments = new ArrayList<>();
+		for (long id : committedSegments) {
+			IndexSegment segment = IndexSegment.open(id, segmentPath(id));
+			segment.addLengthsTo(documentStats, index.tombstones());
+			segments.add(segment);
+		}
+		index.setSegments(segments);
+		index.recountTerms();
+		deleteUnreferencedSegments(existingSegments);
+		fullRequired = false;
+		loaded = true;
+		return true;
+	}
+
+	/**
+	 * Método para apagar os segmentos que não são referidos pelo último checkpoint, deixados
+	 * por uma gravação ou junção interrompida antes de o checkpoint seguinte ser gravado
+	 * @param existing números dos segmentos existentes
+	 * @throws IOException se um segmento não puder ser apagado
+	 */
+	private void deleteUnreferencedSegments(List<Long> existing) throws IOException {
+		for (long id : existing) {
+			boolean referenced = false;
+			for (long committed : committedSegments) {
+				referenced |= id == committed;
+			}
+			if (!referenced) {
+				Files.deleteIfExists(segmentPath(id));
+			}
+		}
+	}
+
+	/**
+	 * Método para registar que a informação de um URL mudou
+	 * @param id identificador do URL
+	 */
+	public void urlInfoChanged(int id) {
+		changedInfos.add(id);
+	}
+
+	/**
+	 * Método para registar que os links que apontam para um URL mudaram
+	 * @param target identificador do URL de destino
+	 */
+	public void linksChanged(int target) {
+		changedLinks.add(target);
+	}
+
+	/**
+	 * Método para começar os checkpoints periódicos
+	 * @param intervalSeconds intervalo entre checkpoints, em segundos (0 desliga os checkpoints periódicos)
+	 */
+	public synchronized void start(long intervalSeconds) {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, prefix + "-checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		merger = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, prefix + "-merge");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (intervalSeconds > 0) {
+			scheduler.scheduleWithFixedDelay(this::checkpointQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+		// A tabela pode ter ficado cheia durante o carregamento, quando ainda não podia ser gravada
+		if (index.isFull()) {
+			requestFlush();
+		}
+		scheduleMerge();
+	}
+
+	/**
+	 * Método para pedir, em segundo plano, a gravação da tabela em memória do índice num segmento.
+	 * Os pedidos feitos antes de {@link #start(long)} são ignorados. Não usa o lock do checkpointer,
+	 * porque é chamado por escritas que podem estar a bloquear um checkpoint à espera da troca da tabela
+	 */
+	public void requestFlush() {
+		submit(scheduler, this::checkpointQuietly);
+	}
+
+	/**
+	 * Método para entregar uma tarefa a uma thread em segundo plano, se esta ainda estiver a correr
+	 * @param executor thread de destino, ou null se ainda não foi criada
+	 * @param task tarefa
+	 * @return true se a tarefa foi aceite
+	 */
+	private static boolean submit(Executor executor, Runnable task) {
+		if (executor == null) {
+			return false;
+		}
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			// O checkpointer já foi fechado
+			return false;
+		}
+	}
+
+	/**
+	 * Método que tira um checkpoint numa thread em segundo plano, onde os erros só podem ser registados
+	 */
+	private void checkpointQuietly() {
+		try {
+			checkpoint(false);
+		} catch (IOException e) {
+			System.err.println("Erro ao gravar o checkpoint do " + prefix + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Método para agendar a junção dos segmentos do índice, se ainda não estiver agendada
+	 */
+	private void scheduleMerge() {
+		if (mergeScheduled.compareAndSet(false, true) && !submit(merger, this::mergeSegments)) {
+			mergeScheduled.set(false);
+		}
+	}
+
+	/**
+	 * Método que junta segmentos enquanto algum nível estiver cheio ou algum segmento tiver muitos
+	 * URLs apagados. Cada junção é gravada sem
+	 * bloquear as escritas, os checkpoints nem as pesquisas, e fica em vigor com um checkpoint
+	 */
+	private void mergeSegments() {
+		mergeScheduled.set(false);
+		List<IndexSegment> candidates;
+		while ((candidates = index.mergeCandidates(mergeFactor)) != null) {
+			long id = nextSegment.getAndIncrement();
+			try {
+				IndexSegment merged = IndexSegment.merge(id, segmentPath(id), candidates, index.tombstones());
+				if (merged.termCount() == 0) {
+					// Todos os URLs dos segmentos juntos foram apagados
+					Files.deleteIfExists(merged.getPath());
+					merged = null;
+				}
+				index.replace(candidates, merged);
+				checkpoint(false);
+			} catch (IOException e) {
+				System.err.println("Erro ao juntar os segmentos do " + prefix + ": " + e.getMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Método para tirar um checkpoint. Se a tabela em memória do índice estiver cheia,
+	 * é primeiro gravada num segmento novo
+	 * @param full true para forçar um checkpoint completo
+	 * @throws IOException se o checkpoint não puder ser gravado
+	 */
+	public void checkpoint(boolean full) throws IOException {
+		checkpoint(full, index.isFull());
+	}
+
+	/**
+	 * Método para tirar um checkpoint. A cópia do estado é rápida e a gravação do ficheiro
+	 * não bloqueia as escritas nem as pesquisas, só outros checkpoints
+	 * @param full true para forçar um checkpoint completo
+	 * @param flush true para gravar a tabela em memória do índice num segmento novo
+	 * @throws IOException se o checkpoint não puder ser gravado
+	 */
+	public synchronized void checkpoint(boolean full, boolean flush) throws IOException {
+		if (!loaded) {
+			throw new IOException("Os checkpoints de " + prefix + " não foram carregados, o checkpoint não é gravado");
+		}
+		full |= fullRequired || deltasSinceFull >= fullEvery;
+
+		// As escritas feitas a partir daqui vão para um segmento novo do registo, que não é apagado
+		long firstSegment;
+		if (flush && index.frozen() == null) {
+			// As escritas de palavras esperam pela troca, para cada uma ficar só na tabela e no registo antigos ou só nos novos
+			Lock lock = index.switchLock();
+			lock.lock();
+			try {
+				firstSegment = writeAheadLog.rotate();
+				index.freeze();
+			} finally {
+				lock.unlock();
+			}
+		} else {
+			firstSegment = writeAheadLog.rotate();
+		}
+
+		// Uma tabela congelada cuja gravação falhou continua a ser pesquisada e é gravada no checkpoint seguinte
+		Map<String, PostingList> frozen = index.frozen();
+		boolean segmentAdded = false;
+		if (frozen != null) {
+			IndexSegment segment = null;
+			if (!frozen.isEmpty()) {
+				long id = nextSegment.getAndIncrement();
+				segment = IndexSegment.write(id, index.frozenGeneration(), segmentPath(id), frozen);
+				segmentAdded = true;
+			}
+			index.install(segment);
+			termsReset = true;
+		}
+
+		BarrelSnapshot snapshot = BarrelSnapshot.capture(full, sequence + 1, termsReset, index.segmentIds(), checkpointedUrls,
+				urlDictionary, index.memtable(), urlInfos, changedInfos, linkGraph, changedLinks, surfaceForms, index.tombstones());
+		if (!full && snapshot.isEmpty() && !termsReset && Arrays.equals(snapshot.getSegments(), committedSegments)) {
+			writeAheadLog.deleteSegmentsBefore(firstSegment);
+			return;
+		}
+
+		try {
+			snapshot.write(full ? basePath() : deltaPath(snapshot.getSequence()));
+		} catch (IOException e) {
+			// As marcas de alteração já foram limpas, só um checkpoint completo volta a incluir tudo
+			fullRequired = true;
+			throw e;
+		}
+		sequence = snapshot.getSequence();
+		checkpointedUrls = snapshot.getUrlCount();
+		committedSegments = snapshot.getSegments();
+		termsReset = false;
+		if (full) {
+			fullRequired = false;
+			deltasSinceFull = 0;
+			for (long number : deltas()) {
+				if (number <= sequence) {
+					Files.deleteIfExists(deltaPath(number));
+				}
+			}
+		} else {
+			deltasSinceFull++;
+		}
+		writeAheadLog.deleteSegmentsBefore(firstSegment);
+		for (IndexSegment segment : index.drainRetired(committedSegments)) {
+			Files.deleteIfExists(segment.getPath());
+		}
+		// URLs apagados podem deixar um segmento com ocorrências suficientes para ser limpo
+		if (segmentAdded || snapshot.hasTombstones()) {
+			scheduleMerge();
+		}
+	}
+
+	/**
+	 * Método que termina os checkpoints periódicos
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			merger.shutdown();
+		}
+	}
+
+	/**
+	 * Método que devolve os números dos checkpoints incrementais existentes, por ordem crescente
+	 * @return números dos checkpoints
+	 * @throws IOException se a diretoria não puder ser lida
+	 */
+	private List<Long> deltas() throws IOException {
+		List<Long> numbers = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "-*.delta")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					numbers.add(Long.parseLong(name.substring(prefix.length() + 1, name.length() - 6)));
+				} catch (NumberFormatException e) {
+					// Ficheiro com um nome parecido que não é um checkpoint
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Método que devolve os números dos segmentos do índice existentes, por ordem crescente
+	 * @return números dos segmentos
+	 * @throws IOException se a diretoria não puder ser lida
+	 */
+	private List<Long> segmentFiles() throws IOException {
+		List<Long> numbers = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "-*.seg")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					numbers.add(Long.parseLong(name.substring(prefix.length() + 1, name.length() - 4)));
+				} catch (NumberFormatException e) {
+					// Ficheiro com um nome parecido que não é um segmento
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Método que devolve o caminho de um segmento do índice
+	 * @param number número do segmento
+	 * @return caminho do segmento
+	 */
+	private Path segmentPath(long number) {
+		return directory.resolve(prefix + "-" + number + ".seg");
+	}
+
+	/**
+	 * Método que devolve o caminho do checkpoint completo
+	 * @return caminho do checkpoint
+	 */
+	private Path basePath() {
+		return directory.resolve(prefix + ".snap");
+	}
+
+	/**
+	 * Método que devolve o caminho de um checkpoint incremental
+	 * @param number número de sequência do checkpoint
+	 * @return caminho do checkpoint
+	 */
+	private Path deltaPath(long number) {
+		return directory.resolve(prefix + "-" + number + ".delta");
+	}
+}
@@ -104,6 +104,10 @@ public class Client {
 						while (continueSearching) {
 							try {
 								List<String> urls = gateway.search(input, currentPage,false);
+								String correction = (currentPage == 1) ? gateway.didYouMean(input) : null;
+								if (correction != null) {
+									System.out.println("\nQuis dizer: " + correction + "?");
+								}
 								
 								if (!urls.isEmpty()) {
 									System.out.println("\nPágina " + currentPage + " - URLs encontradas para '" + input + "':");
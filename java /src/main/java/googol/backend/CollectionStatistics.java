@@ -0,0 +1,99 @@
+package googol.backend;
+
+import java.io.Serializable;
+import java.util.*;
+
+
+/**
+ * Classe que representa as estatísticas de uma coleção usadas pelo BM25: o número de URLs,
+ * a soma dos seus comprimentos e o número de URLs onde ocorre cada palavra de uma pesquisa.
+ * Quando o índice está dividido por páginas, cada shard envia as suas estatísticas ao Gateway,
+ * que as soma e as devolve aos shards com a pesquisa, para que todos pontuem os seus URLs
+ * como se a coleção fosse uma só e as pontuações possam ser comparadas
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class CollectionStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Número de URLs da coleção
+	 */
+	private final int documentCount;
+
+	/**
+	 * Soma dos comprimentos dos URLs da coleção
+	 */
+	private final long totalLength;
+
+	/**
+	 * Número de URLs onde ocorre cada palavra
+	 */
+	private final Map<String, Integer> documentFrequencies;
+
+	/**
+	 * Construtor da classe
+	 * @param documentCount número de URLs
+	 * @param totalLength soma dos comprimentos dos URLs
+	 * @param documentFrequencies número de URLs onde ocorre cada palavra
+	 */
+	public CollectionStatistics(int documentCount, long totalLength, Map<String, Integer> documentFrequencies) {
+		this.documentCount = documentCount;
+		this.totalLength = totalLength;
+		this.documentFrequencies = documentFrequencies;
+	}
+
+	/**
+	 * Método que soma as estatísticas de várias partes da coleção, que não têm URLs em comum
+	 * @param parts estatísticas de cada parte
+	 * @return estatísticas da coleção inteira
+	 */
+	public static CollectionStatistics sum(List<CollectionStatistics> parts) {
+		int documentCount = 0;
+		long totalLength = 0;
+		Map<String, Integer> documentFrequencies = new HashMap<>();
+		for (CollectionStatistics part : parts) {
+			documentCount += part.documentCount;
+			totalLength += part.totalLength;
+			for (Map.Entry<String, Integer> entry : part.documentFrequencies.entrySet()) {
+				documentFrequencies.merge(entry.getKey(), entry.getValue(), Integer::sum);
+			}
+		}
+		return new CollectionStatistics(documentCount, totalLength, documentFrequencies);
+	}
+
+	/**
+	 * Método que devolve o número de URLs da coleção
+	 * @return número de URLs
+	 */
+	public int getDocumentCount() {
+		return documentCount;
+	}
+
+	/**
+	 * Método que devolve a soma dos comprimentos dos URLs da coleção
+	 * @return soma dos comprimentos
+	 */
+	public long getTotalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Método que devolve o comprimento médio dos URLs da coleção
+	 * @return comprimento médio, 1 se a coleção estiver vazia
+	 */
+	public double averageLength() {
+		return (documentCount == 0) ? 1.0 : (double) totalLength / documentCount;
+	}
+
+	/**
+	 * Método que devolve o número de URLs onde ocorre uma palavra
+	 * @param term palavra
+	 * @return número de URLs, 0 se a palavra não ocorrer em nenhum
+	 */
+	public int documentFrequency(String term) {
+		return documentFrequencies.getOrDefault(term, 0);
+	}
+}
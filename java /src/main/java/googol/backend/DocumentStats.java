@@ -0,0 +1,113 @@
+package googol.backend;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+/**
+ * Classe que guarda o comprimento (número de palavras indexadas) de cada URL
+ * de um Barrel, usado para normalizar as pontuações BM25.
+ * Os comprimentos são guardados em páginas de inteiros atómicos, pelo que as
+ * atualizações de URLs diferentes não se bloqueiam entre si
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class DocumentStats {
+
+	/**
+	 * Número de comprimentos guardados em cada página
+	 */
+	private static final int PAGE_SIZE = 4096;
+
+	/**
+	 * Páginas de comprimentos, indexadas por docId / PAGE_SIZE
+	 */
+	private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[0];
+
+	/**
+	 * Soma dos comprimentos de todos os URLs
+	 */
+	private final AtomicLong totalLength = new AtomicLong();
+
+	/**
+	 * Número de URLs com pelo menos uma palavra indexada
+	 */
+	private final AtomicInteger documentCount = new AtomicInteger();
+
+	/**
+	 * Método para somar palavras ao comprimento de um URL
+	 * @param docId identificador do URL
+	 * @param delta número de palavras a somar
+	 */
+	public void addLength(int docId, int delta) {
+		int previous = page(docId).getAndAdd(docId % PAGE_SIZE, delta);
+		if (previous == 0 && delta > 0) {
+			documentCount.incrementAndGet();
+		} else if (previous > 0 && previous + delta <= 0) {
+			documentCount.decrementAndGet();
+		}
+		totalLength.addAndGet(delta);
+	}
+
+	/**
+	 * Método que devolve o comprimento de um URL
+	 * @param docId identificador do URL
+	 * @return número de palavras indexadas do URL
+	 */
+	public int length(int docId) {
+		AtomicIntegerArray[] current = pages;
+		int page = docId / PAGE_SIZE;
+		return (page < current.length) ? current[page].get(docId % PAGE_SIZE) : 0;
+	}
+
+	/**
+	 * Método que devolve o número de URLs com palavras indexadas
+	 * @return número de URLs
+	 */
+	public int documentCount() {
+		return documentCount.get();
+	}
+
+	/**
+	 * Método que devolve a soma dos comprimentos de todos os URLs
+	 * @return soma dos comprimentos
+	 */
+	public long totalLength() {
+		return totalLength.get();
+	}
+
+	/**
+	 * Método que devolve o comprimento médio dos URLs
+	 * @return comprimento médio, 1 se ainda não existirem URLs
+	 */
+	public double averageLength() {
+		int count = documentCount.get();
+		return (count == 0) ? 1.0 : (double) totalLength.get() / count;
+	}
+
+	/**
+	 * Método que devolve a página que contém um identificador, criando-a se necessário
+	 * @param docId identificador do URL
+	 * @return página de comprimentos
+	 */
+	private AtomicIntegerArray page(int docId) {
+		int page = docId / PAGE_SIZE;
+		AtomicIntegerArray[] current = pages;
+		if (page < current.length) {
+			return current[page];
+		}
+		synchronized (this) {
+			current = pages;
+			if (page >= current.length) {
+				AtomicIntegerArray[] grown = Arrays.copyOf(current, page + 1);
+				for (int i = current.length; i < grown.length; i++) {
+					grown[i] = new AtomicIntegerArray(PAGE_SIZE);
+				}
+				pages = grown;
+				current = grown;
+			}
+			return current[page];
+		}
+	}
+}
@@ -41,10 +41,21 @@ public class Downloader {
 	private final int downloaderNumber;
 
 	/**
-	 * Número de tentativas de envio de informação para o barrel
+	 * Número de tentativas de envio para um barrel ocupado em que a espera duplica; depois disso
+	 * a espera deixa de crescer, e a página continua a ser reenviada até o barrel a aceitar
 	 */
 	private int totalAttemps = 5;
 
+	/**
+	 * Divisão do índice pelos Barrels
+	 */
+	private volatile ShardMap shardMap = ShardMap.DEFAULT;
+
+	/**
+	 * Shard de cada Barrel, pedido uma única vez a cada um
+	 */
+	private final Map<BarrelInterface, Integer> barrelShards = new ConcurrentHashMap<>();
+
 
 	/**
 	 * Lista de URLs visitados
@@ -110,30 +121,35 @@ public class Downloader {
 				} else {
 					description = "Sem descrição"; 
 				}
-				sendToBarrelsInfo(url, title, description);
-
-				String[] words = text.toLowerCase().split("\\W+");
-				for (String word : words) {
-					if (word.length() > 2 && !word.isEmpty()) {
-						sendToBarrels(word, url);
-					}
-				}
+				// A análise é a mesma que o Gateway aplica às pesquisas
+				List<Analyzer.Token> tokens = Analyzer.standard().analyze(text);
 
+				Set<String> outlinks = new LinkedHashSet<>();
 				Elements links = doc.select("a[href]");
                 for (Element link : links) {
                     String newUrl = link.absUrl("href");
-                    if (!newUrl.isEmpty() && !visitedUrls.contains(newUrl)) {
-						sendLinkToBarrels(url, newUrl);
+                    if (newUrl.isEmpty()) {
+						continue;
+					}
+					outlinks.add(newUrl);
+					if (!visitedUrls.contains(newUrl)) {
 						putURL(newUrl);
                     }
                 }
 
+				// A página inteira segue numa só chamada para cada barrel
+				sendDocumentToBarrels(IndexDocument.of(url, title, description, tokens, outlinks));
+
             } catch (IllegalArgumentException e) {
 				System.out.println("Error: " + e.getMessage());
             } catch (MalformedURLException e){
 				System.out.println("Error: " + e.getMessage());
 			} catch (HttpStatusException e){		
 				System.out.println("HTTP error" + e.getMessage());
+				// Uma página que deixou de existir é retirada do índice dos barrels
+				if (e.getStatusCode() == 404 || e.getStatusCode() == 410) {
+					sendDocumentToBarrels(IndexDocument.deletion(url));
+				}
 			}catch (Exception e){
 				e.printStackTrace();
 			}
@@ -174,6 +190,7 @@ public class Downloader {
                 barrels.clear();
                 barrels.addAll(newBarrels);
             }
+			barrelShards.keySet().retainAll(newBarrels);
             System.out.println("🔄 Downloader " + downloaderNumber + " atualizou Barrels. Ativos: " + newBarrels.size());
         } catch (RemoteException e) {
             System.err.println("Erro ao atualizar Barrels: " + e.getMessage());
@@ -182,74 +199,71 @@ public class Downloader {
 
 
 	/**
-     * Método para enviar uma palavra e o URL onde foi encontrada para os barrels
-     * @param word Palavra extraída da página.
-     * @param url URL onde a palavra foi encontrada.
-     */
-    private void sendToBarrels(String word, String url) {
-		List<BarrelInterface> barrelsToRemove = new ArrayList<>();
-        for (BarrelInterface barrel : barrels) {
-            try {
-                barrel.receiveWord(url, word);
-            } catch (RemoteException e) {
-                System.err.println("Error sending word to barrel: " + e.getMessage());
-				barrelsToRemove.add(barrel);
-            }
-        }
-		// Remove Barrels que falharam
-        if (!barrelsToRemove.isEmpty()) {
-            synchronized (this) {
-                barrels.removeAll(barrelsToRemove);
-            }
-            System.out.println("Removidos " + barrelsToRemove.size() + " Barrels inativos");
-        }
-    }
+	 * Método para definir a divisão do índice pelos Barrels
+	 * @param shardMap divisão lida do config.properties
+	 */
+	public void setShardMap(ShardMap shardMap) {
+		this.shardMap = shardMap;
+	}
+
+	/**
+	 * Método que devolve o shard de um Barrel, pedindo-o ao Barrel na primeira vez
+	 * @param barrel Barrel
+	 * @return shard do Barrel
+	 * @throws RemoteException se o Barrel não responder
+	 */
+	private int shardOf(BarrelInterface barrel) throws RemoteException {
+		Integer shard = barrelShards.get(barrel);
+		if (shard == null) {
+			shard = barrel.getShard();
+			barrelShards.put(barrel, shard);
+		}
+		return shard;
+	}
 
 
 	/**
-     * Método para enviar a informaçãp da página (URL, título e descrição) para os barrels
-     * @param url URL da página.
-     * @param title Título da página.
-     * @param description Descrição da página.
+     * Método para enviar uma página analisada para os barrels, uma chamada por barrel.
+     * Num índice dividido, cada barrel recebe só as palavras do seu shard.
+     * Um barrel com a fila de ingestão cheia recusa a página, que é reenviada com
+     * esperas cada vez maiores (até um limite) enquanto o barrel a recusar, pelo que o
+     * downloader abranda ao ritmo do barrel em vez de perder páginas; um barrel que não
+     * responde é removido da lista
+     * @param document página com a informação, as palavras e os links.
      */
-	private void sendToBarrelsInfo(String url, String title, String description) {
-		int count = 0;
+    private void sendDocumentToBarrels(IndexDocument document) {
+		List<BarrelInterface> barrelsToRemove = new ArrayList<>();
+		IndexDocument[] slices = null;
+		if (shardMap.isTermPartitioned()) {
+			slices = document.partitionByTerm(shardMap);
+		} else if (shardMap.isDocumentPartitioned()) {
+			slices = document.partitionByDocument(shardMap);
+		}
         for (BarrelInterface barrel : barrels) {
             try {
-				boolean send = barrel.receiveUrlInfo(url, title, description);
-				//System.out.println("A mandar info para barrel");
-				while(!send){
-					send = barrel.receiveUrlInfo(url, title, description);
-					count++;
-					System.out.println("Unsucessfull attemps: " + count);
-					if(count == totalAttemps){
-						barrel.writeAllInformationToFile();
-						Thread.sleep(1000);
-						gateway.removeBarrel(barrel.getBarrelNumber());
-						break;
+				IndexDocument part = (slices != null) ? slices[shardOf(barrel)] : document;
+				int count = 0;
+				long backoffMillis = 50;
+				while (!barrel.receiveDocument(part)) {
+					Thread.sleep(backoffMillis);
+					if (++count < totalAttemps) {
+						backoffMillis *= 2;
 					}
 				}
             } catch (RemoteException e) {
-                System.err.println("Error sending URL info to barrel: " + e.getMessage());
+                System.err.println("Error sending document to barrel: " + e.getMessage());
+				barrelsToRemove.add(barrel);
             } catch (InterruptedException e) {
-				e.printStackTrace();
+				Thread.currentThread().interrupt();
+				return;
 			}
         }
-    }
-
-	/**
-	 * Método para enviar um link que aponta para outro para os barrels
-	 * @param sourceUrl URL de origem.
-	 * @param targetUrl URL de destino.
-	 */
-	private void sendLinkToBarrels(String sourceUrl, String targetUrl) {
-        for (BarrelInterface barrel : barrels) {
-            try {
-				//System.out.println("A mandar links to barrel");
-                barrel.receiveLink(sourceUrl, targetUrl);
-            } catch (RemoteException e) {
-                System.err.println("Error sending link to barrel: " + e.getMessage());
+		// Remove Barrels que falharam
+        if (!barrelsToRemove.isEmpty()) {
+            synchronized (this) {
+                barrels.removeAll(barrelsToRemove);
             }
+            System.out.println("Removidos " + barrelsToRemove.size() + " Barrels inativos");
         }
     }
 
@@ -278,6 +292,7 @@ public class Downloader {
 				GatewayInterface gateway = (GatewayInterface) LocateRegistry.getRegistry(host, port).lookup("Gateway");
 
 				Downloader downloader = new Downloader(gateway);
+				downloader.setShardMap(ShardMap.fromProperties(properties));
 					try {
 						while (true) {
 							String url = downloader.getURL(); 
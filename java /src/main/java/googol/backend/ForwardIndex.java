@@ -0,0 +1,213 @@
+package googol.backend;
+
+import java.util.*;
+
+
+/**
+ * Classe que representa o índice direto de um Barrel: para cada URL, as palavras em que
+ * tem ocorrências no índice, o inverso do índice de palavras. É usado para retirar as
+ * ocorrências antigas de um URL quando a página volta a ser indexada ou é apagada, sem
+ * percorrer todas as palavras do índice. Cada palavra é guardada uma única vez, numa tabela
+ * compacta que lhe atribui um identificador inteiro (a mesma estrutura do dicionário de URLs),
+ * e cada URL guarda apenas os identificadores ordenados das suas palavras. Guarda também os
+ * destinos dos links de cada URL, para retirar do grafo de links os que a página deixou de ter,
+ * e o número de URLs com cada palavra, que é exato ao contrário do tamanho das posting lists
+ * (que ainda contam as versões antigas de uma página até os segmentos serem juntos).
+ * Não é gravado nos checkpoints: é reconstruído a partir do índice e do grafo quando o Barrel arranca
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class ForwardIndex {
+
+	/**
+	 * Vetor vazio partilhado pelos URLs sem palavras
+	 */
+	private static final int[] NO_TERMS = new int[0];
+
+	/**
+	 * Tabela das palavras, que associa cada palavra a um identificador inteiro
+	 */
+	private final UrlDictionary termIds = new UrlDictionary();
+
+	/**
+	 * Identificadores ordenados das palavras de cada URL, indexados pelo identificador do URL
+	 * (o vetor de cada URL pode ter posições livres no fim)
+	 */
+	private int[][] termsOf = new int[16][];
+
+	/**
+	 * Número de palavras de cada URL, indexado pelo identificador do URL
+	 */
+	private int[] counts = new int[16];
+
+	/**
+	 * Identificadores ordenados dos destinos dos links de cada URL, indexados pelo identificador do URL
+	 */
+	private int[][] linksOf = new int[16][];
+
+	/**
+	 * Número de URLs com cada palavra, indexado pelo identificador da palavra
+	 */
+	private int[] documentFrequencies = new int[16];
+
+	/**
+	 * Número de pares URL, palavra guardados
+	 */
+	private long entryCount = 0;
+
+	/**
+	 * Método que devolve as palavras de um URL
+	 * @param docId identificador do URL
+	 * @return palavras do URL, vazio se não tiver nenhuma
+	 */
+	public synchronized String[] terms(int docId) {
+		int count = (docId < counts.length) ? counts[docId] : 0;
+		int[] ids = (count > 0) ? termsOf[docId] : NO_TERMS;
+		String[] terms = new String[count];
+		for (int i = 0; i < count; i++) {
+			terms[i] = termIds.getUrl(ids[i]);
+		}
+		return terms;
+	}
+
+	/**
+	 * Método para substituir as palavras de um URL
+	 * @param docId identificador do URL
+	 * @param terms palavras novas, sem repetições (vazio para apagar o URL)
+	 */
+	public void set(int docId, String[] terms) {
+		int[] ids = new int[terms.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = termIds.getOrAssign(terms[i]);
+		}
+		Arrays.sort(ids);
+		synchronized (this) {
+			ensureCapacity(docId);
+			for (int i = 0; i < counts[docId]; i++) {
+				documentFrequencies[termsOf[docId][i]]--;
+			}
+			for (int id : ids) {
+				countTerm(id);
+			}
+			entryCount += ids.length - counts[docId];
+			termsOf[docId] = (ids.length > 0) ? ids : null;
+			counts[docId] = ids.length;
+		}
+	}
+
+	/**
+	 * Método para acrescentar uma palavra às palavras de um URL, se ainda não estiver lá
+	 * @param docId identificador do URL
+	 * @param term palavra
+	 */
+	public void add(int docId, String term) {
+		int id = termIds.getOrAssign(term);
+		synchronized (this) {
+			ensureCapacity(docId);
+			int[] ids = (termsOf[docId] != null) ? termsOf[docId] : NO_TERMS;
+			int count = counts[docId];
+			// As palavras chegam quase sempre por ordem de identificador, e entram no fim
+			int pos = (count == 0 || ids[count - 1] < id) ? -(count + 1) : Arrays.binarySearch(ids, 0, count, id);
+			if (pos >= 0) {
+				return;
+			}
+			pos = -(pos + 1);
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, Math.max(4, 2 * count));
+				termsOf[docId] = ids;
+			}
+			System.arraycopy(ids, pos, ids, pos + 1, count - pos);
+			ids[pos] = id;
+			counts[docId] = count + 1;
+			countTerm(id);
+			entryCount++;
+		}
+	}
+
+	/**
+	 * Método que devolve o número de URLs com ocorrências de uma palavra
+	 * @param term palavra
+	 * @return número de URLs, ou -1 se a palavra nunca esteve no índice direto
+	 */
+	public int documentFrequency(String term) {
+		int id = termIds.getId(term);
+		if (id < 0) {
+			return -1;
+		}
+		synchronized (this) {
+			return (id < documentFrequencies.length) ? documentFrequencies[id] : 0;
+		}
+	}
+
+	/**
+	 * Método que conta mais um URL com uma palavra
+	 * @param id identificador da palavra
+	 */
+	private void countTerm(int id) {
+		if (id >= documentFrequencies.length) {
+			documentFrequencies = Arrays.copyOf(documentFrequencies, Math.max(id + 1, documentFrequencies.length * 2));
+		}
+		documentFrequencies[id]++;
+	}
+
+	/**
+	 * Método que devolve os destinos dos links de um URL
+	 * @param docId identificador do URL
+	 * @return identificadores ordenados dos destinos, vazio se não tiver links
+	 */
+	public synchronized int[] links(int docId) {
+		int[] targets = (docId < linksOf.length) ? linksOf[docId] : null;
+		return (targets != null) ? targets : NO_TERMS;
+	}
+
+	/**
+	 * Método para substituir os destinos dos links de um URL
+	 * @param docId identificador do URL
+	 * @param targets identificadores ordenados e sem repetições dos destinos (vazio para apagar)
+	 */
+	public synchronized void setLinks(int docId, int[] targets) {
+		ensureCapacity(docId);
+		linksOf[docId] = (targets.length > 0) ? targets : null;
+	}
+
+	/**
+	 * Método para acrescentar um destino aos links de um URL, se ainda não estiver lá
+	 * @param docId identificador do URL
+	 * @param target identificador do destino
+	 */
+	public synchronized void addLink(int docId, int target) {
+		ensureCapacity(docId);
+		int[] targets = (linksOf[docId] != null) ? linksOf[docId] : NO_TERMS;
+		int pos = Arrays.binarySearch(targets, target);
+		if (pos >= 0) {
+			return;
+		}
+		pos = -(pos + 1);
+		int[] grown = new int[targets.length + 1];
+		System.arraycopy(targets, 0, grown, 0, pos);
+		grown[pos] = target;
+		System.arraycopy(targets, pos, grown, pos + 1, targets.length - pos);
+		linksOf[docId] = grown;
+	}
+
+	/**
+	 * Método que devolve o número de pares URL, palavra guardados
+	 * @return número de pares
+	 */
+	public synchronized long size() {
+		return entryCount;
+	}
+
+	/**
+	 * Método que aumenta o vetor para conter um identificador
+	 * @param docId identificador do URL
+	 */
+	private void ensureCapacity(int docId) {
+		if (docId >= termsOf.length) {
+			termsOf = Arrays.copyOf(termsOf, Math.max(docId + 1, termsOf.length * 2));
+			counts = Arrays.copyOf(counts, termsOf.length);
+			linksOf = Arrays.copyOf(linksOf, termsOf.length);
+		}
+	}
+}
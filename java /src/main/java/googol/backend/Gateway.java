@@ -46,6 +46,16 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
 	 */
 	private int activeDownloaders = 0;
 
+	/**
+	 * Divisão do índice pelos Barrels
+	 */
+	private volatile ShardMap shardMap = ShardMap.DEFAULT;
+
+	/**
+	 * Pesquisa no índice dividido pelos Barrels
+	 */
+	private volatile ShardedSearch shardedSearch = new ShardedSearch(ShardMap.DEFAULT);
+
 	/**
 	 * Construtor da classe Gateway
 	 * @throws RemoteException
@@ -61,6 +71,15 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
 	public void initQueue(URLQueueInterface queue) throws RemoteException {	
 		this.urlQueue = queue;
 	}
+
+	/**
+	 * Método para definir a divisão do índice pelos Barrels
+	 * @param shardMap divisão lida do config.properties
+	 */
+	public void setShardMap(ShardMap shardMap) {
+		this.shardMap = shardMap;
+		this.shardedSearch = new ShardedSearch(shardMap);
+	}
    
 	@Override
     public void putNew(String url) throws RemoteException {
@@ -82,40 +101,29 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
 			registerSearch(input);
 		}
 
-		String[] words = input.split(" ");
-		List<String> results = new ArrayList<>();
-		for (BarrelInterface barrel : barrels) {
-			try {
-				List<String> barrelResults = barrel.searchMultipleWords(words);
-				if (results.isEmpty()) {
-					results.addAll(barrelResults);
-				} else {
-					results.retainAll(barrelResults);
-				}
-			} catch (RemoteException error) {
-				System.out.println(error);
-			}
-		}
-		
-		// Sort results by link count in descending order
-		results.sort(Comparator.comparingInt((String urlString) -> {
-			String url = urlString.split(" \\| ")[0];
-			try {
-				return getLinkCount(url);
-			} catch (RemoteException e) {
-				System.err.println("Error while getting link count for " + url + ": " + e.getMessage());
-				return 0;
-			}
-		}).reversed());
-
-		// Implement pagination with a new ArrayList to ensure serialization
+		// Texto entre aspas é pesquisado como frase
+		SearchQuery query = SearchQuery.parse(input);
 		int pageSize = 10;
-		int startIndex = (page - 1) * pageSize;
-		int endIndex = Math.min(startIndex + pageSize, results.size());
-		
+		int startIndex = (Math.max(page, 1) - 1) * pageSize;
+
 		List<String> paginatedResults = new ArrayList<>();
-		if (startIndex < results.size()) {
-			paginatedResults = new ArrayList<>(results.subList(startIndex, endIndex));
+		if (shardMap.isPartitioned()) {
+			// Cada Barrel só tem uma parte do índice, os resultados dos shards são juntos aqui
+			for (SearchHit hit : shardedSearch.search(barrels, query, pageSize, startIndex)) {
+				paginatedResults.add(hit.toString());
+			}
+		} else {
+			// Os barrels são réplicas, basta que um deles calcule a página pedida
+			for (BarrelInterface barrel : barrels) {
+				try {
+					for (SearchHit hit : barrel.searchTopK(query, pageSize, startIndex)) {
+						paginatedResults.add(hit.toString());
+					}
+					break;
+				} catch (RemoteException error) {
+					System.out.println(error);
+				}
+			}
 		}
 
 		long endTime = System.nanoTime();
@@ -125,6 +133,38 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
 		return paginatedResults;
 	}
 
+	@Override
+	public List<String> suggest(String prefix, int limit) throws RemoteException {
+		if (shardMap.isPartitioned()) {
+			return shardedSearch.suggest(barrels, prefix, limit);
+		}
+		// Os barrels são réplicas, basta que um deles complete o prefixo
+		for (BarrelInterface barrel : barrels) {
+			try {
+				return new ArrayList<>(barrel.suggest(prefix, limit).keySet());
+			} catch (RemoteException error) {
+				System.out.println(error);
+			}
+		}
+		return new ArrayList<>();
+	}
+
+	@Override
+	public String didYouMean(String input) throws RemoteException {
+		if (shardMap.isPartitioned()) {
+			// Cada Barrel só conhece as palavras do seu shard e corrigiria palavras que existem nos outros
+			return null;
+		}
+		for (BarrelInterface barrel : barrels) {
+			try {
+				return barrel.didYouMean(input);
+			} catch (RemoteException error) {
+				System.out.println(error);
+			}
+		}
+		return null;
+	}
+
 	public int getLinkCount(String url) throws RemoteException {
 		int linkCount = 0;
 		for (BarrelInterface barrel : barrels) {
@@ -322,6 +362,53 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
 				.append(" palavras indexadas\n");
 		}
 
+		// PageRank calculado por cada Barrel
+		stats.append("\nPageRank por Barrel:\n");
+		int number = 1;
+		for (BarrelInterface barrel : barrels) {
+			String pageRank;
+			try {
+				pageRank = barrel.getPageRankStatistics();
+			} catch (RemoteException e) {
+				pageRank = "indisponível";
+			}
+			stats.append("Barrel ").append(number++)
+				.append(": ").append(pageRank)
+				.append("\n");
+		}
+
+		// Divisão do índice e shard de cada Barrel
+		stats.append("\nDivisão do índice: ").append(shardMap).append("\n");
+		if (shardMap.isPartitioned()) {
+			number = 1;
+			for (BarrelInterface barrel : barrels) {
+				String shard;
+				try {
+					shard = "shard " + barrel.getShard();
+				} catch (RemoteException e) {
+					shard = "indisponível";
+				}
+				stats.append("Barrel ").append(number++)
+					.append(": ").append(shard)
+					.append("\n");
+			}
+		}
+
+		// Estado da fila de ingestão de cada Barrel
+		stats.append("\nIngestão por Barrel:\n");
+		number = 1;
+		for (BarrelInterface barrel : barrels) {
+			String ingest;
+			try {
+				ingest = barrel.getIngestStatistics();
+			} catch (RemoteException e) {
+				ingest = "indisponível";
+			}
+			stats.append("Barrel ").append(number++)
+				.append(": ").append(ingest)
+				.append("\n");
+		}
+
 		return stats.toString();
 	}
 
@@ -348,6 +435,7 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
 
 			String host = properties.getProperty("gatewayIP"); // Endereço IP ou nome do host
 			int port = Integer.parseInt(properties.getProperty("gatewayPort")); // Porta do RMI Registry
+			gateway.setShardMap(ShardMap.fromProperties(properties));
 			
 			//RMI connection
             Registry registry = LocateRegistry.createRegistry(port);
@@ -45,6 +45,23 @@ public interface GatewayInterface extends Remote{
 	List<String> search(String input, int page, boolean isPagination) throws RemoteException;
 
 
+	/**
+	 * Método que completa um prefixo com as palavras mais frequentes do índice, para sugestões na caixa de pesquisa
+	 * @param prefix prefixo a completar
+	 * @param limit número máximo de sugestões
+	 * @return palavras sugeridas, da mais para a menos frequente
+	 * @throws RemoteException exceção 
+	 */
+	List<String> suggest(String prefix, int limit) throws RemoteException;
+
+	/**
+	 * Método que sugere uma correção para uma pesquisa com palavras que não existem no índice
+	 * @param input texto da pesquisa
+	 * @return texto corrigido, ou null se não houver nada a corrigir
+	 * @throws RemoteException exceção 
+	 */
+	String didYouMean(String input) throws RemoteException;
+
 	/**
 	 * Método para obter o número de links que apontam para uma dada página
 	 * @param url url
@@ -0,0 +1,250 @@
+package googol.backend;
+
+import java.util.*;
+
+
+/**
+ * Classe que mantém os URLs de um Barrel ordenados pelo número de links que apontam
+ * para eles, atualizada a cada link recebido. Os URLs com o mesmo número de links
+ * ficam num mesmo balde, e os baldes não vazios formam uma lista ordenada pelo número
+ * de links: um link novo só move o URL de destino para o balde seguinte (criando-o se
+ * for preciso), e os k URLs com mais links são lidos percorrendo os baldes a partir do
+ * último, pelo que as duas operações não dependem do número de URLs.
+ * Dentro de cada balde os URLs ficam numa lista duplamente ligada guardada em vetores de
+ * inteiros indexados pelo identificador do URL, pela ordem em que atingiram esse número de links
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class InDegreeRanking {
+
+	/**
+	 * Classe que representa os URLs com um mesmo número de links
+	 */
+	private static final class Bucket {
+
+		/**
+		 * Número de links dos URLs do balde
+		 */
+		private final int count;
+
+		/**
+		 * Balde com o número de links imediatamente abaixo, ou null
+		 */
+		private Bucket lower;
+
+		/**
+		 * Balde com o número de links imediatamente acima, ou null
+		 */
+		private Bucket higher;
+
+		/**
+		 * Primeiro URL do balde
+		 */
+		private int first = -1;
+
+		/**
+		 * Último URL do balde
+		 */
+		private int last = -1;
+
+		/**
+		 * Construtor da classe
+		 * @param count número de links dos URLs do balde
+		 */
+		private Bucket(int count) {
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Balde de cada URL, indexado pelo identificador (null se nenhum link apontar para o URL)
+	 */
+	private Bucket[] bucketOf = new Bucket[16];
+
+	/**
+	 * URL anterior de cada URL dentro do seu balde, ou -1
+	 */
+	private int[] previous = new int[16];
+
+	/**
+	 * URL seguinte de cada URL dentro do seu balde, ou -1
+	 */
+	private int[] next = new int[16];
+
+	/**
+	 * Balde com menos links
+	 */
+	private Bucket lowest;
+
+	/**
+	 * Balde com mais links
+	 */
+	private Bucket highest;
+
+	/**
+	 * Método para somar links ao número de links que apontam para um URL. Um URL que
+	 * fique sem links sai da ordenação
+	 * @param id identificador do URL de destino
+	 * @param delta número de links a somar (negativo para retirar)
+	 */
+	public synchronized void add(int id, int delta) {
+		if (delta == 0) {
+			return;
+		}
+		ensureCapacity(id);
+		Bucket from = bucketOf[id];
+		int count = Math.max(0, ((from != null) ? from.count : 0) + delta);
+
+		// Procura o balde com o maior número de links que não ultrapassa count: a partir do
+		// balde atual para os links recebidos um a um, de uma das pontas para os URLs novos
+		Bucket below;
+		if (from != null) {
+			below = from;
+		} else if (highest != null && highest.count <= count) {
+			below = highest;
+		} else {
+			below = null;
+		}
+		while (below != null && below.count > count) {
+			below = below.lower;
+		}
+		Bucket above = (below != null) ? below.higher : lowest;
+		while (above != null && above.count <= count) {
+			below = above;
+			above = above.higher;
+		}
+
+		if (from != null) {
+			if (from.count == count) {
+				return;
+			}
+			unlink(id, from);
+			if (below == from && from.first < 0) {
+				below = from.lower;
+			}
+		}
+		if (count > 0) {
+			Bucket target = (below != null && below.count == count) ? below : insertAfter(below, count);
+			append(id, target);
+		}
+	}
+
+	/**
+	 * Método que devolve o número de links que apontam para um URL
+	 * @param id identificador do URL
+	 * @return número de links
+	 */
+	public synchronized int count(int id) {
+		Bucket bucket = (id < bucketOf.length) ? bucketOf[id] : null;
+		return (bucket != null) ? bucket.count : 0;
+	}
+
+	/**
+	 * Método que devolve os URLs com mais links
+	 * @param k número máximo de URLs
+	 * @return identificadores dos URLs associados ao número de links, por ordem decrescente
+	 */
+	public synchronized LinkedHashMap<Integer, Integer> top(int k) {
+		LinkedHashMap<Integer, Integer> top = new LinkedHashMap<>();
+		for (Bucket bucket = highest; bucket != null && top.size() < k; bucket = bucket.lower) {
+			for (int id = bucket.first; id >= 0 && top.size() < k; id = next[id]) {
+				top.put(id, bucket.count);
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Método que esvazia a ordenação
+	 */
+	public synchronized void clear() {
+		Arrays.fill(bucketOf, null);
+		lowest = null;
+		highest = null;
+	}
+
+	/**
+	 * Método que cria um balde vazio a seguir a outro
+	 * @param below balde anterior, ou null para criar o primeiro balde
+	 * @param count número de links do novo balde
+	 * @return balde criado
+	 */
+	private Bucket insertAfter(Bucket below, int count) {
+		Bucket bucket = new Bucket(count);
+		bucket.lower = below;
+		bucket.higher = (below != null) ? below.higher : lowest;
+		if (bucket.lower != null) {
+			bucket.lower.higher = bucket;
+		} else {
+			lowest = bucket;
+		}
+		if (bucket.higher != null) {
+			bucket.higher.lower = bucket;
+		} else {
+			highest = bucket;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Método que acrescenta um URL ao fim de um balde
+	 * @param id identificador do URL
+	 * @param bucket balde de destino
+	 */
+	private void append(int id, Bucket bucket) {
+		bucketOf[id] = bucket;
+		previous[id] = bucket.last;
+		next[id] = -1;
+		if (bucket.last >= 0) {
+			next[bucket.last] = id;
+		} else {
+			bucket.first = id;
+		}
+		bucket.last = id;
+	}
+
+	/**
+	 * Método que retira um URL do seu balde, retirando também o balde da lista se ficar vazio
+	 * @param id identificador do URL
+	 * @param bucket balde do URL
+	 */
+	private void unlink(int id, Bucket bucket) {
+		if (previous[id] >= 0) {
+			next[previous[id]] = next[id];
+		} else {
+			bucket.first = next[id];
+		}
+		if (next[id] >= 0) {
+			previous[next[id]] = previous[id];
+		} else {
+			bucket.last = previous[id];
+		}
+		bucketOf[id] = null;
+		if (bucket.first < 0) {
+			if (bucket.lower != null) {
+				bucket.lower.higher = bucket.higher;
+			} else {
+				lowest = bucket.higher;
+			}
+			if (bucket.higher != null) {
+				bucket.higher.lower = bucket.lower;
+			} else {
+				highest = bucket.lower;
+			}
+		}
+	}
+
+	/**
+	 * Método que aumenta os vetores para conterem um identificador
+	 * @param id identificador do URL
+	 */
+	private void ensureCapacity(int id) {
+		if (id >= bucketOf.length) {
+			int length = Math.max(id + 1, bucketOf.length * 2);
+			bucketOf = Arrays.copyOf(bucketOf, length);
+			previous = Arrays.copyOf(previous, length);
+			next = Arrays.copyOf(next, length);
+		}
+	}
+}
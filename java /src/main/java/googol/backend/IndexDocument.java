@@ -0,0 +1,317 @@
+package googol.backend;
+
+import java.io.Serializable;
+import java.util.*;
+
+
+/**
+ * Classe que representa uma página já analisada pelo Downloader e enviada a cada Barrel
+ * numa única chamada: o URL, o título, a descrição, as palavras sem repetições com a
+ * frequência, as posições e a forma original de cada uma, e os links da página. As posições de todas as
+ * palavras seguem num único vetor, pela ordem das palavras, para que o envio por RMI
+ * não crie um objeto por palavra. Um documento sem conteúdo pode também indicar que
+ * a página deixou de existir, para o Barrel retirar as suas palavras do índice, ou levar
+ * só os links da página, sem título nem descrição (que ficam nulos)
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class IndexDocument implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * URL da página
+	 */
+	private final String url;
+
+	/**
+	 * Título da página, null num documento só com os links
+	 */
+	private final String title;
+
+	/**
+	 * Descrição da página, null num documento só com os links
+	 */
+	private final String description;
+
+	/**
+	 * Palavras analisadas da página, sem repetições, pela ordem da primeira ocorrência
+	 */
+	private final String[] terms;
+
+	/**
+	 * Número de ocorrências de cada palavra
+	 */
+	private final int[] frequencies;
+
+	/**
+	 * Posições ordenadas das ocorrências de cada palavra, seguidas pela ordem das palavras
+	 */
+	private final int[] positions;
+
+	/**
+	 * Forma original de cada palavra na página (null se for igual à palavra analisada)
+	 */
+	private final String[] surfaces;
+
+	/**
+	 * URLs para onde a página aponta, sem repetições
+	 */
+	private final String[] links;
+
+	/**
+	 * Indica se a página deixou de existir e deve ser retirada do índice
+	 */
+	private final boolean deletion;
+
+	/**
+	 * Construtor da classe
+	 * @param url URL da página
+	 * @param title título da página
+	 * @param description descrição da página
+	 * @param terms palavras sem repetições
+	 * @param frequencies número de ocorrências de cada palavra
+	 * @param positions posições das ocorrências, seguidas pela ordem das palavras
+	 * @param surfaces forma original de cada palavra, ou null se for igual à palavra
+	 * @param links URLs para onde a página aponta
+	 */
+	public IndexDocument(String url, String title, String description, String[] terms, int[] frequencies, int[] positions, String[] surfaces, String[] links) {
+		this(url, title, description, terms, frequencies, positions, surfaces, links, false);
+	}
+
+	/**
+	 * Construtor da classe com a indicação de que a página foi apagada
+	 * @param url URL da página
+	 * @param title título da página
+	 * @param description descrição da página
+	 * @param terms palavras sem repetições
+	 * @param frequencies número de ocorrências de cada palavra
+	 * @param positions posições das ocorrências, seguidas pela ordem das palavras
+	 * @param surfaces forma original de cada palavra, ou null se for igual à palavra
+	 * @param links URLs para onde a página aponta
+	 * @param deletion true se a página deixou de existir
+	 */
+	private IndexDocument(String url, String title, String description, String[] terms, int[] frequencies, int[] positions, String[] surfaces, String[] links, boolean deletion) {
+		if (terms.length != frequencies.length || terms.length != surfaces.length) {
+			throw new IllegalArgumentException("Cada palavra tem de ter uma frequência e uma forma original");
+		}
+		long total = 0;
+		for (int frequency : frequencies) {
+			total += frequency;
+		}
+		if (total != positions.length) {
+			throw new IllegalArgumentException("O número de posições não coincide com a soma das frequências");
+		}
+		this.url = url;
+		this.title = title;
+		this.description = description;
+		this.terms = terms;
+		this.frequencies = frequencies;
+		this.positions = positions;
+		this.surfaces = surfaces;
+		this.links = links;
+		this.deletion = deletion;
+	}
+
+	/**
+	 * Método que cria o documento de uma página que deixou de existir (por exemplo, que devolveu 404)
+	 * @param url URL da página
+	 * @return documento sem conteúdo que pede ao Barrel para retirar a página
+	 */
+	public static IndexDocument deletion(String url) {
+		return new IndexDocument(url, "", "", new String[0], new int[0], new int[0], new String[0], new String[0], true);
+	}
+
+	/**
+	 * Método que cria o documento com os links de uma página, sem palavras nem informação
+	 * @param url URL da página
+	 * @param links URLs para onde a página aponta, sem repetições
+	 * @return documento que substitui apenas os links da página
+	 */
+	public static IndexDocument linksOnly(String url, String[] links) {
+		return new IndexDocument(url, null, null, new String[0], new int[0], new int[0], new String[0], links, false);
+	}
+
+	/**
+	 * Método que cria o documento de uma página a partir das palavras produzidas pela análise do seu texto
+	 * @param url URL da página
+	 * @param title título da página
+	 * @param description descrição da página
+	 * @param tokens palavras analisadas, pela ordem em que aparecem no texto
+	 * @param links URLs para onde a página aponta (as repetições são ignoradas)
+	 * @return documento da página
+	 */
+	public static IndexDocument of(String url, String title, String description, List<Analyzer.Token> tokens, Collection<String> links) {
+		// As posições de cada palavra ficam ordenadas porque as palavras chegam pela ordem do texto
+		Map<String, List<Integer>> occurrences = new LinkedHashMap<>();
+		Map<String, String> firstSurfaces = new HashMap<>();
+		for (Analyzer.Token token : tokens) {
+			occurrences.computeIfAbsent(token.getTerm(), term -> new ArrayList<>()).add(token.getPosition());
+			firstSurfaces.putIfAbsent(token.getTerm(), token.getSurface());
+		}
+		String[] terms = new String[occurrences.size()];
+		int[] frequencies = new int[terms.length];
+		int[] positions = new int[tokens.size()];
+		String[] surfaces = new String[terms.length];
+		int i = 0;
+		int next = 0;
+		for (Map.Entry<String, List<Integer>> entry : occurrences.entrySet()) {
+			terms[i] = entry.getKey();
+			String surface = firstSurfaces.get(terms[i]);
+			surfaces[i] = (surface != null && !surface.equals(terms[i])) ? surface : null;
+			frequencies[i] = entry.getValue().size();
+			for (int position : entry.getValue()) {
+				positions[next++] = position;
+			}
+			i++;
+		}
+		return new IndexDocument(url, title, description, terms, frequencies, positions, surfaces,
+				new LinkedHashSet<>(links).toArray(new String[0]));
+	}
+
+	/**
+	 * Método que divide a página pelos shards de um índice dividido por páginas. O shard do URL
+	 * recebe a página inteira, e é o único a guardar as palavras, o título e a descrição. Os
+	 * restantes recebem só os links, para que o grafo de links e o PageRank continuem a ser os
+	 * da coleção inteira e as pontuações dos vários shards possam ser comparadas
+	 * @param shardMap divisão do índice
+	 * @return parte de cada shard, indexada pelo número do shard
+	 */
+	public IndexDocument[] partitionByDocument(ShardMap shardMap) {
+		IndexDocument[] parts = new IndexDocument[shardMap.getShardCount()];
+		if (deletion || parts.length == 1) {
+			Arrays.fill(parts, this);
+			return parts;
+		}
+		Arrays.fill(parts, linksOnly(url, links));
+		parts[shardMap.shardOf(url)] = this;
+		return parts;
+	}
+
+	/**
+	 * Método que divide as palavras da página pelos shards de um índice dividido por palavras.
+	 * Cada parte tem as palavras de um shard, com as suas frequências e posições, e a mesma
+	 * informação e links, que todos os Barrels guardam. Um shard sem palavras da página recebe
+	 * uma parte sem palavras, que retira as ocorrências de uma versão anterior da página
+	 * @param shardMap divisão do índice
+	 * @return parte de cada shard, indexada pelo número do shard
+	 */
+	public IndexDocument[] partitionByTerm(ShardMap shardMap) {
+		IndexDocument[] parts = new IndexDocument[shardMap.getShardCount()];
+		if (deletion || parts.length == 1) {
+			Arrays.fill(parts, this);
+			return parts;
+		}
+		int[] shards = new int[terms.length];
+		int[] termCounts = new int[parts.length];
+		int[] positionCounts = new int[parts.length];
+		for (int i = 0; i < terms.length; i++) {
+			shards[i] = shardMap.shardOf(terms[i]);
+			termCounts[shards[i]]++;
+			positionCounts[shards[i]] += frequencies[i];
+		}
+		for (int shard = 0; shard < parts.length; shard++) {
+			String[] partTerms = new String[termCounts[shard]];
+			String[] partSurfaces = new String[partTerms.length];
+			int[] partFrequencies = new int[partTerms.length];
+			int[] partPositions = new int[positionCounts[shard]];
+			int n = 0;
+			int next = 0;
+			int start = 0;
+			for (int i = 0; i < terms.length; i++) {
+				if (shards[i] == shard) {
+					partTerms[n] = terms[i];
+					partSurfaces[n] = surfaces[i];
+					partFrequencies[n++] = frequencies[i];
+					System.arraycopy(positions, start, partPositions, next, frequencies[i]);
+					next += frequencies[i];
+				}
+				start += frequencies[i];
+			}
+			parts[shard] = new IndexDocument(url, title, description, partTerms, partFrequencies, partPositions, partSurfaces, links);
+		}
+		return parts;
+	}
+
+	/**
+	 * Método que devolve o URL da página
+	 * @return URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Método que devolve o título da página
+	 * @return título
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Método que devolve a descrição da página
+	 * @return descrição
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Método que devolve as palavras da página
+	 * @return palavras sem repetições
+	 */
+	public String[] getTerms() {
+		return terms;
+	}
+
+	/**
+	 * Método que devolve o número de ocorrências de cada palavra
+	 * @return frequências, pela ordem das palavras
+	 */
+	public int[] getFrequencies() {
+		return frequencies;
+	}
+
+	/**
+	 * Método que devolve as posições das ocorrências: as primeiras frequencies[0] são da
+	 * primeira palavra, as frequencies[1] seguintes da segunda, e assim sucessivamente
+	 * @return posições de todas as palavras
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Método que devolve a forma original de cada palavra na página, usada nas sugestões de pesquisa
+	 * @return formas originais, pela ordem das palavras (null se for igual à palavra)
+	 */
+	public String[] getSurfaces() {
+		return surfaces;
+	}
+
+	/**
+	 * Método que devolve os URLs para onde a página aponta
+	 * @return URLs sem repetições
+	 */
+	public String[] getLinks() {
+		return links;
+	}
+
+	/**
+	 * Método que indica se o documento traz o título e a descrição da página
+	 * @return false num documento só com os links
+	 */
+	public boolean hasInfo() {
+		return title != null;
+	}
+
+	/**
+	 * Método que indica se a página deixou de existir e deve ser retirada do índice
+	 * @return true se a página foi apagada
+	 */
+	public boolean isDeletion() {
+		return deletion;
+	}
+}
@@ -0,0 +1,671 @@
+package googol.backend;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+
+/**
+ * Classe que representa um segmento imutável do índice de um Barrel, gravado em disco
+ * e lido através do ficheiro mapeado em memória, pelo que só ocupa a cache de páginas
+ * do sistema operativo e não o heap. O ficheiro começa por um número mágico, uma versão e
+ * a geração do segmento (ver {@link Tombstones}), seguidos das palavras por ordem crescente dos seus bytes em UTF-8 (cada uma com os blocos
+ * comprimidos da sua posting list), dos comprimentos que o segmento acrescenta a cada URL,
+ * de uma tabela com a posição de cada palavra (usada para a procura binária) e de um
+ * rodapé com o número de palavras e de comprimentos e a posição das duas tabelas
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class IndexSegment {
+
+	/**
+	 * Número mágico que identifica um segmento do índice ("GOSG")
+	 */
+	static final int MAGIC = 0x474F5347;
+
+	/**
+	 * Versão atual do formato
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Tamanho do rodapé do ficheiro
+	 */
+	private static final int TRAILER_SIZE = 4 * Integer.BYTES;
+
+	/**
+	 * Número do segmento, que dá nome ao ficheiro
+	 */
+	private final long id;
+
+	/**
+	 * Ficheiro do segmento
+	 */
+	private final Path path;
+
+	/**
+	 * Geração do segmento: as ocorrências de URLs apagados numa geração posterior são ignoradas
+	 */
+	private final int generation;
+
+	/**
+	 * Conteúdo do ficheiro mapeado em memória, só lido por posição absoluta ou através de cópias
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Número de palavras do segmento
+	 */
+	private final int termCount;
+
+	/**
+	 * Número de URLs com comprimento
+	 */
+	private final int lengthCount;
+
+	/**
+	 * Posição da tabela de comprimentos
+	 */
+	private final int lengthsOffset;
+
+	/**
+	 * Posição da tabela de posições das palavras
+	 */
+	private final int tableOffset;
+
+	/**
+	 * Construtor da classe
+	 * @param id número do segmento
+	 * @param path ficheiro do segmento
+	 * @param generation geração do segmento
+	 * @param buffer conteúdo do ficheiro
+	 * @param termCount número de palavras
+	 * @param lengthCount número de URLs com comprimento
+	 * @param lengthsOffset posição da tabela de comprimentos
+	 * @param tableOffset posição da tabela de palavras
+	 */
+	private IndexSegment(long id, Path path, int generation, ByteBuffer buffer, int termCount, int lengthCount, int lengthsOffset, int tableOffset) {
+		this.id = id;
+		this.path = path;
+		this.generation = generation;
+		this.buffer = buffer;
+		this.termCount = termCount;
+		this.lengthCount = lengthCount;
+		this.lengthsOffset = lengthsOffset;
+		this.tableOffset = tableOffset;
+	}
+
+	/**
+	 * Método para abrir um segmento gravado (os segmentos da versão 1 não têm geração e ficam com a geração 0)
+	 * @param id número do segmento
+	 * @param path ficheiro do segmento
+	 * @return segmento aberto
+	 * @throws IOException se o ficheiro não puder ser lido ou não for um segmento válido
+	 */
+	public static IndexSegment open(long id, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE || size < 2 * Integer.BYTES + TRAILER_SIZE) {
+				throw new IOException("Segmento " + path + " com tamanho inválido: " + size + " bytes");
+			}
+			// O mapeamento continua válido depois de o canal ser fechado
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int version = buffer.getInt(Integer.BYTES);
+			if (buffer.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+				throw new IOException("O ficheiro " + path + " não é um segmento suportado");
+			}
+			int header = (version == 1) ? 2 * Integer.BYTES : 3 * Integer.BYTES;
+			int generation = (version == 1) ? 0 : buffer.getInt(2 * Integer.BYTES);
+			int trailer = (int) size - TRAILER_SIZE;
+			int termCount = buffer.getInt(trailer);
+			int lengthCount = buffer.getInt(trailer + Integer.BYTES);
+			int lengthsOffset = buffer.getInt(trailer + 2 * Integer.BYTES);
+			int tableOffset = buffer.getInt(trailer + 3 * Integer.BYTES);
+			if (termCount < 0 || lengthCount < 0 || generation < 0 || lengthsOffset < header
+					|| (long) lengthsOffset + 2L * Integer.BYTES * lengthCount != tableOffset
+					|| (long) tableOffset + (long) Integer.BYTES * termCount != trailer) {
+				throw new IOException("Segmento " + path + " incompleto ou corrompido");
+			}
+			return new IndexSegment(id, path, generation, buffer, termCount, lengthCount, lengthsOffset, tableOffset);
+		}
+	}
+
+	/**
+	 * Método para gravar um conjunto de posting lists, que já não recebem escritas, num segmento novo
+	 * @param id número do segmento
+	 * @param generation geração da tabela gravada
+	 * @param path ficheiro do segmento
+	 * @param postings posting list de cada palavra
+	 * @return segmento gravado e aberto
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	public static IndexSegment write(long id, int generation, Path path, Map<String, PostingList> postings) throws IOException {
+		List<Map.Entry<byte[], PostingList>> entries = new ArrayList<>(postings.size());
+		for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+			entries.add(new AbstractMap.SimpleEntry<>(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+		}
+		entries.sort((first, second) -> Arrays.compareUnsigned(first.getKey(), second.getKey()));
+
+		int[] lengths = new int[0];
+		try (Writer writer = new Writer(path, generation)) {
+			for (Map.Entry<byte[], PostingList> entry : entries) {
+				PostingBlock[] blocks = entry.getValue().toBlocks();
+				if (blocks.length == 0) {
+					continue;
+				}
+				writer.addTerm(entry.getKey(), blocks);
+				PostingList.Cursor cursor = entry.getValue().cursor();
+				for (int doc = cursor.nextDoc(); doc != PostingList.NO_MORE_DOCS; doc = cursor.nextDoc()) {
+					lengths = addLength(lengths, doc, cursor.freq());
+				}
+			}
+			writer.finish(lengths);
+		}
+		return open(id, path);
+	}
+
+	/**
+	 * Método para juntar vários segmentos num segmento novo, eliminando as ocorrências dos URLs
+	 * apagados. As palavras são percorridas por ordem em todos os segmentos ao mesmo tempo; uma
+	 * palavra que só existe num segmento sem URLs apagados tem os seus blocos copiados sem serem
+	 * descomprimidos, as restantes são juntas URL a URL. O segmento novo fica com a maior das
+	 * gerações juntas, o que é seguro porque só ficam as ocorrências válidas nessa geração
+	 * @param id número do segmento novo
+	 * @param path ficheiro do segmento novo
+	 * @param segments segmentos a juntar
+	 * @param tombstones URLs apagados
+	 * @return segmento gravado e aberto
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	public static IndexSegment merge(long id, Path path, List<IndexSegment> segments, Tombstones tombstones) throws IOException {
+		int generation = 0;
+		int[] lengths = new int[0];
+		for (IndexSegment segment : segments) {
+			generation = Math.max(generation, segment.generation);
+			for (int i = 0; i < segment.lengthCount; i++) {
+				int offset = segment.lengthsOffset + 2 * Integer.BYTES * i;
+				int docId = segment.buffer.getInt(offset);
+				if (!tombstones.isDeleted(docId, segment.generation)) {
+					lengths = addLength(lengths, docId, segment.buffer.getInt(offset + Integer.BYTES));
+				}
+			}
+		}
+
+		try (Writer writer = new Writer(path, generation)) {
+			TermMerger merger = new TermMerger(segments);
+			while (merger.next()) {
+				if (merger.matchCount() == 1 && !tombstones.affects(merger.segment(0).generation)) {
+					writer.addTerm(merger.term(), merger.segment(0).blocksAt(merger.termIndex(0)));
+					continue;
+				}
+				PostingCursor[] cursors = new PostingCursor[merger.matchCount()];
+				for (int j = 0; j < cursors.length; j++) {
+					IndexSegment segment = merger.segment(j);
+					cursors[j] = tombstones.filter(new PostingList(segment.blocksAt(merger.termIndex(j))).cursor(), segment.generation);
+				}
+				// O número de identificadores distintos só é usado pelas pesquisas, não é preciso para gravar
+				PostingBlock[] blocks = encode((cursors.length == 1) ? cursors[0] : new MergedCursor(cursors, 0));
+				if (blocks.length > 0) {
+					writer.addTerm(merger.term(), blocks);
+				}
+			}
+			writer.finish(lengths);
+		}
+		return open(id, path);
+	}
+
+	/**
+	 * Método para comprimir em blocos todos os identificadores de um cursor
+	 * @param cursor cursor posicionado antes do primeiro identificador
+	 * @return blocos ordenados
+	 */
+	private static PostingBlock[] encode(PostingCursor cursor) {
+		List<PostingBlock> blocks = new ArrayList<>();
+		int[] docs = new int[PostingList.BLOCK_SIZE];
+		int[] freqs = new int[PostingList.BLOCK_SIZE];
+		int[][] positions = new int[PostingList.BLOCK_SIZE][];
+		int n = 0;
+		for (int doc = cursor.nextDoc(); doc != PostingList.NO_MORE_DOCS; doc = cursor.nextDoc()) {
+			docs[n] = doc;
+			freqs[n] = cursor.freq();
+			positions[n] = cursor.positions();
+			if (++n == PostingList.BLOCK_SIZE) {
+				blocks.add(PostingBlock.encode(docs, freqs, positions, 0, n));
+				n = 0;
+			}
+		}
+		if (n > 0) {
+			blocks.add(PostingBlock.encode(docs, freqs, positions, 0, n));
+		}
+		return blocks.toArray(new PostingBlock[0]);
+	}
+
+	/**
+	 * Método para somar um valor ao comprimento de um URL, aumentando o array se for preciso
+	 * @param lengths comprimentos indexados pelo identificador do URL
+	 * @param docId identificador do URL
+	 * @param length valor a somar
+	 * @return array com o comprimento atualizado
+	 */
+	private static int[] addLength(int[] lengths, int docId, int length) {
+		if (docId >= lengths.length) {
+			lengths = Arrays.copyOf(lengths, Math.max(docId + 1, lengths.length * 2));
+		}
+		lengths[docId] += length;
+		return lengths;
+	}
+
+	/**
+	 * Método que devolve o número do segmento
+	 * @return número do segmento
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Método que devolve a geração do segmento
+	 * @return geração
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Método que devolve o ficheiro do segmento
+	 * @return caminho do ficheiro
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Método que devolve o tamanho do ficheiro do segmento
+	 * @return tamanho em bytes
+	 */
+	public long sizeInBytes() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Método que devolve o número de palavras do segmento
+	 * @return número de palavras
+	 */
+	public int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Método que devolve a posting list de uma palavra, lida diretamente do ficheiro mapeado
+	 * @param term palavra em UTF-8
+	 * @return posting list ou null se a palavra não existir no segmento
+	 */
+	public PostingList postings(byte[] term) {
+		int i = find(term);
+		return (i >= 0) ? new PostingList(blocksAt(i)) : null;
+	}
+
+	/**
+	 * Método que verifica se uma palavra existe no segmento
+	 * @param term palavra em UTF-8
+	 * @return true se a palavra existir
+	 */
+	public boolean contains(byte[] term) {
+		return find(term) >= 0;
+	}
+
+	/**
+	 * Método para somar os comprimentos do segmento aos comprimentos dos URLs, exceto os dos URLs apagados
+	 * @param documentStats comprimentos dos URLs
+	 * @param tombstones URLs apagados
+	 */
+	public void addLengthsTo(DocumentStats documentStats, Tombstones tombstones) {
+		for (int i = 0; i < lengthCount; i++) {
+			int offset = lengthsOffset + 2 * Integer.BYTES * i;
+			int docId = buffer.getInt(offset);
+			if (!tombstones.isDeleted(docId, generation)) {
+				documentStats.addLength(docId, buffer.getInt(offset + Integer.BYTES));
+			}
+		}
+	}
+
+	/**
+	 * Método que devolve o número de URLs com ocorrências no segmento
+	 * @return número de URLs
+	 */
+	public int documentCount() {
+		return lengthCount;
+	}
+
+	/**
+	 * Método que conta os URLs do segmento cujas ocorrências foram apagadas
+	 * @param tombstones URLs apagados
+	 * @return número de URLs apagados
+	 */
+	public int deadDocuments(Tombstones tombstones) {
+		int dead = 0;
+		for (int i = 0; i < lengthCount; i++) {
+			if (tombstones.isDeleted(buffer.getInt(lengthsOffset + 2 * Integer.BYTES * i), generation)) {
+				dead++;
+			}
+		}
+		return dead;
+	}
+
+	/**
+	 * Método que devolve uma palavra do segmento
+	 * @param i posição da palavra, por ordem crescente
+	 * @return palavra em UTF-8
+	 */
+	byte[] termAt(int i) {
+		int offset = buffer.getInt(tableOffset + Integer.BYTES * i);
+		byte[] term = new byte[buffer.getInt(offset)];
+		buffer.get(offset + Integer.BYTES, term);
+		return term;
+	}
+
+	/**
+	 * Método que devolve os blocos de uma palavra do segmento, sem copiar os dados comprimidos
+	 * @param i posição da palavra, por ordem crescente
+	 * @return blocos ordenados
+	 */
+	PostingBlock[] blocksAt(int i) {
+		ByteBuffer local = buffer.duplicate();
+		int offset = buffer.getInt(tableOffset + Integer.BYTES * i);
+		local.position(offset + Integer.BYTES + buffer.getInt(offset));
+		PostingBlock[] blocks = new PostingBlock[local.getInt()];
+		for (int b = 0; b < blocks.length; b++) {
+			blocks[b] = PostingBlock.view(local);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Método que procura uma palavra na tabela ordenada do segmento
+	 * @param term palavra em UTF-8
+	 * @return posição da palavra ou -(ponto de inserção + 1) se não existir
+	 */
+	int find(byte[] term) {
+		int low = 0;
+		int high = termCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = compareTerm(buffer.getInt(tableOffset + Integer.BYTES * mid), term);
+			if (comparison < 0) {
+				low = mid + 1;
+			} else if (comparison > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Método que compara, byte a byte e sem sinal, uma palavra do ficheiro com outra
+	 * @param offset posição da palavra no ficheiro
+	 * @param term palavra em UTF-8
+	 * @return negativo, zero ou positivo se a palavra do ficheiro for menor, igual ou maior
+	 */
+	private int compareTerm(int offset, byte[] term) {
+		int length = buffer.getInt(offset);
+		int common = Math.min(length, term.length);
+		for (int i = 0; i < common; i++) {
+			int comparison = Byte.compareUnsigned(buffer.get(offset + Integer.BYTES + i), term[i]);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(length, term.length);
+	}
+
+	/**
+	 * Classe interna que percorre, por ordem crescente e sem repetições, as palavras de vários segmentos
+	 */
+	static final class TermMerger {
+
+		/**
+		 * Palavra seguinte de cada segmento, ordenadas pela palavra e depois pela posição do segmento
+		 */
+		private final PriorityQueue<int[]> heads;
+
+		/**
+		 * Segmentos percorridos
+		 */
+		private final List<IndexSegment> segments;
+
+		/**
+		 * Palavra seguinte de cada segmento, em UTF-8
+		 */
+		private final byte[][] current;
+
+		/**
+		 * Palavra atual
+		 */
+		private byte[] term;
+
+		/**
+		 * Posição (segmento, palavra) de cada ocorrência da palavra atual
+		 */
+		private final List<int[]> matches = new ArrayList<>();
+
+		/**
+		 * Construtor da classe
+		 * @param segments segmentos a percorrer
+		 */
+		TermMerger(List<IndexSegment> segments) {
+			this.segments = segments;
+			this.current = new byte[segments.size()][];
+			this.heads = new PriorityQueue<>(Math.max(1, segments.size()), (first, second) -> {
+				int comparison = Arrays.compareUnsigned(current[first[0]], current[second[0]]);
+				return (comparison != 0) ? comparison : Integer.compare(first[0], second[0]);
+			});
+			for (int s = 0; s < segments.size(); s++) {
+				push(s, 0);
+			}
+		}
+
+		/**
+		 * Método para acrescentar à fila a palavra seguinte de um segmento
+		 * @param s posição do segmento
+		 * @param i posição da palavra no segmento
+		 */
+		private void push(int s, int i) {
+			if (i < segments.get(s).termCount) {
+				current[s] = segments.get(s).termAt(i);
+				heads.add(new int[] { s, i });
+			}
+		}
+
+		/**
+		 * Método que avança para a palavra seguinte
+		 * @return false se já não existirem palavras
+		 */
+		boolean next() {
+			for (int[] match : matches) {
+				push(match[0], match[1] + 1);
+			}
+			matches.clear();
+			if (heads.isEmpty()) {
+				return false;
+			}
+			int[] first = heads.poll();
+			term = current[first[0]];
+			matches.add(first);
+			while (!heads.isEmpty() && Arrays.equals(current[heads.peek()[0]], term)) {
+				matches.add(heads.poll());
+			}
+			return true;
+		}
+
+		/**
+		 * Método que devolve a palavra atual
+		 * @return palavra em UTF-8
+		 */
+		byte[] term() {
+			return term;
+		}
+
+		/**
+		 * Método que devolve o número de segmentos que contêm a palavra atual
+		 * @return número de segmentos
+		 */
+		int matchCount() {
+			return matches.size();
+		}
+
+		/**
+		 * Método que devolve um dos segmentos que contêm a palavra atual
+		 * @param j posição entre os segmentos que contêm a palavra
+		 * @return segmento
+		 */
+		IndexSegment segment(int j) {
+			return segments.get(matches.get(j)[0]);
+		}
+
+		/**
+		 * Método que devolve a posição da palavra atual num dos segmentos que a contêm
+		 * @param j posição entre os segmentos que contêm a palavra
+		 * @return posição da palavra no segmento
+		 */
+		int termIndex(int j) {
+			return matches.get(j)[1];
+		}
+	}
+
+	/**
+	 * Classe interna que grava um segmento, palavra a palavra e por ordem, num ficheiro
+	 * temporário que só substitui o definitivo depois de estar completo e no disco
+	 */
+	private static final class Writer implements Closeable {
+
+		/**
+		 * Ficheiro definitivo
+		 */
+		private final Path path;
+
+		/**
+		 * Ficheiro temporário
+		 */
+		private final Path temp;
+
+		/**
+		 * Ficheiro temporário aberto
+		 */
+		private final FileOutputStream file;
+
+		/**
+		 * Destino dos dados
+		 */
+		private final DataOutputStream out;
+
+		/**
+		 * Posição de cada palavra gravada
+		 */
+		private int[] offsets = new int[1024];
+
+		/**
+		 * Número de palavras gravadas
+		 */
+		private int termCount = 0;
+
+		/**
+		 * Indica se o segmento foi concluído
+		 */
+		private boolean finished = false;
+
+		/**
+		 * Construtor da classe
+		 * @param path ficheiro definitivo
+		 * @param generation geração do segmento
+		 * @throws IOException se o ficheiro temporário não puder ser criado
+		 */
+		Writer(Path path, int generation) throws IOException {
+			this.path = path;
+			this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+			this.file = new FileOutputStream(temp.toFile());
+			this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(generation);
+		}
+
+		/**
+		 * Método para gravar uma palavra e os blocos da sua posting list
+		 * @param term palavra em UTF-8, maior que a anterior
+		 * @param blocks blocos ordenados
+		 * @throws IOException se ocorrer um erro de escrita ou o segmento ficar demasiado grande
+		 */
+		void addTerm(byte[] term, PostingBlock[] blocks) throws IOException {
+			checkSize();
+			if (termCount == offsets.length) {
+				offsets = Arrays.copyOf(offsets, termCount * 2);
+			}
+			offsets[termCount++] = out.size();
+			out.writeInt(term.length);
+			out.write(term);
+			out.writeInt(blocks.length);
+			for (PostingBlock block : blocks) {
+				block.writeTo(out);
+			}
+		}
+
+		/**
+		 * Método para gravar as tabelas finais e substituir o ficheiro definitivo
+		 * @param lengths comprimentos indexados pelo identificador do URL
+		 * @throws IOException se ocorrer um erro de escrita
+		 */
+		void finish(int[] lengths) throws IOException {
+			checkSize();
+			int lengthsOffset = out.size();
+			int lengthCount = 0;
+			for (int docId = 0; docId < lengths.length; docId++) {
+				if (lengths[docId] != 0) {
+					out.writeInt(docId);
+					out.writeInt(lengths[docId]);
+					lengthCount++;
+				}
+			}
+			checkSize();
+			int tableOffset = out.size();
+			for (int i = 0; i < termCount; i++) {
+				out.writeInt(offsets[i]);
+			}
+			out.writeInt(termCount);
+			out.writeInt(lengthCount);
+			out.writeInt(lengthsOffset);
+			out.writeInt(tableOffset);
+			checkSize();
+			out.flush();
+			// O segmento tem de estar no disco antes de um checkpoint o referir e o registo ser apagado
+			file.getFD().sync();
+			out.close();
+			finished = true;
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			BarrelSnapshot.syncDirectory(path);
+		}
+
+		/**
+		 * Método que garante que o ficheiro continua a poder ser mapeado de uma só vez
+		 * @throws IOException se o ficheiro ultrapassar 2 GiB
+		 */
+		private void checkSize() throws IOException {
+			if (out.size() == Integer.MAX_VALUE) {
+				throw new IOException("Segmento " + path + " demasiado grande");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!finished) {
+				out.close();
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+}
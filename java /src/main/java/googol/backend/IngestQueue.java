@@ -0,0 +1,306 @@
+package googol.backend;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+/**
+ * Classe que representa a fila de ingestão de um Barrel: as páginas recebidas pelas
+ * threads RMI são apenas colocadas numa fila limitada em memória, e threads próprias
+ * (indexadores) retiram-nas em lotes e aplicam-nas ao índice. Assim, um checkpoint lento
+ * ou uma disputa de locks atrasa a fila e não as chamadas dos Downloaders. Cada indexador
+ * tem a sua fila e as páginas de um mesmo URL vão sempre para a mesma, pelo que são
+ * aplicadas pela ordem em que chegaram. Cada página é gravada no registo de escritas antes
+ * de ser aceite, pelo que uma página aceite e ainda na fila é recuperada depois de uma falha.
+ * Quando a fila está cheia a página é recusada, para o Downloader voltar a tentar mais
+ * tarde em vez de ficar bloqueado
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class IngestQueue {
+
+	/**
+	 * Interface do Barrel que regista e aplica as páginas da fila
+	 */
+	public interface Applier {
+
+		/**
+		 * Método chamado quando uma página é aceite, antes de entrar na fila, para a gravar no registo de escritas
+		 * @param document página aceite
+		 * @return número do registo da página
+		 */
+		long log(IndexDocument document);
+
+		/**
+		 * Método chamado por um indexador para aplicar um lote de páginas, pela ordem em que foram aceites.
+		 * Cada página é aplicada à parte, e uma página que falhe não impede as seguintes
+		 * @param documents páginas a aplicar
+		 * @param records números dos registos das páginas
+		 * @return número de páginas aplicadas, as restantes falharam
+		 */
+		int apply(List<IndexDocument> documents, long[] records);
+	}
+
+	/**
+	 * Classe que representa uma página à espera de ser aplicada
+	 */
+	private static final class Pending {
+
+		/**
+		 * Página recebida
+		 */
+		private final IndexDocument document;
+
+		/**
+		 * Número do registo da página no registo de escritas
+		 */
+		private final long record;
+
+		/**
+		 * Instante (System.nanoTime) em que a página entrou na fila
+		 */
+		private final long enqueuedAt;
+
+		/**
+		 * Construtor da classe
+		 * @param document página recebida
+		 * @param record número do registo da página
+		 */
+		private Pending(IndexDocument document, long record) {
+			this.document = document;
+			this.record = record;
+			this.enqueuedAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Fila de cada indexador
+	 */
+	private final List<BlockingQueue<Pending>> queues = new ArrayList<>();
+
+	/**
+	 * Threads que aplicam as páginas, uma por fila
+	 */
+	private final List<Thread> indexers = new ArrayList<>();
+
+	/**
+	 * Número máximo de páginas na fila
+	 */
+	private final int capacity;
+
+	/**
+	 * Lugares livres na fila, partilhados pelos indexadores. Um lugar é reservado antes de a
+	 * página ser gravada no registo, para uma página recusada nunca ficar no registo
+	 */
+	private final Semaphore space;
+
+	/**
+	 * Número máximo de páginas aplicadas de uma só vez
+	 */
+	private final int batchSize;
+
+	/**
+	 * Barrel que regista e aplica as páginas
+	 */
+	private final Applier applier;
+
+	/**
+	 * Número de páginas aceites e ainda não aplicadas (na fila ou a ser aplicadas)
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * Número de páginas aplicadas
+	 */
+	private final AtomicLong applied = new AtomicLong();
+
+	/**
+	 * Número de páginas aceites que não puderam ser aplicadas
+	 */
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Número de lotes aplicados
+	 */
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * Número de páginas recusadas por a fila estar cheia
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Tempo, em milissegundos, que a página mais antiga do último lote esperou na fila
+	 */
+	private volatile long lastLagMillis = 0;
+
+	/**
+	 * Maior tempo de espera na fila, em milissegundos
+	 */
+	private final AtomicLong maxLagMillis = new AtomicLong();
+
+	/**
+	 * Indica se a fila deixou de aceitar páginas
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Construtor da classe, inicia os indexadores
+	 * @param name prefixo do nome das threads (por exemplo "barrel1")
+	 * @param capacity número máximo de páginas na fila, dividido pelos indexadores
+	 * @param threads número de indexadores
+	 * @param batchSize número máximo de páginas aplicadas de uma só vez
+	 * @param applier Barrel que regista as páginas e as aplica, chamado por um indexador de cada vez para cada URL
+	 */
+	public IngestQueue(String name, int capacity, int threads, int batchSize, Applier applier) {
+		threads = Math.max(1, threads);
+		this.capacity = Math.max(threads, capacity);
+		this.space = new Semaphore(this.capacity);
+		this.batchSize = Math.max(1, batchSize);
+		this.applier = applier;
+		for (int i = 0; i < threads; i++) {
+			// O tamanho da fila é limitado pelos lugares livres
+			BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+			queues.add(queue);
+			Thread indexer = new Thread(() -> run(queue), name + "-indexer-" + (i + 1));
+			indexer.setDaemon(true);
+			indexers.add(indexer);
+			indexer.start();
+		}
+	}
+
+	/**
+	 * Método para colocar uma página na fila, esperando no máximo um dado tempo por espaço livre.
+	 * A página só é aceite depois de gravada no registo de escritas
+	 * @param document página recebida
+	 * @param timeoutMillis tempo máximo de espera, em milissegundos
+	 * @return true se a página foi aceite, false se a fila está cheia ou fechada ou o registo falhou
+	 */
+	public boolean offer(IndexDocument document, long timeoutMillis) {
+		if (closed) {
+			return false;
+		}
+		try {
+			if (!space.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				rejected.incrementAndGet();
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rejected.incrementAndGet();
+			return false;
+		}
+		BlockingQueue<Pending> queue = queues.get(Math.floorMod(document.getUrl().hashCode(), queues.size()));
+		pending.incrementAndGet();
+		try {
+			// As páginas de um URL ficam no registo pela mesma ordem em que entram na fila
+			synchronized (queue) {
+				queue.add(new Pending(document, applier.log(document)));
+			}
+			return true;
+		} catch (RuntimeException e) {
+			System.err.println("Erro ao registar a página " + document.getUrl() + ": " + e.getMessage());
+			pending.decrementAndGet();
+			space.release();
+			rejected.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Método que deixa de aceitar páginas, espera que as já aceites sejam aplicadas e termina os indexadores
+	 * @param timeoutMillis tempo máximo de espera, em milissegundos
+	 * @return true se todas as páginas aceites foram aplicadas, false se alguma ficou na fila ou falhou
+	 * @throws InterruptedException se a espera for interrompida
+	 */
+	public boolean close(long timeoutMillis) throws InterruptedException {
+		closed = true;
+		long failedBefore = failed.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		boolean drained = pending.get() == 0 && failed.get() == failedBefore;
+		for (Thread indexer : indexers) {
+			indexer.interrupt();
+		}
+		return drained;
+	}
+
+	/**
+	 * Método que devolve o número de páginas aceites e ainda não aplicadas
+	 * @return número de páginas
+	 */
+	public int depth() {
+		return pending.get();
+	}
+
+	/**
+	 * Método que devolve há quanto tempo espera a página mais antiga da fila
+	 * @return tempo de espera em milissegundos, 0 se a fila estiver vazia
+	 */
+	public long lagMillis() {
+		long oldest = Long.MAX_VALUE;
+		for (BlockingQueue<Pending> queue : queues) {
+			Pending head = queue.peek();
+			if (head != null) {
+				oldest = Math.min(oldest, head.enqueuedAt);
+			}
+		}
+		return (oldest == Long.MAX_VALUE) ? 0 : (System.nanoTime() - oldest) / 1_000_000;
+	}
+
+	/**
+	 * Método que devolve o resumo da fila, apresentado nas estatísticas
+	 * @return ocupação, atrasos, páginas aplicadas, falhadas e recusadas
+	 */
+	@Override
+	public String toString() {
+		return String.format("fila de ingestão com %d/%d páginas, atraso atual %d ms (último lote %d ms, máximo %d ms), %d páginas aplicadas em %d lotes, %d falhadas, %d recusadas",
+				depth(), capacity, lagMillis(), lastLagMillis, maxLagMillis.get(), applied.get(), batches.get(), failed.get(), rejected.get());
+	}
+
+	/**
+	 * Método executado por cada indexador: espera pela primeira página, junta-lhe as que
+	 * já estão na fila (até ao tamanho do lote) e aplica-as com uma só chamada ao Barrel.
+	 * Só as páginas que o Barrel aplicou contam como aplicadas
+	 * @param queue fila do indexador
+	 */
+	private void run(BlockingQueue<Pending> queue) {
+		List<Pending> batch = new ArrayList<>(batchSize);
+		List<IndexDocument> documents = new ArrayList<>(batchSize);
+		while (true) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, batchSize - 1);
+			long[] records = new long[batch.size()];
+			for (int i = 0; i < records.length; i++) {
+				documents.add(batch.get(i).document);
+				records[i] = batch.get(i).record;
+			}
+			long lag = (System.nanoTime() - batch.get(0).enqueuedAt) / 1_000_000;
+			int done = 0;
+			try {
+				done = applier.apply(documents, records);
+			} catch (RuntimeException e) {
+				// Uma exceção terminaria o indexador e a fila deixaria de andar
+				System.err.println("Erro ao aplicar " + documents.size() + " páginas: " + e.getMessage());
+			} finally {
+				lastLagMillis = lag;
+				maxLagMillis.accumulateAndGet(lag, Math::max);
+				applied.addAndGet(done);
+				failed.addAndGet(documents.size() - done);
+				batches.incrementAndGet();
+				pending.addAndGet(-documents.size());
+				space.release(documents.size());
+				batch.clear();
+				documents.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,664 @@
+package googol.backend;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Classe que representa o grafo dos links conhecidos por um Barrel, entre identificadores
+ * de URLs. A maior parte dos links está em dois vetores compactos (formato CSR), um por
+ * sentido: para cada URL, as origens dos links que chegam a ele e os destinos dos links
+ * que partem dele ficam seguidos e ordenados, pelo que cada link ocupa 8 bytes e percorrer
+ * o grafo inteiro não segue referências. Os vetores compactos são imutáveis; os links novos
+ * entram numa pequena tabela de alterações, que é junta aos vetores (criando vetores novos)
+ * quando cresce ou antes de uma análise ao grafo inteiro, como o cálculo do PageRank.
+ * Os links retirados (de páginas que mudaram ou foram apagadas) ficam marcados na mesma tabela
+ * e só saem dos vetores na junção seguinte. Durante a junção, a tabela que está a ser junta
+ * fica congelada e as alterações novas entram numa tabela nova, que se aplica por cima dos
+ * vetores e da tabela congelada. As consultas leem uma fotografia das três partes sem usar
+ * locks; só a inserção e a remoção de links são sincronizadas
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class LinkGraph {
+
+	/**
+	 * Classe que representa um sentido do grafo em formato CSR, imutável
+	 */
+	public static final class Csr {
+
+		/**
+		 * Grafo sem links
+		 */
+		static final Csr EMPTY = new Csr(new int[] { 0 }, new int[0]);
+
+		/**
+		 * Início dos vizinhos de cada URL em edges (com uma posição extra para o fim do último)
+		 */
+		final int[] offsets;
+
+		/**
+		 * Vizinhos de todos os URLs, seguidos e ordenados dentro de cada URL
+		 */
+		final int[] edges;
+
+		/**
+		 * Construtor da classe
+		 * @param offsets início dos vizinhos de cada URL
+		 * @param edges vizinhos de todos os URLs
+		 */
+		private Csr(int[] offsets, int[] edges) {
+			this.offsets = offsets;
+			this.edges = edges;
+		}
+
+		/**
+		 * Método que devolve o número de URLs com posição nos vetores
+		 * @return número de URLs
+		 */
+		public int nodes() {
+			return offsets.length - 1;
+		}
+
+		/**
+		 * Método que devolve o número de vizinhos de um URL
+		 * @param node identificador do URL
+		 * @return número de vizinhos
+		 */
+		public int degree(int node) {
+			return (node < nodes()) ? offsets[node + 1] - offsets[node] : 0;
+		}
+
+		/**
+		 * Método que indica se um URL é vizinho de outro
+		 * @param node identificador do URL
+		 * @param other identificador do possível vizinho
+		 * @return true se existir o link
+		 */
+		boolean contains(int node, int other) {
+			return node < nodes() && Arrays.binarySearch(edges, offsets[node], offsets[node + 1], other) >= 0;
+		}
+	}
+
+	/**
+	 * Classe que representa os links acrescentados e retirados desde a última junção, agrupados pelo destino.
+	 * Não existe uma tabela para o outro sentido, para que as inserções não criem um conjunto por
+	 * origem: os destinos de uma origem são procurados percorrendo a tabela, que é pequena
+	 */
+	private static final class Delta {
+
+		/**
+		 * Origens dos links novos que chegam a cada URL
+		 */
+		private final Map<Integer, Set<Integer>> in = new ConcurrentHashMap<>();
+
+		/**
+		 * Número de links da tabela
+		 */
+		private volatile int size = 0;
+
+		/**
+		 * Origens dos links retirados das partes anteriores do grafo que chegavam a cada URL
+		 */
+		private final Map<Integer, Set<Integer>> removedIn = new ConcurrentHashMap<>();
+
+		/**
+		 * Número de links retirados
+		 */
+		private volatile int removedSize = 0;
+
+		/**
+		 * Método que indica se a tabela contém um link
+		 * @param source identificador da origem
+		 * @param target identificador do destino
+		 * @return true se o link estiver na tabela
+		 */
+		private boolean contains(int source, int target) {
+			Set<Integer> sources = in.get(target);
+			return sources != null && sources.contains(source);
+		}
+
+		/**
+		 * Método que indica se a tabela marca um link como retirado
+		 * @param source identificador da origem
+		 * @param target identificador do destino
+		 * @return true se o link foi retirado
+		 */
+		private boolean isRemoved(int source, int target) {
+			Set<Integer> sources = removedIn.get(target);
+			return sources != null && sources.contains(source);
+		}
+
+		/**
+		 * Método que indica se a tabela não tem alterações
+		 * @return true se não tiver links acrescentados nem retirados
+		 */
+		private boolean isEmpty() {
+			return size == 0 && removedSize == 0;
+		}
+	}
+
+	/**
+	 * Classe que representa uma fotografia das partes do grafo
+	 */
+	private static final class State {
+
+		/**
+		 * Origens dos links que chegam a cada URL
+		 */
+		private final Csr reverse;
+
+		/**
+		 * Destinos dos links que partem de cada URL
+		 */
+		private final Csr forward;
+
+		/**
+		 * Links a ser juntos aos vetores, ou null se nenhuma junção estiver a decorrer
+		 */
+		private final Delta frozen;
+
+		/**
+		 * Links acrescentados desde o início da última junção
+		 */
+		private final Delta active;
+
+		/**
+		 * Construtor da classe
+		 * @param reverse origens dos links que chegam a cada URL
+		 * @param forward destinos dos links que partem de cada URL
+		 * @param frozen links a ser juntos, ou null
+		 * @param active links acrescentados desde o início da última junção
+		 */
+		private State(Csr reverse, Csr forward, Delta frozen, Delta active) {
+			this.reverse = reverse;
+			this.forward = forward;
+			this.frozen = frozen;
+			this.active = active;
+		}
+	}
+
+	/**
+	 * Partes atuais do grafo
+	 */
+	private volatile State state = new State(Csr.EMPTY, Csr.EMPTY, null, new Delta());
+
+	/**
+	 * Lock que garante que só uma junção decorre de cada vez
+	 */
+	private final Object mergeLock = new Object();
+
+	/**
+	 * Método para acrescentar um link
+	 * @param source identificador da origem
+	 * @param target identificador do destino
+	 * @return true se o link ainda não existia
+	 */
+	public synchronized boolean add(int source, int target) {
+		State current = state;
+		if (current.active.contains(source, target) || (!current.active.isRemoved(source, target) && inFrozen(current, source, target))) {
+			return false;
+		}
+		Delta active = current.active;
+		Set<Integer> removed = active.removedIn.get(target);
+		if (removed != null && removed.remove(source)) {
+			// O link continua nas partes anteriores, basta retirar a marca
+			active.removedSize--;
+			return true;
+		}
+		active.in.computeIfAbsent(target, key -> ConcurrentHashMap.newKeySet()).add(source);
+		active.size++;
+		return true;
+	}
+
+	/**
+	 * Método para retirar um link
+	 * @param source identificador da origem
+	 * @param target identificador do destino
+	 * @return true se o link existia
+	 */
+	public synchronized boolean remove(int source, int target) {
+		State current = state;
+		Delta active = current.active;
+		Set<Integer> sources = active.in.get(target);
+		if (sources != null && sources.remove(source)) {
+			active.size--;
+			return true;
+		}
+		if (active.isRemoved(source, target) || !inFrozen(current, source, target)) {
+			return false;
+		}
+		// Os vetores compactos são imutáveis, o link fica marcado até à próxima junção
+		active.removedIn.computeIfAbsent(target, key -> ConcurrentHashMap.newKeySet()).add(source);
+		active.removedSize++;
+		return true;
+	}
+
+	/**
+	 * Método que indica se um link existe nos vetores compactos ou na tabela congelada
+	 * @param current fotografia das partes do grafo
+	 * @param source identificador da origem
+	 * @param target identificador do destino
+	 * @return true se o link existir nas partes anteriores à tabela atual
+	 */
+	private static boolean inFrozen(State current, int source, int target) {
+		if (current.frozen == null) {
+			return current.reverse.contains(target, source);
+		}
+		return current.frozen.contains(source, target)
+				|| (current.reverse.contains(target, source) && !current.frozen.isRemoved(source, target));
+	}
+
+	/**
+	 * Método para acrescentar muitos links de uma vez, diretamente aos vetores compactos
+	 * (usado ao carregar os checkpoints). Os links que já existem são ignorados
+	 * @param targets identificadores dos destinos, sem repetições
+	 * @param sources origens dos links que chegam a cada destino
+	 */
+	public void addAll(int[] targets, int[][] sources) {
+		if (targets.length == 0) {
+			return;
+		}
+		int count = 0;
+		for (int[] row : sources) {
+			count += row.length;
+		}
+		int[] rows = new int[count];
+		int[] columns = new int[count];
+		int i = 0;
+		for (int t = 0; t < targets.length; t++) {
+			for (int source : sources[t]) {
+				rows[i] = targets[t];
+				columns[i++] = source;
+			}
+		}
+
+		synchronized (mergeLock) {
+			State current;
+			synchronized (this) {
+				current = state;
+			}
+			Csr reverse = union(current.reverse, rows, columns);
+			Csr forward = union(current.forward, columns, rows);
+			synchronized (this) {
+				// Os links da tabela de alterações que passaram a estar nos vetores saem da tabela,
+				// e os links acrescentados deixam de estar marcados como retirados
+				State latest = state;
+				removeMerged(latest.active, reverse);
+				for (int p = 0; p < rows.length; p++) {
+					Set<Integer> removed = latest.active.removedIn.get(rows[p]);
+					if (removed != null && removed.remove(columns[p])) {
+						latest.active.removedSize--;
+					}
+				}
+				state = new State(reverse, forward, null, latest.active);
+			}
+		}
+	}
+
+	/**
+	 * Método que junta aos vetores compactos os links acrescentados desde a última junção.
+	 * As inserções continuam durante a junção, numa tabela nova
+	 */
+	public void merge() {
+		synchronized (mergeLock) {
+			State frozen;
+			synchronized (this) {
+				State current = state;
+				if (current.active.isEmpty()) {
+					return;
+				}
+				frozen = new State(current.reverse, current.forward, current.active, new Delta());
+				state = frozen;
+			}
+			// Os dois sentidos recebem os mesmos pares (destino, origem), com os papéis trocados;
+			// os links retirados saem primeiro, porque um link retirado e depois acrescentado está nos dois
+			int[][] pairs = pairs(frozen.frozen.in);
+			int[][] removed = pairs(frozen.frozen.removedIn);
+			Csr reverse = union(minus(frozen.reverse, removed[0], removed[1]), pairs[0], pairs[1]);
+			Csr forward = union(minus(frozen.forward, removed[1], removed[0]), pairs[1], pairs[0]);
+			synchronized (this) {
+				state = new State(reverse, forward, null, state.active);
+			}
+		}
+	}
+
+	/**
+	 * Método que devolve as origens dos links que chegam a um URL
+	 * @param target identificador do destino
+	 * @return identificadores das origens, por ordem crescente
+	 */
+	public int[] sources(int target) {
+		State current = state;
+		Set<Integer> frozen = (current.frozen != null) ? current.frozen.in.get(target) : null;
+		Set<Integer> frozenRemoved = (current.frozen != null) ? current.frozen.removedIn.get(target) : null;
+		return neighbours(current.reverse, target, frozenRemoved, frozen, current.active.removedIn.get(target), current.active.in.get(target));
+	}
+
+	/**
+	 * Método que devolve os destinos dos links que partem de um URL
+	 * @param source identificador da origem
+	 * @return identificadores dos destinos, por ordem crescente
+	 */
+	public int[] targets(int source) {
+		State current = state;
+		Map<Integer, Set<Integer>> frozenIn = (current.frozen != null) ? current.frozen.in : null;
+		Map<Integer, Set<Integer>> frozenRemoved = (current.frozen != null) ? current.frozen.removedIn : null;
+		return neighbours(current.forward, source, targetsOf(frozenRemoved, source), targetsOf(frozenIn, source),
+				targetsOf(current.active.removedIn, source), targetsOf(current.active.in, source));
+	}
+
+	/**
+	 * Método que devolve o número de links que chegam a um URL
+	 * @param target identificador do destino
+	 * @return número de links
+	 */
+	public int inDegree(int target) {
+		State current = state;
+		int degree = current.reverse.degree(target) + size(current.active.in.get(target)) - size(current.active.removedIn.get(target));
+		if (current.frozen != null) {
+			degree += size(current.frozen.in.get(target)) - size(current.frozen.removedIn.get(target));
+		}
+		return degree;
+	}
+
+	/**
+	 * Método que devolve um limite para os identificadores dos URLs com links
+	 * @return maior identificador com links + 1
+	 */
+	public int nodeCount() {
+		State current = state;
+		int nodes = current.reverse.nodes();
+		for (Delta delta : new Delta[] { current.frozen, current.active }) {
+			if (delta != null) {
+				for (Map.Entry<Integer, Set<Integer>> entry : delta.in.entrySet()) {
+					nodes = Math.max(nodes, entry.getKey() + 1);
+					for (int source : entry.getValue()) {
+						nodes = Math.max(nodes, source + 1);
+					}
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Método que devolve o número de links do grafo
+	 * @return número de links
+	 */
+	public long edgeCount() {
+		State current = state;
+		long count = current.reverse.edges.length + current.active.size - current.active.removedSize;
+		if (current.frozen != null) {
+			count += current.frozen.size - current.frozen.removedSize;
+		}
+		return count;
+	}
+
+	/**
+	 * Método que devolve o número de links acrescentados ou retirados ainda não juntos aos vetores compactos
+	 * @return número de alterações da tabela atual
+	 */
+	public int deltaSize() {
+		Delta active = state.active;
+		return active.size + active.removedSize;
+	}
+
+	/**
+	 * Método que devolve as origens dos links de cada URL nos vetores compactos, sem os links
+	 * acrescentados desde a última junção (para análises ao grafo inteiro, depois de {@link #merge()})
+	 * @return sentido inverso do grafo
+	 */
+	public Csr reverseCsr() {
+		return state.reverse;
+	}
+
+	/**
+	 * Método que junta os vizinhos de um URL nos vetores compactos e nas tabelas de alterações,
+	 * aplicando as marcas de cada tabela por cima das partes anteriores
+	 * @param csr vetores compactos
+	 * @param node identificador do URL
+	 * @param frozenRemoved vizinhos retirados na tabela a ser junta, ou null
+	 * @param frozenRow vizinhos na tabela a ser junta, ou null
+	 * @param activeRemoved vizinhos retirados na tabela atual, ou null
+	 * @param activeRow vizinhos na tabela atual, ou null
+	 * @return vizinhos ordenados
+	 */
+	private static int[] neighbours(Csr csr, int node, Set<Integer> frozenRemoved, Set<Integer> frozenRow, Set<Integer> activeRemoved, Set<Integer> activeRow) {
+		if (size(frozenRemoved) == 0 && size(activeRemoved) == 0) {
+			return neighbours(csr, node, frozenRow, activeRow);
+		}
+		TreeSet<Integer> row = new TreeSet<>();
+		for (int i = (node < csr.nodes()) ? csr.offsets[node] : 0, end = i + csr.degree(node); i < end; i++) {
+			row.add(csr.edges[i]);
+		}
+		if (frozenRemoved != null) {
+			row.removeAll(frozenRemoved);
+		}
+		if (frozenRow != null) {
+			row.addAll(frozenRow);
+		}
+		if (activeRemoved != null) {
+			row.removeAll(activeRemoved);
+		}
+		if (activeRow != null) {
+			row.addAll(activeRow);
+		}
+		return row.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Método que junta os vizinhos de um URL nos vetores compactos e nas tabelas de alterações sem links retirados
+	 * @param csr vetores compactos
+	 * @param node identificador do URL
+	 * @param frozenRow vizinhos na tabela a ser junta, ou null
+	 * @param activeRow vizinhos na tabela atual, ou null
+	 * @return vizinhos ordenados
+	 */
+	private static int[] neighbours(Csr csr, int node, Set<Integer> frozenRow, Set<Integer> activeRow) {
+		int degree = csr.degree(node);
+		int[] row = new int[degree + size(frozenRow) + size(activeRow)];
+		if (degree > 0) {
+			System.arraycopy(csr.edges, csr.offsets[node], row, 0, degree);
+		}
+		if (row.length == degree) {
+			return row;
+		}
+		// As tabelas podem receber links durante a cópia, que só entram se couberem
+		int length = degree;
+		for (Set<Integer> extra : Arrays.asList(frozenRow, activeRow)) {
+			if (extra != null) {
+				for (Iterator<Integer> iterator = extra.iterator(); iterator.hasNext() && length < row.length;) {
+					row[length++] = iterator.next();
+				}
+			}
+		}
+		row = Arrays.copyOf(row, length);
+		Arrays.sort(row);
+		return row;
+	}
+
+	/**
+	 * Método que procura numa tabela de alterações os destinos dos links que partem de um URL
+	 * @param rows origens dos links de cada destino na tabela, ou null
+	 * @param source identificador da origem
+	 * @return destinos encontrados, ou null se não existirem
+	 */
+	private static Set<Integer> targetsOf(Map<Integer, Set<Integer>> rows, int source) {
+		if (rows == null || rows.isEmpty()) {
+			return null;
+		}
+		Set<Integer> targets = null;
+		for (Map.Entry<Integer, Set<Integer>> entry : rows.entrySet()) {
+			if (entry.getValue().contains(source)) {
+				if (targets == null) {
+					targets = new HashSet<>();
+				}
+				targets.add(entry.getKey());
+			}
+		}
+		return targets;
+	}
+
+	/**
+	 * Método que devolve o tamanho de um conjunto que pode não existir
+	 * @param set conjunto ou null
+	 * @return número de elementos
+	 */
+	private static int size(Set<Integer> set) {
+		return (set != null) ? set.size() : 0;
+	}
+
+	/**
+	 * Método que converte uma tabela de alterações em pares (URL, vizinho)
+	 * @param rows vizinhos de cada URL
+	 * @return vetor com os URLs e vetor com os vizinhos, da mesma dimensão
+	 */
+	private static int[][] pairs(Map<Integer, Set<Integer>> rows) {
+		int[] nodes = new int[16];
+		int[] neighbours = new int[16];
+		int count = 0;
+		for (Map.Entry<Integer, Set<Integer>> entry : rows.entrySet()) {
+			for (int neighbour : entry.getValue()) {
+				if (count == nodes.length) {
+					nodes = Arrays.copyOf(nodes, count * 2);
+					neighbours = Arrays.copyOf(neighbours, count * 2);
+				}
+				nodes[count] = entry.getKey();
+				neighbours[count++] = neighbour;
+			}
+		}
+		return new int[][] { Arrays.copyOf(nodes, count), Arrays.copyOf(neighbours, count) };
+	}
+
+	/**
+	 * Método que cria os vetores compactos com os links de outros vetores e mais alguns pares.
+	 * Os pares são agrupados por URL (ordenação por contagem), e os vizinhos de cada URL são
+	 * juntos aos que já existiam por ordem e sem repetições, em paralelo para URLs diferentes.
+	 * Se existirem repetições, os vetores são compactados no fim
+	 * @param base vetores compactos atuais
+	 * @param rows URL de cada par
+	 * @param columns vizinho de cada par
+	 * @return novos vetores compactos
+	 */
+	private static Csr union(Csr base, int[] rows, int[] columns) {
+		int nodes = base.nodes();
+		for (int row : rows) {
+			nodes = Math.max(nodes, row + 1);
+		}
+		int[] addedOffsets = new int[nodes + 1];
+		for (int row : rows) {
+			addedOffsets[row + 1]++;
+		}
+		for (int node = 0; node < nodes; node++) {
+			addedOffsets[node + 1] += addedOffsets[node];
+		}
+		int[] added = new int[rows.length];
+		int[] next = Arrays.copyOf(addedOffsets, nodes);
+		for (int i = 0; i < rows.length; i++) {
+			added[next[rows[i]]++] = columns[i];
+		}
+
+		// Cada URL tem espaço para todos os vizinhos antigos e novos, as tarefas nunca escrevem na mesma posição
+		int[] bounds = new int[nodes + 1];
+		for (int node = 0; node < nodes; node++) {
+			bounds[node + 1] = bounds[node] + base.degree(node) + addedOffsets[node + 1] - addedOffsets[node];
+		}
+		int[] edges = new int[bounds[nodes]];
+		int[] lengths = new int[nodes];
+		RangeTask.run(0, nodes, 4096, (from, to) -> {
+			for (int node = from; node < to; node++) {
+				int a = addedOffsets[node];
+				int addedEnd = addedOffsets[node + 1];
+				int b = (node < base.nodes()) ? base.offsets[node] : 0;
+				int baseEnd = b + base.degree(node);
+				int out = bounds[node];
+				if (a == addedEnd) {
+					System.arraycopy(base.edges, b, edges, out, baseEnd - b);
+					lengths[node] = baseEnd - b;
+					continue;
+				}
+				Arrays.sort(added, a, addedEnd);
+				while (a < addedEnd || b < baseEnd) {
+					int value = (b == baseEnd || (a < addedEnd && added[a] < base.edges[b])) ? added[a++] : base.edges[b++];
+					if (out == bounds[node] || edges[out - 1] != value) {
+						edges[out++] = value;
+					}
+				}
+				lengths[node] = out - bounds[node];
+			}
+		});
+
+		int[] offsets = new int[nodes + 1];
+		for (int node = 0; node < nodes; node++) {
+			offsets[node + 1] = offsets[node] + lengths[node];
+		}
+		if (offsets[nodes] == edges.length) {
+			return new Csr(offsets, edges);
+		}
+		int[] compact = new int[offsets[nodes]];
+		RangeTask.run(0, nodes, 4096, (from, to) -> {
+			for (int node = from; node < to; node++) {
+				System.arraycopy(edges, bounds[node], compact, offsets[node], lengths[node]);
+			}
+		});
+		return new Csr(offsets, compact);
+	}
+
+	/**
+	 * Método que cria os vetores compactos sem alguns pares
+	 * @param base vetores compactos atuais
+	 * @param rows URL de cada par a retirar
+	 * @param columns vizinho de cada par a retirar
+	 * @return novos vetores compactos, ou os atuais se não houver pares
+	 */
+	private static Csr minus(Csr base, int[] rows, int[] columns) {
+		if (rows.length == 0) {
+			return base;
+		}
+		Map<Integer, Set<Integer>> removed = new HashMap<>();
+		for (int i = 0; i < rows.length; i++) {
+			removed.computeIfAbsent(rows[i], key -> new HashSet<>()).add(columns[i]);
+		}
+		int nodes = base.nodes();
+		int[] offsets = new int[nodes + 1];
+		int[] edges = new int[base.edges.length];
+		int out = 0;
+		for (int node = 0; node < nodes; node++) {
+			Set<Integer> row = removed.get(node);
+			int start = base.offsets[node];
+			int end = base.offsets[node + 1];
+			if (row == null) {
+				System.arraycopy(base.edges, start, edges, out, end - start);
+				out += end - start;
+			} else {
+				for (int e = start; e < end; e++) {
+					if (!row.contains(base.edges[e])) {
+						edges[out++] = base.edges[e];
+					}
+				}
+			}
+			offsets[node + 1] = out;
+		}
+		return new Csr(offsets, Arrays.copyOf(edges, out));
+	}
+
+	/**
+	 * Método que retira de uma tabela de alterações os links que já estão nos vetores compactos
+	 * @param delta tabela de alterações
+	 * @param reverse origens dos links que chegam a cada URL nos vetores compactos
+	 */
+	private static void removeMerged(Delta delta, Csr reverse) {
+		for (Map.Entry<Integer, Set<Integer>> entry : delta.in.entrySet()) {
+			int target = entry.getKey();
+			for (Iterator<Integer> iterator = entry.getValue().iterator(); iterator.hasNext();) {
+				int source = iterator.next();
+				if (reverse.contains(target, source)) {
+					iterator.remove();
+					delta.size--;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package googol.backend;
+
+import java.util.*;
+
+
+/**
+ * Classe que percorre, como se fossem uma só, as posting lists de uma palavra em
+ * vários segmentos do índice. Um URL pode ter ocorrências em mais do que um segmento
+ * (quando as suas palavras chegam antes e depois de uma gravação da memória): as
+ * posições são juntas e a frequência é a soma das ocorrências distintas. O número de URLs
+ * que contêm a palavra é dado por quem cria o cursor, sem percorrer as listas: o número exato
+ * contado pelo índice direto ou, sem ele, a soma dos tamanhos das listas. Os limites
+ * de frequência usados para saltar URLs são a soma dos limites de cada segmento.
+ * Também junta as ocorrências de palavras diferentes, como as correções de uma palavra com erros
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class MergedCursor implements PostingCursor {
+
+	/**
+	 * Cursores de cada segmento
+	 */
+	private final PostingCursor[] cursors;
+
+	/**
+	 * Número de identificadores distintos em todos os segmentos, ou um limite para esse número
+	 */
+	private final int cost;
+
+	/**
+	 * Identificador atual, -1 antes do início e NO_MORE_DOCS no fim
+	 */
+	private int doc = -1;
+
+	/**
+	 * Construtor da classe
+	 * @param cursors cursores de cada segmento, posicionados antes do primeiro identificador
+	 * @param cost número de identificadores distintos em todos os segmentos, ou um limite para esse número
+	 */
+	public MergedCursor(PostingCursor[] cursors, int cost) {
+		this.cursors = cursors;
+		this.cost = cost;
+	}
+
+	/**
+	 * Método que devolve um limite para o número de URLs de várias posting lists: a soma dos seus
+	 * tamanhos. Não percorre as listas, pelo que um URL com ocorrências em mais do que uma (uma
+	 * versão antiga ainda não eliminada por uma junção, ou palavras que chegaram antes e depois
+	 * de uma gravação) conta mais do que uma vez
+	 * @param lists posting lists
+	 * @return soma dos números de URLs das listas
+	 */
+	public static int sizeBound(List<PostingList> lists) {
+		long total = 0;
+		for (PostingList list : lists) {
+			total += list.size();
+		}
+		return (int) Math.min(Integer.MAX_VALUE, total);
+	}
+
+	@Override
+	public int cost() {
+		return cost;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int freq() {
+		int freq = 0;
+		int matches = 0;
+		boolean withPositions = true;
+		for (PostingCursor cursor : cursors) {
+			if (cursor.docId() == doc) {
+				freq += cursor.freq();
+				withPositions &= cursor.positions().length > 0;
+				matches++;
+			}
+		}
+		// Uma escrita repetida em dois segmentos só conta uma vez quando as posições são conhecidas
+		return (matches > 1 && withPositions) ? positions().length : freq;
+	}
+
+	@Override
+	public int[] positions() {
+		int[] positions = PostingList.NO_POSITIONS;
+		for (PostingCursor cursor : cursors) {
+			if (cursor.docId() == doc) {
+				positions = (positions.length == 0) ? cursor.positions() : PostingList.mergePositions(positions, cursor.positions());
+			}
+		}
+		return positions;
+	}
+
+	@Override
+	public int maxFreqFrom(int target) {
+		int maxFreq = 0;
+		for (PostingCursor cursor : cursors) {
+			maxFreq += cursor.maxFreqFrom(target);
+		}
+		return maxFreq;
+	}
+
+	@Override
+	public int maxFreqUpTo() {
+		int upTo = PostingList.NO_MORE_DOCS;
+		for (PostingCursor cursor : cursors) {
+			upTo = Math.min(upTo, cursor.maxFreqUpTo());
+		}
+		return upTo;
+	}
+
+	@Override
+	public int nextDoc() {
+		return advance(doc + 1);
+	}
+
+	@Override
+	public int advance(int target) {
+		if (doc >= target) {
+			return doc;
+		}
+		int next = PostingList.NO_MORE_DOCS;
+		for (PostingCursor cursor : cursors) {
+			int current = cursor.docId();
+			if (current < target) {
+				current = cursor.advance(target);
+			}
+			next = Math.min(next, current);
+		}
+		return doc = next;
+	}
+}
@@ -0,0 +1,219 @@
+package googol.backend;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+/**
+ * Classe que representa o PageRank dos URLs de um Barrel, calculado sobre o grafo dos
+ * links que o Barrel conhece, e usado como pontuação estática (independente da pesquisa)
+ * somada à pontuação BM25. Ao contrário do número de links recebidos, o PageRank de uma
+ * página depende da importância das páginas que apontam para ela, pelo que muitos links
+ * vindos de páginas sem importância pouco contam.
+ * O cálculo percorre, em cada iteração, os links que chegam a cada URL nos vetores compactos
+ * do grafo dos links e divide os URLs em intervalos processados em paralelo. Um resultado
+ * é imutável e é substituído por inteiro quando é recalculado
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class PageRank {
+
+	/**
+	 * Probabilidade de seguir um link da página atual em vez de saltar para uma página qualquer
+	 */
+	static final double DAMPING = 0.85;
+
+	/**
+	 * Soma das diferenças entre duas iterações abaixo da qual o cálculo termina
+	 */
+	static final double TOLERANCE = 1e-6;
+
+	/**
+	 * Número máximo de iterações
+	 */
+	static final int MAX_ITERATIONS = 100;
+
+	/**
+	 * Número de URLs de cada intervalo processado em paralelo
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	/**
+	 * Resultado sem URLs, usado antes do primeiro cálculo
+	 */
+	static final PageRank EMPTY = new PageRank(new float[0], 0, 0, 0, 0, 0);
+
+	/**
+	 * PageRank de cada URL multiplicado pelo número de URLs (a média é 1), indexado pelo identificador
+	 */
+	private final float[] scores;
+
+	/**
+	 * Maior valor de scores
+	 */
+	private final float maxScore;
+
+	/**
+	 * Número de links do grafo
+	 */
+	private final long linkCount;
+
+	/**
+	 * Número de iterações feitas
+	 */
+	private final int iterations;
+
+	/**
+	 * Soma das diferenças entre as duas últimas iterações
+	 */
+	private final double residual;
+
+	/**
+	 * Duração do cálculo em milissegundos
+	 */
+	private final long millis;
+
+	/**
+	 * Instante em que o cálculo terminou
+	 */
+	private final long computedAt;
+
+	/**
+	 * Construtor da classe
+	 * @param scores PageRank de cada URL multiplicado pelo número de URLs
+	 * @param linkCount número de links do grafo
+	 * @param iterations número de iterações feitas
+	 * @param residual soma das diferenças entre as duas últimas iterações
+	 * @param millis duração do cálculo em milissegundos
+	 * @param computedAt instante em que o cálculo terminou
+	 */
+	private PageRank(float[] scores, long linkCount, int iterations, double residual, long millis, long computedAt) {
+		this.scores = scores;
+		float max = 0;
+		for (float score : scores) {
+			max = Math.max(max, score);
+		}
+		this.maxScore = max;
+		this.linkCount = linkCount;
+		this.iterations = iterations;
+		this.residual = residual;
+		this.millis = millis;
+		this.computedAt = computedAt;
+	}
+
+	/**
+	 * Método que calcula o PageRank de todos os URLs, lendo diretamente os vetores compactos
+	 * do grafo dos links. As páginas sem links de saída distribuem o seu PageRank por todos os URLs
+	 * @param graph origens dos links que chegam a cada URL
+	 * @param urlCount número de URLs do dicionário
+	 * @return PageRank calculado
+	 */
+	public static PageRank compute(LinkGraph.Csr graph, int urlCount) {
+		long start = System.nanoTime();
+
+		int nodes = graph.nodes();
+		int[] offsets = graph.offsets;
+		int[] sources = graph.edges;
+		int n = Math.max(urlCount, nodes);
+		for (int source : sources) {
+			n = Math.max(n, source + 1);
+		}
+		if (n == 0) {
+			return new PageRank(new float[0], 0, 0, 0, 0, System.currentTimeMillis());
+		}
+		int[] outDegrees = new int[n];
+		for (int source : sources) {
+			outDegrees[source]++;
+		}
+
+		double[] ranks = new double[n];
+		double[] next = new double[n];
+		double[] shares = new double[n];
+		Arrays.fill(ranks, 1.0 / n);
+		int iterations = 0;
+		double residual = Double.MAX_VALUE;
+		while (iterations < MAX_ITERATIONS && residual > TOLERANCE) {
+			// Parte do PageRank que cada URL passa por cada link, e PageRank das páginas sem links de saída
+			double[] current = ranks;
+			DoubleAccumulator dangling = new DoubleAccumulator(Double::sum, 0);
+			RangeTask.run(0, n, PARALLEL_THRESHOLD, (from, to) -> {
+				double sum = 0;
+				for (int id = from; id < to; id++) {
+					if (outDegrees[id] == 0) {
+						shares[id] = 0;
+						sum += current[id];
+					} else {
+						shares[id] = current[id] / outDegrees[id];
+					}
+				}
+				dangling.accumulate(sum);
+			});
+
+			// Cada URL soma as partes dos URLs que apontam para ele, sem escrever nas entradas dos outros
+			double base = (1 - DAMPING) / n + DAMPING * dangling.get() / n;
+			double[] updated = next;
+			DoubleAccumulator difference = new DoubleAccumulator(Double::sum, 0);
+			RangeTask.run(0, n, PARALLEL_THRESHOLD, (from, to) -> {
+				double sum = 0;
+				for (int id = from; id < to; id++) {
+					double incomingShare = 0;
+					int end = (id < nodes) ? offsets[id + 1] : 0;
+					for (int i = (id < nodes) ? offsets[id] : 0; i < end; i++) {
+						incomingShare += shares[sources[i]];
+					}
+					updated[id] = base + DAMPING * incomingShare;
+					sum += Math.abs(updated[id] - current[id]);
+				}
+				difference.accumulate(sum);
+			});
+			residual = difference.get();
+			next = ranks;
+			ranks = updated;
+			iterations++;
+		}
+
+		float[] scores = new float[n];
+		for (int id = 0; id < n; id++) {
+			scores[id] = (float) (ranks[id] * n);
+		}
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		return new PageRank(scores, sources.length, iterations, residual, millis, System.currentTimeMillis());
+	}
+
+	/**
+	 * Método que devolve a pontuação estática de um URL: o logaritmo do seu PageRank, dividido
+	 * pelo do maior PageRank, para que a diferença entre páginas muito e pouco referenciadas não
+	 * se sobreponha à relevância do texto. Os URLs posteriores ao cálculo têm a menor pontuação
+	 * @param docId identificador do URL
+	 * @return pontuação entre 0 e 1
+	 */
+	public double staticScore(int docId) {
+		if (docId >= scores.length || maxScore == 0) {
+			return 0;
+		}
+		return Math.log1p(scores[docId]) / Math.log1p(maxScore);
+	}
+
+	/**
+	 * Método que devolve o número de URLs com PageRank calculado
+	 * @return número de URLs
+	 */
+	public int size() {
+		return scores.length;
+	}
+
+	/**
+	 * Método que devolve o resumo do cálculo, apresentado nas estatísticas
+	 * @return número de URLs e links, iterações, convergência e duração do cálculo
+	 */
+	@Override
+	public String toString() {
+		if (computedAt == 0) {
+			return "PageRank ainda não calculado";
+		}
+		return String.format("PageRank de %d URLs e %d links: %d iterações, resíduo %.2e%s, calculado em %d ms há %d s",
+				scores.length, linkCount, iterations, residual, (residual > TOLERANCE) ? " (não convergiu)" : "",
+				millis, (System.currentTimeMillis() - computedAt) / 1000);
+	}
+}
@@ -0,0 +1,96 @@
+package googol.backend;
+
+
+/**
+ * Classe que implementa um stemmer leve para o português, aplicado a palavras já em
+ * minúsculas e sem acentos. Só trata as flexões mais comuns: o plural (casas, flores,
+ * animais, papeis, limoes, homens), os advérbios em -mente e o feminino de alguns
+ * sufixos (bonita, famosa, primeira). Ao contrário de um stemmer agressivo, o resultado
+ * é quase sempre uma palavra real (o masculino singular), pelo que pode ser mostrado ao
+ * utilizador nas sugestões da caixa de pesquisa
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class PortugueseStemmer {
+
+	/**
+	 * Construtor privado, a classe só tem métodos estáticos
+	 */
+	private PortugueseStemmer() {
+	}
+
+	/**
+	 * Método que reduz uma palavra à sua forma base
+	 * @param word palavra em minúsculas e sem acentos
+	 * @return forma base da palavra
+	 */
+	public static String stem(String word) {
+		if (word.length() < 4) {
+			return word;
+		}
+		String stem = removePlural(word);
+		if (stem.length() > 6 && stem.endsWith("mente")) {
+			stem = stem.substring(0, stem.length() - 5);
+		}
+		if (stem.endsWith("a")) {
+			stem = removeFeminine(stem);
+		}
+		return stem;
+	}
+
+	/**
+	 * Método que reduz uma palavra no plural ao singular
+	 * @param word palavra
+	 * @return palavra no singular, ou a própria palavra se não estiver no plural
+	 */
+	private static String removePlural(String word) {
+		int length = word.length();
+		if (!word.endsWith("s")) {
+			return word;
+		}
+		if (length > 4 && word.endsWith("es") && "rslz".indexOf(word.charAt(length - 3)) >= 0) {
+			return word.substring(0, length - 2);
+		}
+		if (word.endsWith("ns")) {
+			return word.substring(0, length - 2) + "m";
+		}
+		if (length > 4 && (word.endsWith("oes") || word.endsWith("aes"))) {
+			return word.substring(0, length - 3) + "ao";
+		}
+		if (length > 4 && word.endsWith("eis")) {
+			return word.substring(0, length - 3) + "el";
+		}
+		if (length > 4 && word.endsWith("ais")) {
+			return word.substring(0, length - 3) + "al";
+		}
+		if (length > 4 && word.endsWith("ois")) {
+			return word.substring(0, length - 3) + "ol";
+		}
+		if (length > 4 && word.endsWith("is")) {
+			return word.substring(0, length - 2) + "il";
+		}
+		// Palavras como pais, onibus ou virus não são o plural de uma palavra sem o s final
+		if ("isu".indexOf(word.charAt(length - 2)) >= 0) {
+			return word;
+		}
+		return word.substring(0, length - 1);
+	}
+
+	/**
+	 * Método que reduz ao masculino os sufixos femininos mais comuns
+	 * @param word palavra terminada em a
+	 * @return palavra no masculino, ou a própria palavra se nenhum sufixo for reconhecido
+	 */
+	private static String removeFeminine(String word) {
+		int length = word.length();
+		if (length > 7 && (word.endsWith("inha") || word.endsWith("eira"))) {
+			return word.substring(0, length - 1) + "o";
+		}
+		if (length > 6 && (word.endsWith("osa") || word.endsWith("ica") || word.endsWith("ida")
+				|| word.endsWith("ada") || word.endsWith("iva") || word.endsWith("ita"))) {
+			return word.substring(0, length - 1) + "o";
+		}
+		return word;
+	}
+}
@@ -0,0 +1,437 @@
+package googol.backend;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+
+/**
+ * Classe que representa um bloco comprimido e imutável de uma posting list.
+ * Cada bloco guarda até algumas centenas de identificadores ordenados e escolhe
+ * a codificação mais compacta: diferenças codificadas em varint para palavras
+ * esparsas ou um bitmap para palavras densas. As frequências e as posições da
+ * palavra em cada identificador são guardadas à parte, em varint, pela mesma
+ * ordem dos identificadores. Os dados comprimidos são reservados por {@link BlockStorage},
+ * no heap ou fora dele, e só são lidos por posição absoluta
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class PostingBlock {
+
+	/**
+	 * Codificação por diferenças entre identificadores consecutivos em varint
+	 */
+	static final byte VARINT = 0;
+
+	/**
+	 * Codificação em bitmap, o bit i representa o identificador firstDoc + i
+	 */
+	static final byte BITMAP = 1;
+
+	/**
+	 * Primeiro identificador do bloco
+	 */
+	final int firstDoc;
+
+	/**
+	 * Último identificador do bloco
+	 */
+	final int lastDoc;
+
+	/**
+	 * Número de identificadores do bloco
+	 */
+	final int count;
+
+	/**
+	 * Tipo de codificação do bloco
+	 */
+	final byte type;
+
+	/**
+	 * Dados comprimidos do bloco
+	 */
+	final ByteBuffer data;
+
+	/**
+	 * Frequências dos identificadores, codificadas em varint
+	 */
+	final ByteBuffer freqData;
+
+	/**
+	 * Maior frequência do bloco
+	 */
+	final int maxFreq;
+
+	/**
+	 * Posições da palavra em cada identificador: número de posições seguido das
+	 * diferenças entre posições consecutivas, tudo em varint
+	 */
+	final ByteBuffer posData;
+
+	/**
+	 * Construtor da classe
+	 * @param firstDoc primeiro identificador
+	 * @param lastDoc último identificador
+	 * @param count número de identificadores
+	 * @param type tipo de codificação
+	 * @param data dados comprimidos
+	 * @param freqData frequências comprimidas
+	 * @param maxFreq maior frequência
+	 * @param posData posições comprimidas
+	 */
+	private PostingBlock(int firstDoc, int lastDoc, int count, byte type, ByteBuffer data, ByteBuffer freqData, int maxFreq, ByteBuffer posData) {
+		this.firstDoc = firstDoc;
+		this.lastDoc = lastDoc;
+		this.count = count;
+		this.type = type;
+		this.data = data;
+		this.freqData = freqData;
+		this.maxFreq = maxFreq;
+		this.posData = posData;
+	}
+
+	/**
+	 * Método para comprimir um intervalo de um array ordenado de identificadores
+	 * @param docs array ordenado de identificadores
+	 * @param freqs frequências de cada identificador
+	 * @param positions posições ordenadas da palavra em cada identificador (podem estar vazias)
+	 * @param from posição inicial (inclusive)
+	 * @param to posição final (exclusive)
+	 * @return bloco comprimido
+	 */
+	static PostingBlock encode(int[] docs, int[] freqs, int[][] positions, int from, int to) {
+		int firstDoc = docs[from];
+		int lastDoc = docs[to - 1];
+
+		int freqSize = 0;
+		int maxFreq = 0;
+		for (int i = from; i < to; i++) {
+			freqSize += varintLength(freqs[i]);
+			maxFreq = Math.max(maxFreq, freqs[i]);
+		}
+		ByteBuffer freqData = BlockStorage.allocate(freqSize);
+		for (int i = from; i < to; i++) {
+			writeVarint(freqData, freqs[i]);
+		}
+		ByteBuffer posData = encodePositions(positions, from, to);
+
+		int varintSize = 0;
+		for (int i = from + 1; i < to; i++) {
+			varintSize += varintLength(docs[i] - docs[i - 1]);
+		}
+		int bitmapSize = ((lastDoc - firstDoc) >>> 3) + 1;
+
+		if (bitmapSize < varintSize) {
+			ByteBuffer bits = BlockStorage.allocate(bitmapSize);
+			for (int i = from; i < to; i++) {
+				int bit = docs[i] - firstDoc;
+				bits.put(bit >>> 3, (byte) (bits.get(bit >>> 3) | (1 << (bit & 7))));
+			}
+			return new PostingBlock(firstDoc, lastDoc, to - from, BITMAP, bits, freqData, maxFreq, posData);
+		}
+
+		ByteBuffer bytes = BlockStorage.allocate(varintSize);
+		for (int i = from + 1; i < to; i++) {
+			writeVarint(bytes, docs[i] - docs[i - 1]);
+		}
+		return new PostingBlock(firstDoc, lastDoc, to - from, VARINT, bytes, freqData, maxFreq, posData);
+	}
+
+	/**
+	 * Método para escrever o bloco, já comprimido, num snapshot binário
+	 * @param out destino dos dados
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(firstDoc);
+		out.writeInt(lastDoc);
+		out.writeInt(count);
+		out.writeByte(type);
+		out.writeInt(maxFreq);
+		writeSection(out, data);
+		writeSection(out, freqData);
+		writeSection(out, posData);
+	}
+
+	/**
+	 * Método para escrever uma secção de dados comprimidos precedida do seu tamanho
+	 * @param out destino dos dados
+	 * @param section dados comprimidos
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	private static void writeSection(DataOutput out, ByteBuffer section) throws IOException {
+		out.writeInt(section.capacity());
+		if (section.hasArray()) {
+			out.write(section.array(), section.arrayOffset(), section.capacity());
+		} else {
+			byte[] bytes = new byte[section.capacity()];
+			section.get(0, bytes);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Método para ler um bloco escrito por {@link #writeTo(DataOutput)}. Os bytes comprimidos
+	 * são copiados tal como estão, sem serem descomprimidos, para memória reservada por {@link BlockStorage}
+	 * @param buffer origem dos dados, posicionada no início do bloco
+	 * @return bloco lido
+	 */
+	static PostingBlock readFrom(ByteBuffer buffer) {
+		int firstDoc = buffer.getInt();
+		int lastDoc = buffer.getInt();
+		int count = buffer.getInt();
+		byte type = buffer.get();
+		int maxFreq = buffer.getInt();
+		ByteBuffer data = readSection(buffer);
+		ByteBuffer freqData = readSection(buffer);
+		ByteBuffer posData = readSection(buffer);
+		return new PostingBlock(firstDoc, lastDoc, count, type, data, freqData, maxFreq, posData);
+	}
+
+	/**
+	 * Método para ler um bloco escrito por {@link #writeTo(DataOutput)} sem copiar os dados
+	 * comprimidos: o bloco lê diretamente do buffer, que tem de continuar válido e inalterado
+	 * enquanto o bloco for usado (por exemplo, um segmento imutável mapeado em memória)
+	 * @param buffer origem dos dados, posicionada no início do bloco
+	 * @return bloco lido
+	 */
+	static PostingBlock view(ByteBuffer buffer) {
+		int firstDoc = buffer.getInt();
+		int lastDoc = buffer.getInt();
+		int count = buffer.getInt();
+		byte type = buffer.get();
+		int maxFreq = buffer.getInt();
+		ByteBuffer data = sliceSection(buffer);
+		ByteBuffer freqData = sliceSection(buffer);
+		ByteBuffer posData = sliceSection(buffer);
+		return new PostingBlock(firstDoc, lastDoc, count, type, data, freqData, maxFreq, posData);
+	}
+
+	/**
+	 * Método que devolve uma vista sobre uma secção de dados comprimidos precedida do seu tamanho
+	 * @param buffer origem dos dados, posicionada no tamanho da secção
+	 * @return vista sobre a secção
+	 */
+	private static ByteBuffer sliceSection(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		ByteBuffer section = buffer.slice(buffer.position(), length);
+		buffer.position(buffer.position() + length);
+		return section;
+	}
+
+	/**
+	 * Método para copiar uma secção de dados comprimidos precedida do seu tamanho
+	 * @param buffer origem dos dados, posicionada no tamanho da secção
+	 * @return cópia da secção
+	 */
+	private static ByteBuffer readSection(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer section = BlockStorage.allocate(length);
+		section.put(0, buffer, buffer.position(), length);
+		buffer.position(buffer.position() + length);
+		return section;
+	}
+
+	/**
+	 * Método para avançar um buffer para o fim de um bloco escrito por {@link #writeTo(DataOutput)},
+	 * sem copiar os seus dados
+	 * @param buffer origem dos dados, posicionada no início do bloco
+	 */
+	static void skip(ByteBuffer buffer) {
+		buffer.position(buffer.position() + 3 * Integer.BYTES + 1 + Integer.BYTES);
+		for (int i = 0; i < 3; i++) {
+			int length = buffer.getInt();
+			buffer.position(buffer.position() + length);
+		}
+	}
+
+	/**
+	 * Método para descomprimir todos os identificadores do bloco
+	 * @return array ordenado com os identificadores
+	 */
+	int[] decode() {
+		int[] docs = new int[count];
+		if (type == BITMAP) {
+			int n = 0;
+			for (int doc = nextDoc(firstDoc); doc != -1; doc = nextDoc(doc + 1)) {
+				docs[n++] = doc;
+			}
+			return docs;
+		}
+
+		docs[0] = firstDoc;
+		int[] offset = new int[1];
+		for (int i = 1; i < count; i++) {
+			docs[i] = docs[i - 1] + readVarint(data, offset);
+		}
+		return docs;
+	}
+
+	/**
+	 * Método para descomprimir as frequências do bloco
+	 * @return array com as frequências, pela ordem dos identificadores
+	 */
+	int[] decodeFreqs() {
+		int[] freqs = new int[count];
+		int[] offset = new int[1];
+		for (int i = 0; i < count; i++) {
+			freqs[i] = readVarint(freqData, offset);
+		}
+		return freqs;
+	}
+
+	/**
+	 * Método para comprimir as posições de um intervalo de identificadores
+	 * @param positions posições ordenadas de cada identificador
+	 * @param from posição inicial (inclusive)
+	 * @param to posição final (exclusive)
+	 * @return posições comprimidas
+	 */
+	private static ByteBuffer encodePositions(int[][] positions, int from, int to) {
+		int size = 0;
+		for (int i = from; i < to; i++) {
+			size += varintLength(positions[i].length);
+			for (int j = 0; j < positions[i].length; j++) {
+				size += varintLength(positions[i][j] - ((j == 0) ? 0 : positions[i][j - 1]));
+			}
+		}
+		ByteBuffer bytes = BlockStorage.allocate(size);
+		for (int i = from; i < to; i++) {
+			writeVarint(bytes, positions[i].length);
+			for (int j = 0; j < positions[i].length; j++) {
+				writeVarint(bytes, positions[i][j] - ((j == 0) ? 0 : positions[i][j - 1]));
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Método para descomprimir as posições do bloco
+	 * @return array com as posições de cada identificador, pela ordem dos identificadores
+	 */
+	int[][] decodePositions() {
+		int[][] positions = new int[count][];
+		int[] offset = new int[1];
+		for (int i = 0; i < count; i++) {
+			int[] docPositions = new int[readVarint(posData, offset)];
+			for (int j = 0; j < docPositions.length; j++) {
+				docPositions[j] = readVarint(posData, offset) + ((j == 0) ? 0 : docPositions[j - 1]);
+			}
+			positions[i] = docPositions;
+		}
+		return positions;
+	}
+
+	/**
+	 * Método que devolve, num bloco em bitmap, a posição de um identificador entre os identificadores do bloco
+	 * @param docId identificador existente no bloco
+	 * @return número de identificadores do bloco menores que docId
+	 */
+	int rank(int docId) {
+		int bit = docId - firstDoc;
+		int rank = 0;
+		for (int i = 0; i < (bit >>> 3); i++) {
+			rank += Integer.bitCount(data.get(i) & 0xFF);
+		}
+		return rank + Integer.bitCount(data.get(bit >>> 3) & ((1 << (bit & 7)) - 1));
+	}
+
+	/**
+	 * Método que devolve, num bloco em bitmap, o primeiro identificador maior ou igual a um alvo,
+	 * lendo diretamente os bits sem descomprimir o bloco
+	 * @param target identificador alvo
+	 * @return identificador encontrado ou -1 se não existir
+	 */
+	int nextDoc(int target) {
+		int bit = Math.max(target, firstDoc) - firstDoc;
+		int byteIndex = bit >>> 3;
+		int length = data.capacity();
+		if (byteIndex >= length) {
+			return -1;
+		}
+		int current = (data.get(byteIndex) & 0xFF) >>> (bit & 7);
+		if (current != 0) {
+			return firstDoc + bit + Integer.numberOfTrailingZeros(current);
+		}
+		for (int i = byteIndex + 1; i < length; i++) {
+			byte b = data.get(i);
+			if (b != 0) {
+				return firstDoc + (i << 3) + Integer.numberOfTrailingZeros(b & 0xFF);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Método que verifica se um identificador pertence ao bloco
+	 * @param docId identificador
+	 * @return true se o identificador existir
+	 */
+	boolean contains(int docId) {
+		if (docId < firstDoc || docId > lastDoc) {
+			return false;
+		}
+		if (type == BITMAP) {
+			int bit = docId - firstDoc;
+			return (data.get(bit >>> 3) & (1 << (bit & 7))) != 0;
+		}
+		return Arrays.binarySearch(decode(), docId) >= 0;
+	}
+
+	/**
+	 * Método que devolve o número de bytes de dados comprimidos do bloco
+	 * @return tamanho dos dados
+	 */
+	int dataSize() {
+		return data.capacity() + freqData.capacity() + posData.capacity();
+	}
+
+	/**
+	 * Método que devolve o número de bytes necessários para codificar um valor em varint
+	 * @param value valor não negativo
+	 * @return número de bytes
+	 */
+	static int varintLength(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Método para ler um valor em varint de um buffer, por posição absoluta
+	 * @param bytes buffer de origem
+	 * @param offset posição de leitura, atualizada para a posição seguinte ao valor
+	 * @return valor lido
+	 */
+	static int readVarint(ByteBuffer bytes, int[] offset) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = bytes.get(offset[0]++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Método para escrever um valor em varint na posição atual de um buffer
+	 * @param bytes buffer de destino, avançado para a posição seguinte ao valor
+	 * @param value valor não negativo
+	 */
+	static void writeVarint(ByteBuffer bytes, int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		bytes.put((byte) value);
+	}
+}
@@ -0,0 +1,64 @@
+package googol.backend;
+
+
+/**
+ * Interface que representa um cursor sobre os identificadores de uma palavra,
+ * percorridos por ordem crescente. É usada pelo avaliador de pesquisas tanto para
+ * uma única posting list como para a junção das listas de vários segmentos do índice
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public interface PostingCursor {
+
+	/**
+	 * Método que devolve o número de identificadores que o cursor pode percorrer
+	 * @return número de identificadores
+	 */
+	int cost();
+
+	/**
+	 * Método que devolve o identificador atual
+	 * @return identificador atual, -1 antes do início e NO_MORE_DOCS no fim
+	 */
+	int docId();
+
+	/**
+	 * Método que devolve o número de ocorrências da palavra no identificador atual
+	 * @return frequência do identificador atual
+	 */
+	int freq();
+
+	/**
+	 * Método que devolve as posições da palavra no identificador atual
+	 * @return posições ordenadas, vazio se forem desconhecidas
+	 */
+	int[] positions();
+
+	/**
+	 * Método que devolve um limite superior da frequência dos identificadores a partir de um alvo,
+	 * válido até {@link #maxFreqUpTo()}, sem mover o cursor
+	 * @param target identificador alvo, nunca menor que o alvo da chamada anterior
+	 * @return limite da frequência, 0 se não existirem identificadores maiores ou iguais ao alvo
+	 */
+	int maxFreqFrom(int target);
+
+	/**
+	 * Método que devolve o último identificador coberto pelo limite devolvido em {@link #maxFreqFrom(int)}
+	 * @return último identificador coberto, NO_MORE_DOCS se o limite vale até ao fim
+	 */
+	int maxFreqUpTo();
+
+	/**
+	 * Método que avança para o identificador seguinte
+	 * @return identificador seguinte ou NO_MORE_DOCS
+	 */
+	int nextDoc();
+
+	/**
+	 * Método que avança para o primeiro identificador maior ou igual a um alvo
+	 * @param target identificador alvo
+	 * @return identificador encontrado ou NO_MORE_DOCS
+	 */
+	int advance(int target);
+}
@@ -0,0 +1,758 @@
+package googol.backend;
+
+import java.util.*;
+
+
+/**
+ * Classe que representa a lista de ocorrências (posting list) de uma palavra.
+ * Os identificadores dos URLs, e o número de vezes que a palavra ocorre em cada
+ * um, são guardados por ordem crescente em blocos comprimidos ({@link PostingBlock})
+ * e num pequeno bloco final ainda por comprimir, que recebe os identificadores mais recentes.
+ * As escritas são sincronizadas na própria lista, pelo que palavras diferentes
+ * podem ser atualizadas em paralelo. Os blocos comprimidos nunca são alterados
+ * depois de criados, e um bloco reconstruído é trocado numa cópia do vetor de blocos,
+ * o que permite aos cursores ler uma fotografia da lista sem bloquear as escritas
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class PostingList {
+
+	/**
+	 * Número de identificadores a partir do qual o bloco final é comprimido
+	 */
+	static final int BLOCK_SIZE = 128;
+
+	/**
+	 * Valor devolvido pelos cursores quando não existem mais identificadores
+	 */
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * Array partilhado usado quando as posições de uma ocorrência são desconhecidas
+	 */
+	static final int[] NO_POSITIONS = new int[0];
+
+	/**
+	 * Blocos comprimidos, ordenados pelo seu último identificador
+	 */
+	private PostingBlock[] blocks = new PostingBlock[0];
+
+	/**
+	 * Número de blocos comprimidos
+	 */
+	private int blockCount = 0;
+
+	/**
+	 * Identificadores mais recentes, ainda por comprimir, todos maiores que os dos blocos
+	 */
+	private int[] tail = new int[4];
+
+	/**
+	 * Frequências dos identificadores do bloco final
+	 */
+	private int[] tailFreqs = new int[4];
+
+	/**
+	 * Posições das ocorrências de cada identificador do bloco final
+	 */
+	private int[][] tailPositions = new int[4][];
+
+	/**
+	 * Número de identificadores no bloco final
+	 */
+	private int tailSize = 0;
+
+	/**
+	 * Número total de identificadores guardados
+	 */
+	private volatile int size = 0;
+
+	/**
+	 * Indica se a lista mudou desde o último checkpoint
+	 */
+	private boolean changed = false;
+
+	/**
+	 * Construtor de uma lista vazia
+	 */
+	public PostingList() {
+	}
+
+	/**
+	 * Construtor de uma lista a partir de blocos já comprimidos, lidos de um snapshot
+	 * @param blocks blocos ordenados e sem identificadores repetidos
+	 */
+	PostingList(PostingBlock[] blocks) {
+		this.blocks = blocks;
+		this.blockCount = blocks.length;
+		int total = 0;
+		for (PostingBlock block : blocks) {
+			total += block.count;
+		}
+		this.size = total;
+	}
+
+	/**
+	 * Método para registar uma ocorrência da palavra num URL
+	 * @param docId identificador do URL
+	 * @param position posição da palavra no URL, negativa se for desconhecida
+	 * @return número de ocorrências novas registadas (0 se a posição já existia)
+	 */
+	public int add(int docId, int position) {
+		return add(docId, 1, (position >= 0) ? new int[] { position } : NO_POSITIONS);
+	}
+
+	/**
+	 * Método para registar várias ocorrências da palavra num URL, mantendo a ordem dos identificadores.
+	 * Posições que já existiam não são contadas de novo, pelo que repetir uma escrita não altera a lista
+	 * @param docId identificador do URL
+	 * @param freq número de ocorrências a somar
+	 * @param positions posições ordenadas das ocorrências (pode estar vazio se forem desconhecidas)
+	 * @return número de ocorrências novas registadas
+	 */
+	public synchronized int add(int docId, int freq, int[] positions) {
+		int added;
+		if (blockCount == 0 || docId > blocks[blockCount - 1].lastDoc) {
+			added = addToTail(docId, freq, positions);
+			if (tailSize == BLOCK_SIZE) {
+				appendBlock(PostingBlock.encode(tail, tailFreqs, tailPositions, 0, tailSize));
+				tailSize = 0;
+				tailPositions = new int[tail.length][];
+			}
+		} else {
+			added = addToBlock(docId, freq, positions);
+		}
+		changed |= added > 0;
+		return added;
+	}
+
+	/**
+	 * Método para adicionar ocorrências ao bloco final
+	 * @param docId identificador do URL
+	 * @param freq número de ocorrências a somar
+	 * @param positions posições das ocorrências
+	 * @return número de ocorrências novas registadas
+	 */
+	private int addToTail(int docId, int freq, int[] positions) {
+		// Caso mais comum: os identificadores chegam por ordem crescente
+		int pos = tailSize;
+		if (tailSize > 0 && tail[tailSize - 1] >= docId) {
+			pos = Arrays.binarySearch(tail, 0, tailSize, docId);
+			if (pos >= 0) {
+				int[] merged = mergePositions(tailPositions[pos], positions);
+				int added = freq - (positions.length - (merged.length - tailPositions[pos].length));
+				tailPositions[pos] = merged;
+				tailFreqs[pos] += added;
+				return added;
+			}
+			pos = -(pos + 1);
+		}
+		if (tailSize == tail.length) {
+			tail = Arrays.copyOf(tail, Math.min(BLOCK_SIZE, tail.length * 2));
+			tailFreqs = Arrays.copyOf(tailFreqs, tail.length);
+			tailPositions = Arrays.copyOf(tailPositions, tail.length);
+		}
+		System.arraycopy(tail, pos, tail, pos + 1, tailSize - pos);
+		System.arraycopy(tailFreqs, pos, tailFreqs, pos + 1, tailSize - pos);
+		System.arraycopy(tailPositions, pos, tailPositions, pos + 1, tailSize - pos);
+		tail[pos] = docId;
+		tailFreqs[pos] = freq;
+		tailPositions[pos] = positions;
+		tailSize++;
+		size++;
+		return freq;
+	}
+
+	/**
+	 * Método para adicionar ocorrências de um identificador que chegou fora de ordem a um bloco já comprimido.
+	 * O bloco é reconstruído e dividido em dois se ficar demasiado grande
+	 * @param docId identificador do URL
+	 * @param freq número de ocorrências a somar
+	 * @param positions posições das ocorrências
+	 * @return número de ocorrências novas registadas
+	 */
+	private int addToBlock(int docId, int freq, int[] positions) {
+		int b = findBlock(blocks, blockCount, 0, docId);
+		PostingBlock block = blocks[b];
+		int[] old = block.decode();
+		int[] oldFreqs = block.decodeFreqs();
+		int[][] oldPositions = block.decodePositions();
+		int pos = Arrays.binarySearch(old, docId);
+		if (pos >= 0) {
+			int[] merged = mergePositions(oldPositions[pos], positions);
+			int added = freq - (positions.length - (merged.length - oldPositions[pos].length));
+			if (added > 0) {
+				oldPositions[pos] = merged;
+				oldFreqs[pos] += added;
+				replaceBlock(b, PostingBlock.encode(old, oldFreqs, oldPositions, 0, old.length));
+			}
+			return added;
+		}
+
+		pos = -(pos + 1);
+		int[] docs = new int[old.length + 1];
+		int[] freqs = new int[old.length + 1];
+		int[][] docPositions = new int[old.length + 1][];
+		System.arraycopy(old, 0, docs, 0, pos);
+		System.arraycopy(oldFreqs, 0, freqs, 0, pos);
+		System.arraycopy(oldPositions, 0, docPositions, 0, pos);
+		docs[pos] = docId;
+		freqs[pos] = freq;
+		docPositions[pos] = positions;
+		System.arraycopy(old, pos, docs, pos + 1, old.length - pos);
+		System.arraycopy(oldFreqs, pos, freqs, pos + 1, old.length - pos);
+		System.arraycopy(oldPositions, pos, docPositions, pos + 1, old.length - pos);
+		size++;
+
+		if (docs.length <= 2 * BLOCK_SIZE) {
+			replaceBlock(b, PostingBlock.encode(docs, freqs, docPositions, 0, docs.length));
+			return freq;
+		}
+		int half = docs.length / 2;
+		PostingBlock[] updated = new PostingBlock[blockCount + 1];
+		System.arraycopy(blocks, 0, updated, 0, b);
+		updated[b] = PostingBlock.encode(docs, freqs, docPositions, 0, half);
+		updated[b + 1] = PostingBlock.encode(docs, freqs, docPositions, half, docs.length);
+		System.arraycopy(blocks, b + 1, updated, b + 2, blockCount - b - 1);
+		blocks = updated;
+		blockCount++;
+		return freq;
+	}
+
+	/**
+	 * Método para retirar todas as ocorrências da palavra num URL, quando o URL é apagado ou volta a ser indexado.
+	 * O bloco que contém o identificador é reconstruído, ou deixa de existir se ficar vazio
+	 * @param docId identificador do URL
+	 * @return número de ocorrências retiradas (0 se o identificador não existia)
+	 */
+	public synchronized int remove(int docId) {
+		int b = findBlock(blocks, blockCount, 0, docId);
+		if (b == blockCount) {
+			int pos = Arrays.binarySearch(tail, 0, tailSize, docId);
+			if (pos < 0) {
+				return 0;
+			}
+			int removed = tailFreqs[pos];
+			// Os cursores têm a sua própria cópia do bloco final, que pode ser alterado no lugar
+			System.arraycopy(tail, pos + 1, tail, pos, tailSize - pos - 1);
+			System.arraycopy(tailFreqs, pos + 1, tailFreqs, pos, tailSize - pos - 1);
+			System.arraycopy(tailPositions, pos + 1, tailPositions, pos, tailSize - pos - 1);
+			tailSize--;
+			tailPositions[tailSize] = null;
+			size--;
+			changed = true;
+			return removed;
+		}
+
+		PostingBlock block = blocks[b];
+		if (!block.contains(docId)) {
+			return 0;
+		}
+		int[] old = block.decode();
+		int[] oldFreqs = block.decodeFreqs();
+		int[][] oldPositions = block.decodePositions();
+		int pos = Arrays.binarySearch(old, docId);
+		int removed = oldFreqs[pos];
+		size--;
+		changed = true;
+		if (old.length == 1) {
+			PostingBlock[] updated = new PostingBlock[blockCount - 1];
+			System.arraycopy(blocks, 0, updated, 0, b);
+			System.arraycopy(blocks, b + 1, updated, b, blockCount - b - 1);
+			blocks = updated;
+			blockCount--;
+			return removed;
+		}
+		int[] docs = new int[old.length - 1];
+		int[] freqs = new int[old.length - 1];
+		int[][] docPositions = new int[old.length - 1][];
+		System.arraycopy(old, 0, docs, 0, pos);
+		System.arraycopy(oldFreqs, 0, freqs, 0, pos);
+		System.arraycopy(oldPositions, 0, docPositions, 0, pos);
+		System.arraycopy(old, pos + 1, docs, pos, old.length - pos - 1);
+		System.arraycopy(oldFreqs, pos + 1, freqs, pos, old.length - pos - 1);
+		System.arraycopy(oldPositions, pos + 1, docPositions, pos, old.length - pos - 1);
+		replaceBlock(b, PostingBlock.encode(docs, freqs, docPositions, 0, docs.length));
+		return removed;
+	}
+
+	/**
+	 * Método que junta dois arrays ordenados de posições, sem repetições
+	 * @param current posições já registadas
+	 * @param added posições a acrescentar
+	 * @return array ordenado com a união das posições
+	 */
+	static int[] mergePositions(int[] current, int[] added) {
+		if (added.length == 0) {
+			return current;
+		}
+		int[] merged = new int[current.length + added.length];
+		int i = 0, j = 0, n = 0;
+		while (i < current.length || j < added.length) {
+			int next;
+			if (j == added.length || (i < current.length && current[i] < added[j])) {
+				next = current[i++];
+			} else if (i == current.length || added[j] < current[i]) {
+				next = added[j++];
+			} else {
+				next = current[i++];
+				j++;
+			}
+			merged[n++] = next;
+		}
+		return (n == merged.length) ? merged : Arrays.copyOf(merged, n);
+	}
+
+	/**
+	 * Método para substituir um bloco comprimido. O vetor de blocos é copiado antes da troca,
+	 * porque os cursores já criados continuam a ler o vetor antigo
+	 * @param b posição do bloco
+	 * @param block bloco novo
+	 */
+	private void replaceBlock(int b, PostingBlock block) {
+		PostingBlock[] updated = Arrays.copyOf(blocks, blocks.length);
+		updated[b] = block;
+		blocks = updated;
+	}
+
+	/**
+	 * Método para acrescentar um bloco comprimido ao fim da lista
+	 * @param block bloco a acrescentar
+	 */
+	private void appendBlock(PostingBlock block) {
+		if (blockCount == blocks.length) {
+			blocks = Arrays.copyOf(blocks, Math.max(4, blockCount * 2));
+		}
+		blocks[blockCount++] = block;
+	}
+
+	/**
+	 * Método que devolve o primeiro bloco, a partir de uma posição, cujo último identificador
+	 * é maior ou igual a um alvo. Usa procura galopante (saltos de 1, 2, 4, ... blocos) seguida
+	 * de procura binária, pelo que alvos próximos da posição atual custam poucas comparações
+	 * @param blocks blocos comprimidos
+	 * @param blockCount número de blocos
+	 * @param from posição inicial da procura
+	 * @param target identificador alvo
+	 * @return posição do bloco ou blockCount se não existir
+	 */
+	private static int findBlock(PostingBlock[] blocks, int blockCount, int from, int target) {
+		int low = from, step = 1;
+		while (low + step < blockCount && blocks[low + step].lastDoc < target) {
+			low += step;
+			step <<= 1;
+		}
+		int high = Math.min(blockCount, low + step + 1);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (blocks[mid].lastDoc < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Método que verifica se um identificador pertence à lista
+	 * @param docId identificador do URL
+	 * @return true se o identificador existir
+	 */
+	public synchronized boolean contains(int docId) {
+		int b = findBlock(blocks, blockCount, 0, docId);
+		if (b < blockCount) {
+			return blocks[b].contains(docId);
+		}
+		return Arrays.binarySearch(tail, 0, tailSize, docId) >= 0;
+	}
+
+	/**
+	 * Método que devolve o número de identificadores da lista
+	 * @return número de identificadores
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Método que devolve o menor identificador da lista
+	 * @return menor identificador ou NO_MORE_DOCS se a lista estiver vazia
+	 */
+	public synchronized int firstDoc() {
+		if (blockCount > 0) {
+			return blocks[0].firstDoc;
+		}
+		return (tailSize > 0) ? tail[0] : NO_MORE_DOCS;
+	}
+
+	/**
+	 * Método que devolve o maior identificador da lista
+	 * @return maior identificador ou -1 se a lista estiver vazia
+	 */
+	public synchronized int lastDoc() {
+		if (tailSize > 0) {
+			return tail[tailSize - 1];
+		}
+		return (blockCount > 0) ? blocks[blockCount - 1].lastDoc : -1;
+	}
+
+	/**
+	 * Método que devolve o número aproximado de bytes ocupados pelos identificadores
+	 * @return tamanho em bytes
+	 */
+	public synchronized long sizeInBytes() {
+		long bytes = 2L * tail.length * Integer.BYTES;
+		for (int i = 0; i < blockCount; i++) {
+			bytes += blocks[i].dataSize();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Método que devolve uma cópia ordenada dos identificadores
+	 * @return array com os identificadores
+	 */
+	public synchronized int[] toArray() {
+		int[] docs = new int[size];
+		int n = 0;
+		for (int i = 0; i < blockCount; i++) {
+			int[] decoded = blocks[i].decode();
+			System.arraycopy(decoded, 0, docs, n, decoded.length);
+			n += decoded.length;
+		}
+		System.arraycopy(tail, 0, docs, n, tailSize);
+		return docs;
+	}
+
+	/**
+	 * Método que devolve todos os identificadores em blocos comprimidos, incluindo o bloco final
+	 * ainda por comprimir, para serem gravados num snapshot
+	 * @return blocos ordenados
+	 */
+	public synchronized PostingBlock[] toBlocks() {
+		PostingBlock[] all = Arrays.copyOf(blocks, blockCount + ((tailSize > 0) ? 1 : 0));
+		if (tailSize > 0) {
+			all[blockCount] = PostingBlock.encode(tail, tailFreqs, tailPositions, 0, tailSize);
+		}
+		return all;
+	}
+
+	/**
+	 * Método para somar as frequências da lista aos comprimentos dos URLs
+	 * @param documentStats comprimentos dos URLs
+	 * @param sign 1 para somar, -1 para subtrair (quando a lista é substituída)
+	 */
+	public void addLengthsTo(DocumentStats documentStats, int sign) {
+		Cursor cursor = cursor();
+		for (int docId = cursor.nextDoc(); docId != NO_MORE_DOCS; docId = cursor.nextDoc()) {
+			documentStats.addLength(docId, sign * cursor.freq());
+		}
+	}
+
+	/**
+	 * Método que devolve os blocos da lista para um checkpoint e marca a lista como gravada
+	 * @param onlyIfChanged true para devolver null se a lista não mudou desde o último checkpoint
+	 * @return blocos ordenados ou null
+	 */
+	public synchronized PostingBlock[] checkpointBlocks(boolean onlyIfChanged) {
+		if (onlyIfChanged && !changed) {
+			return null;
+		}
+		changed = false;
+		return toBlocks();
+	}
+
+	/**
+	 * Método que devolve um cursor para percorrer os identificadores da lista.
+	 * O cursor lê uma fotografia da lista tirada neste momento: só o bloco final
+	 * (no máximo BLOCK_SIZE identificadores) é copiado
+	 * @return cursor posicionado antes do primeiro identificador
+	 */
+	public synchronized Cursor cursor() {
+		return new Cursor(blocks, blockCount, Arrays.copyOf(tail, tailSize), Arrays.copyOf(tailFreqs, tailSize),
+				Arrays.copyOf(tailPositions, tailSize), size);
+	}
+
+	/**
+	 * Classe interna que percorre os identificadores de uma posting list por ordem crescente.
+	 * Os blocos em bitmap são lidos diretamente e os blocos em varint só são descomprimidos
+	 * quando o cursor entra neles
+	 */
+	public static final class Cursor implements PostingCursor {
+
+		/**
+		 * Blocos comprimidos no momento em que o cursor foi criado
+		 */
+		private final PostingBlock[] blocks;
+
+		/**
+		 * Número de blocos comprimidos no momento em que o cursor foi criado
+		 */
+		private final int blockCount;
+
+		/**
+		 * Cópia do bloco final por comprimir
+		 */
+		private final int[] tail;
+
+		/**
+		 * Cópia das frequências do bloco final
+		 */
+		private final int[] tailFreqs;
+
+		/**
+		 * Cópia das posições do bloco final
+		 */
+		private final int[][] tailPositions;
+
+		/**
+		 * Número de identificadores no bloco final
+		 */
+		private final int tailSize;
+
+		/**
+		 * Número de identificadores no momento em que o cursor foi criado
+		 */
+		private final int cost;
+
+		/**
+		 * Maior frequência do bloco final
+		 */
+		private final int tailMaxFreq;
+
+		/**
+		 * Bloco usado para calcular limites de pontuação, avança de forma independente do cursor
+		 */
+		private int boundBlock = 0;
+
+		/**
+		 * Posição do bloco atual, blockCount representa o bloco final por comprimir
+		 */
+		private int block = -1;
+
+		/**
+		 * Bloco comprimido atual, null quando o cursor está no bloco final
+		 */
+		private PostingBlock current;
+
+		/**
+		 * Identificadores do bloco atual, quando este não é um bitmap
+		 */
+		private int[] decoded;
+
+		/**
+		 * Frequências do bloco atual, descomprimidas apenas quando são pedidas
+		 */
+		private int[] decodedFreqs;
+
+		/**
+		 * Posições do bloco atual, descomprimidas apenas quando são pedidas
+		 */
+		private int[][] decodedPositions;
+
+		/**
+		 * Número de identificadores em decoded
+		 */
+		private int decodedSize;
+
+		/**
+		 * Posição atual em decoded
+		 */
+		private int pos;
+
+		/**
+		 * Identificador atual, -1 antes do início e NO_MORE_DOCS no fim
+		 */
+		private int doc = -1;
+
+		/**
+		 * Construtor da classe
+		 * @param blocks blocos comprimidos
+		 * @param blockCount número de blocos
+		 * @param tail cópia do bloco final
+		 * @param tailFreqs cópia das frequências do bloco final
+		 * @param tailPositions cópia das posições do bloco final
+		 * @param cost número de identificadores
+		 */
+		private Cursor(PostingBlock[] blocks, int blockCount, int[] tail, int[] tailFreqs, int[][] tailPositions, int cost) {
+			this.blocks = blocks;
+			this.blockCount = blockCount;
+			this.tail = tail;
+			this.tailFreqs = tailFreqs;
+			this.tailPositions = tailPositions;
+			this.tailSize = tail.length;
+			this.cost = cost;
+			int maxFreq = 0;
+			for (int freq : tailFreqs) {
+				maxFreq = Math.max(maxFreq, freq);
+			}
+			this.tailMaxFreq = maxFreq;
+		}
+
+		/**
+		 * Método que devolve o número de identificadores que o cursor pode percorrer
+		 * @return número de identificadores
+		 */
+		@Override
+		public int cost() {
+			return cost;
+		}
+
+		/**
+		 * Método que devolve o identificador atual
+		 * @return identificador atual
+		 */
+		@Override
+		public int docId() {
+			return doc;
+		}
+
+		/**
+		 * Método que devolve o número de ocorrências da palavra no identificador atual
+		 * @return frequência do identificador atual
+		 */
+		@Override
+		public int freq() {
+			if (current == null) {
+				return tailFreqs[pos];
+			}
+			if (decodedFreqs == null) {
+				decodedFreqs = current.decodeFreqs();
+			}
+			return decodedFreqs[(current.type == PostingBlock.BITMAP) ? current.rank(doc) : pos];
+		}
+
+		/**
+		 * Método que devolve as posições da palavra no identificador atual
+		 * @return posições ordenadas, vazio se forem desconhecidas
+		 */
+		@Override
+		public int[] positions() {
+			if (current == null) {
+				return tailPositions[pos];
+			}
+			if (decodedPositions == null) {
+				decodedPositions = current.decodePositions();
+			}
+			return decodedPositions[(current.type == PostingBlock.BITMAP) ? current.rank(doc) : pos];
+		}
+
+		/**
+		 * Método que devolve a maior frequência do bloco onde um alvo pode estar, usando apenas
+		 * os cabeçalhos dos blocos: o cursor não é movido e nenhum bloco é descomprimido
+		 * @param target identificador alvo, nunca menor que o alvo da chamada anterior
+		 * @return maior frequência do bloco, 0 se não existirem identificadores maiores ou iguais ao alvo
+		 */
+		@Override
+		public int maxFreqFrom(int target) {
+			if (boundBlock < blockCount) {
+				boundBlock = findBlock(blocks, blockCount, boundBlock, target);
+				if (boundBlock < blockCount) {
+					return blocks[boundBlock].maxFreq;
+				}
+			}
+			return (tailSize > 0 && tail[tailSize - 1] >= target) ? tailMaxFreq : 0;
+		}
+
+		/**
+		 * Método que devolve o último identificador coberto pelo bloco escolhido em {@link #maxFreqFrom(int)}
+		 * @return último identificador do bloco, NO_MORE_DOCS para o bloco final
+		 */
+		@Override
+		public int maxFreqUpTo() {
+			return (boundBlock < blockCount) ? blocks[boundBlock].lastDoc : NO_MORE_DOCS;
+		}
+
+		/**
+		 * Método que avança para o identificador seguinte
+		 * @return identificador seguinte ou NO_MORE_DOCS
+		 */
+		@Override
+		public int nextDoc() {
+			return advance(doc + 1);
+		}
+
+		/**
+		 * Método que avança para o primeiro identificador maior ou igual a um alvo
+		 * @param target identificador alvo
+		 * @return identificador encontrado ou NO_MORE_DOCS
+		 */
+		@Override
+		public int advance(int target) {
+			if (doc >= target) {
+				return doc;
+			}
+			if (current != null && current.lastDoc >= target) {
+				return doc = searchBlock(target);
+			}
+			if (block < blockCount) {
+				int next = findBlock(blocks, blockCount, Math.max(block + 1, 0), target);
+				enterBlock(next);
+				if (next < blockCount) {
+					return doc = searchBlock(target);
+				}
+			}
+			return doc = searchDecoded(target);
+		}
+
+		/**
+		 * Método para posicionar o cursor no início de um bloco
+		 * @param next posição do bloco
+		 */
+		private void enterBlock(int next) {
+			block = next;
+			pos = 0;
+			decodedFreqs = null;
+			decodedPositions = null;
+			if (next == blockCount) {
+				current = null;
+				decoded = tail;
+				decodedSize = tailSize;
+				return;
+			}
+			// O bloco é guardado no cursor, uma reconstrução concorrente não o altera a meio da leitura
+			current = blocks[next];
+			if (current.type == PostingBlock.VARINT) {
+				decoded = current.decode();
+				decodedSize = decoded.length;
+			} else {
+				decoded = null;
+			}
+		}
+
+		/**
+		 * Método que procura um alvo no bloco comprimido atual, que contém um identificador maior ou igual ao alvo
+		 * @param target identificador alvo
+		 * @return identificador encontrado
+		 */
+		private int searchBlock(int target) {
+			if (current.type == PostingBlock.BITMAP) {
+				return current.nextDoc(target);
+			}
+			return searchDecoded(target);
+		}
+
+		/**
+		 * Método que procura um alvo nos identificadores descomprimidos do bloco atual
+		 * @param target identificador alvo
+		 * @return identificador encontrado ou NO_MORE_DOCS
+		 */
+		private int searchDecoded(int target) {
+			if (pos >= decodedSize || decoded[pos] >= target) {
+				return (pos < decodedSize) ? decoded[pos] : NO_MORE_DOCS;
+			}
+			// Procura galopante a partir da posição atual
+			int low = pos, step = 1;
+			while (low + step < decodedSize && decoded[low + step] < target) {
+				low += step;
+				step <<= 1;
+			}
+			int high = Math.min(decodedSize, low + step + 1);
+			int found = Arrays.binarySearch(decoded, low, high, target);
+			pos = (found >= 0) ? found : -(found + 1);
+			return (pos < decodedSize) ? decoded[pos] : NO_MORE_DOCS;
+		}
+	}
+}
@@ -0,0 +1,450 @@
+package googol.backend;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+
+/**
+ * Classe responsável por avaliar as pesquisas sobre o índice de um Barrel.
+ * As palavras são ordenadas pela sua frequência documental (da mais rara para a
+ * mais comum) e as posting lists são intersetadas documento a documento, com
+ * procura galopante sobre os blocos comprimidos. As frases só são verificadas,
+ * através das posições guardadas no índice, nos URLs que já contêm todas as
+ * palavras. Cada URL encontrado é pontuado com BM25 a partir das frequências
+ * guardadas no índice. Quando só interessam os k melhores resultados, a maior
+ * frequência de cada bloco permite saltar intervalos de URLs que não conseguem
+ * entrar nos k melhores, sem os descomprimir nem pontuar. Uma palavra que não existe no
+ * índice é substituída pela junção das suas correções, quando existem. À pontuação BM25
+ * soma-se uma pontuação estática de cada URL, o seu PageRank, com um peso configurável.
+ * Os URLs cuja página está a ser indexada são ignorados até a página estar completa
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class QueryEvaluator {
+
+	/**
+	 * Parâmetro de saturação da frequência do BM25
+	 */
+	static final double K1 = 1.2;
+
+	/**
+	 * Parâmetro de normalização pelo comprimento do BM25
+	 */
+	static final double B = 0.75;
+
+	/**
+	 * Ordem dos resultados do pior para o melhor: menor pontuação e, em caso de empate, maior identificador
+	 */
+	private static final Comparator<Match> WORST_FIRST =
+			Comparator.<Match>comparingDouble(match -> match.score).thenComparingInt(match -> -match.docId);
+
+	/**
+	 * Índice segmentado que associa uma palavra às suas ocorrências
+	 */
+	private final SegmentedIndex index;
+
+	/**
+	 * Comprimentos dos URLs indexados
+	 */
+	private final DocumentStats documentStats;
+
+	/**
+	 * Função que devolve as correções de uma palavra que não existe no índice, da melhor para a pior
+	 */
+	private volatile Function<String, List<String>> corrector = term -> Collections.emptyList();
+
+	/**
+	 * PageRank dos URLs, usado como pontuação estática
+	 */
+	private volatile PageRank pageRank = PageRank.EMPTY;
+
+	/**
+	 * Peso da pontuação estática, que está entre 0 e 1 (0 ordena só por BM25)
+	 */
+	private volatile double pageRankWeight = 0;
+
+	/**
+	 * URLs que estão a ser indexados, associados ao número de páginas ainda a aplicar,
+	 * e que as pesquisas ignoram para nunca verem uma página indexada só em parte
+	 */
+	private final ConcurrentHashMap<Integer, Integer> hiddenDocuments = new ConcurrentHashMap<>();
+
+	/**
+	 * Classe que representa um URL encontrado e a sua pontuação
+	 */
+	public static final class Match {
+
+		/**
+		 * Identificador do URL
+		 */
+		final int docId;
+
+		/**
+		 * Pontuação BM25 somada à pontuação estática
+		 */
+		final double score;
+
+		/**
+		 * Construtor da classe
+		 * @param docId identificador do URL
+		 * @param score pontuação do URL
+		 */
+		Match(int docId, double score) {
+			this.docId = docId;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Construtor da classe
+	 * @param index índice do barrel
+	 * @param documentStats comprimentos dos URLs
+	 */
+	public QueryEvaluator(SegmentedIndex index, DocumentStats documentStats) {
+		this.index = index;
+		this.documentStats = documentStats;
+	}
+
+	/**
+	 * Método para definir as correções usadas para as palavras que não existem no índice
+	 * @param corrector função que devolve as correções de uma palavra, da melhor para a pior
+	 */
+	public void setCorrector(Function<String, List<String>> corrector) {
+		this.corrector = corrector;
+	}
+
+	/**
+	 * Método para definir a pontuação estática somada à pontuação BM25 de cada URL
+	 * @param pageRank PageRank dos URLs
+	 * @param weight peso da pontuação estática (0 ordena só por BM25)
+	 */
+	public void setPageRank(PageRank pageRank, double weight) {
+		this.pageRank = pageRank;
+		this.pageRankWeight = Math.max(0, weight);
+	}
+
+	/**
+	 * Método para esconder um URL das pesquisas enquanto a sua página é indexada
+	 * @param docId identificador do URL
+	 */
+	public void hide(int docId) {
+		hiddenDocuments.merge(docId, 1, Integer::sum);
+	}
+
+	/**
+	 * Método para voltar a mostrar um URL escondido por {@link #hide(int)}, quando todas
+	 * as páginas desse URL que estavam a ser indexadas terminaram
+	 * @param docId identificador do URL
+	 */
+	public void show(int docId) {
+		hiddenDocuments.computeIfPresent(docId, (id, pending) -> (pending > 1) ? pending - 1 : null);
+	}
+
+	/**
+	 * Método que indica se um URL está escondido das pesquisas por estar a ser indexado
+	 * @param docId identificador do URL
+	 * @return true se o URL deve ser ignorado
+	 */
+	public boolean isHidden(int docId) {
+		return !hiddenDocuments.isEmpty() && hiddenDocuments.containsKey(docId);
+	}
+
+	/**
+	 * Método que devolve os URLs que satisfazem a pesquisa, ordenados por pontuação
+	 * @param query pesquisa com as palavras e frases
+	 * @return lista de resultados, vazia se alguma palavra não existir
+	 */
+	public List<Match> evaluate(SearchQuery query) {
+		return evaluate(query, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Método que devolve os k URLs com maior pontuação que satisfazem a pesquisa.
+	 * Os empates são resolvidos pelo identificador, pelo que páginas consecutivas são coerentes
+	 * @param query pesquisa com as palavras e frases
+	 * @param k número máximo de resultados
+	 * @return lista de resultados ordenada da maior para a menor pontuação
+	 */
+	public List<Match> evaluate(SearchQuery query, int k) {
+		return evaluate(query, k, null);
+	}
+
+	/**
+	 * Método que devolve os k URLs com maior pontuação que satisfazem a pesquisa, pontuados com
+	 * as estatísticas de uma coleção maior de que este índice é uma parte (um shard), para que as
+	 * pontuações possam ser comparadas com as das outras partes. Uma palavra que ocorre noutra
+	 * parte não é corrigida; as correções de uma palavra que não ocorre em nenhuma usam o idf local
+	 * @param query pesquisa com as palavras e frases
+	 * @param k número máximo de resultados
+	 * @param statistics estatísticas da coleção inteira, ou null para usar as deste índice
+	 * @return lista de resultados ordenada da maior para a menor pontuação
+	 */
+	public List<Match> evaluate(SearchQuery query, int k, CollectionStatistics statistics) {
+		List<String> terms = query.getTerms();
+		if (terms.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		// A ordenação usa o tamanho de cada fotografia, que não muda durante a pesquisa
+		// Cada cursor junta as ocorrências da palavra na memória e em todos os segmentos do índice
+		PostingCursor[] cursors = new PostingCursor[terms.size()];
+		Map<String, PostingCursor> cursorsByTerm = new HashMap<>();
+		Map<PostingCursor, Double> idfOf = new IdentityHashMap<>();
+		for (int i = 0; i < cursors.length; i++) {
+			int globalFreq = (statistics != null) ? statistics.documentFrequency(terms.get(i)) : 0;
+			PostingCursor docs = index.cursor(terms.get(i));
+			if (docs == null && globalFreq == 0) {
+				docs = expand(terms.get(i));
+			}
+			if (docs == null) {
+				// Uma palavra inexistente e sem correções torna a interseção vazia, não é preciso ler as restantes
+				return new ArrayList<>();
+			}
+			cursors[i] = docs;
+			cursorsByTerm.put(terms.get(i), cursors[i]);
+			idfOf.put(docs, (globalFreq > 0) ? idf(globalFreq, statistics.getDocumentCount()) : idf(docs.cost()));
+		}
+		Arrays.sort(cursors, Comparator.comparingInt(PostingCursor::cost));
+
+		PostingCursor[][] phrases = new PostingCursor[query.getPhraseCount()][];
+		for (int i = 0; i < phrases.length; i++) {
+			String[] phraseTerms = query.getPhraseTerms(i);
+			phrases[i] = new PostingCursor[phraseTerms.length];
+			for (int j = 0; j < phraseTerms.length; j++) {
+				phrases[i][j] = cursorsByTerm.get(phraseTerms[j]);
+			}
+		}
+
+		// O mesmo PageRank é usado em toda a pesquisa, mesmo que seja recalculado entretanto
+		PageRank ranks = pageRank;
+		double weight = pageRankWeight;
+
+		double[] idfs = new double[cursors.length];
+		for (int i = 0; i < cursors.length; i++) {
+			idfs[i] = idfOf.get(cursors[i]);
+		}
+		double averageLength = (statistics != null) ? statistics.averageLength() : documentStats.averageLength();
+
+		// O pior dos k melhores resultados fica no topo da fila
+		PriorityQueue<Match> top = new PriorityQueue<>(WORST_FIRST);
+		int doc = cursors[0].nextDoc();
+		while (doc != PostingList.NO_MORE_DOCS) {
+			if (top.size() == k) {
+				// Os URLs até ao fim dos blocos atuais não podem ultrapassar o limite de nenhuma lista,
+				// e a pontuação estática conta com o seu máximo
+				double bound = weight;
+				int upTo = PostingList.NO_MORE_DOCS;
+				for (int i = 0; i < cursors.length; i++) {
+					bound += maxScore(idfs[i], cursors[i].maxFreqFrom(doc));
+					upTo = Math.min(upTo, cursors[i].maxFreqUpTo());
+				}
+				if (bound <= top.peek().score) {
+					if (upTo == PostingList.NO_MORE_DOCS) {
+						break;
+					}
+					doc = cursors[0].advance(upTo + 1);
+					continue;
+				}
+			}
+			int candidate = nextCandidate(cursors, doc);
+			if (candidate == PostingList.NO_MORE_DOCS) {
+				// Uma das listas terminou, não podem existir mais identificadores comuns
+				break;
+			}
+			if (candidate == doc) {
+				if (!isHidden(doc) && matchesPhrases(query, phrases)) {
+					offer(top, k, new Match(doc, score(cursors, idfs, doc, averageLength) + weight * ranks.staticScore(doc)));
+				}
+				doc = cursors[0].nextDoc();
+			} else {
+				doc = cursors[0].advance(candidate);
+			}
+		}
+
+		List<Match> matches = new ArrayList<>(top);
+		matches.sort(WORST_FIRST.reversed());
+		return matches;
+	}
+
+	/**
+	 * Método que junta as ocorrências das correções de uma palavra que não existe no índice,
+	 * para que a pesquisa encontre os URLs que contêm qualquer uma delas. O número de URLs
+	 * da junção é a soma dos de cada correção, um limite superior que basta para a ordenação
+	 * das listas e para o idf
+	 * @param term palavra inexistente
+	 * @return cursor sobre as ocorrências das correções, ou null se não existirem
+	 */
+	private PostingCursor expand(String term) {
+		List<PostingCursor> cursors = new ArrayList<>();
+		long cost = 0;
+		for (String correction : corrector.apply(term)) {
+			PostingCursor docs = index.cursor(correction);
+			if (docs != null) {
+				cursors.add(docs);
+				cost += docs.cost();
+			}
+		}
+		if (cursors.size() <= 1) {
+			return cursors.isEmpty() ? null : cursors.get(0);
+		}
+		return new MergedCursor(cursors.toArray(new PostingCursor[0]), (int) Math.min(Integer.MAX_VALUE, cost));
+	}
+
+	/**
+	 * Método para propor um resultado para os k melhores
+	 * @param top k melhores resultados encontrados até agora
+	 * @param k número máximo de resultados
+	 * @param match resultado proposto
+	 */
+	private static void offer(PriorityQueue<Match> top, int k, Match match) {
+		if (top.size() < k) {
+			top.add(match);
+		} else if (WORST_FIRST.compare(match, top.peek()) > 0) {
+			top.poll();
+			top.add(match);
+		}
+	}
+
+	/**
+	 * Método que avança as listas mais comuns até um candidato proposto pela lista mais rara
+	 * @param cursors cursores ordenados da lista mais rara para a mais comum
+	 * @param doc candidato proposto pela lista mais rara
+	 * @return doc se todas as listas o contêm, senão o próximo candidato possível
+	 */
+	private static int nextCandidate(PostingCursor[] cursors, int doc) {
+		for (int i = 1; i < cursors.length; i++) {
+			int other = cursors[i].advance(doc);
+			if (other != doc) {
+				return other;
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * Método que verifica se as frases da pesquisa ocorrem no URL onde os cursores estão posicionados
+	 * @param query pesquisa com as frases
+	 * @param phrases cursores das palavras de cada frase
+	 * @return true se todas as frases ocorrem
+	 */
+	private static boolean matchesPhrases(SearchQuery query, PostingCursor[][] phrases) {
+		for (int i = 0; i < phrases.length; i++) {
+			if (!matchesPhrase(phrases[i], query.getPhraseOffsets(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Método que verifica se uma frase ocorre no URL atual, procurando uma posição inicial
+	 * para a qual cada palavra aparece no seu deslocamento dentro da frase
+	 * @param cursors cursores das palavras da frase, posicionados no URL
+	 * @param offsets deslocamento de cada palavra dentro da frase
+	 * @return true se a frase ocorre (ou se o URL foi indexado sem posições)
+	 */
+	private static boolean matchesPhrase(PostingCursor[] cursors, int[] offsets) {
+		int[][] positions = new int[cursors.length][];
+		for (int j = 0; j < cursors.length; j++) {
+			positions[j] = cursors[j].positions();
+		}
+		return matchesPhrase(positions, offsets);
+	}
+
+	/**
+	 * Método que verifica se uma frase ocorre num URL, dadas as posições de cada palavra da frase no URL
+	 * @param positions posições ordenadas de cada palavra da frase
+	 * @param offsets deslocamento de cada palavra dentro da frase
+	 * @return true se a frase ocorre (ou se o URL foi indexado sem posições)
+	 */
+	static boolean matchesPhrase(int[][] positions, int[] offsets) {
+		for (int[] termPositions : positions) {
+			if (termPositions.length == 0) {
+				// URLs indexados antes de existirem posições só podem ser verificados palavra a palavra
+				return true;
+			}
+		}
+		for (int first : positions[0]) {
+			int start = first - offsets[0];
+			int j = 1;
+			while (j < positions.length && Arrays.binarySearch(positions[j], start + offsets[j]) >= 0) {
+				j++;
+			}
+			if (j == positions.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Método que calcula a pontuação BM25 de um URL onde todos os cursores estão posicionados
+	 * @param cursors cursores posicionados no URL
+	 * @param idfs idf de cada cursor
+	 * @param doc identificador do URL
+	 * @param averageLength comprimento médio dos URLs da coleção
+	 * @return pontuação BM25
+	 */
+	private double score(PostingCursor[] cursors, double[] idfs, int doc, double averageLength) {
+		double norm = lengthNorm(documentStats.length(doc), averageLength);
+		double score = 0;
+		for (int i = 0; i < cursors.length; i++) {
+			score += termScore(idfs[i], cursors[i].freq(), norm);
+		}
+		return score;
+	}
+
+	/**
+	 * Método que calcula o termo de normalização pelo comprimento do BM25
+	 * @param length comprimento do URL
+	 * @param averageLength comprimento médio dos URLs
+	 * @return normalização do URL
+	 */
+	static double lengthNorm(int length, double averageLength) {
+		return K1 * (1 - B + B * length / averageLength);
+	}
+
+	/**
+	 * Método que calcula a pontuação BM25 que uma palavra dá a um URL
+	 * @param idf idf da palavra
+	 * @param freq número de ocorrências da palavra no URL
+	 * @param norm normalização do URL, de {@link #lengthNorm(int, double)}
+	 * @return pontuação da palavra
+	 */
+	static double termScore(double idf, int freq, double norm) {
+		return idf * freq * (K1 + 1) / (freq + norm);
+	}
+
+	/**
+	 * Método que calcula a maior pontuação BM25 que uma palavra pode dar a um URL de um bloco,
+	 * considerando o menor comprimento possível do URL
+	 * @param idf idf da palavra
+	 * @param maxFreq maior frequência do bloco
+	 * @return limite superior da pontuação
+	 */
+	private static double maxScore(double idf, int maxFreq) {
+		return idf * maxFreq * (K1 + 1) / (maxFreq + K1 * (1 - B));
+	}
+
+	/**
+	 * Método que calcula o idf de uma palavra
+	 * @param docFreq número de URLs que contêm a palavra
+	 * @return idf da palavra
+	 */
+	private double idf(int docFreq) {
+		return idf(docFreq, documentStats.documentCount());
+	}
+
+	/**
+	 * Método que calcula o idf de uma palavra numa coleção
+	 * @param docFreq número de URLs que contêm a palavra
+	 * @param documentCount número de URLs da coleção
+	 * @return idf da palavra
+	 */
+	static double idf(int docFreq, int documentCount) {
+		int documents = Math.max(documentCount, docFreq);
+		return Math.log(1 + (documents - docFreq + 0.5) / (docFreq + 0.5));
+	}
+}
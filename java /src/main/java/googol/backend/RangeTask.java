@@ -0,0 +1,75 @@
+package googol.backend;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+
+
+/**
+ * Classe que representa uma tarefa fork-join sobre um intervalo de índices.
+ * O intervalo é dividido ao meio até ficar com no máximo threshold índices,
+ * e cada parte é processada por uma thread do ForkJoinPool comum
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class RangeTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Primeiro índice do intervalo (inclusive)
+	 */
+	private final int from;
+
+	/**
+	 * Último índice do intervalo (exclusive)
+	 */
+	private final int to;
+
+	/**
+	 * Tamanho máximo de um intervalo processado sem ser dividido
+	 */
+	private final int threshold;
+
+	/**
+	 * Operação aplicada a cada sub-intervalo (from, to)
+	 */
+	private final BiConsumer<Integer, Integer> body;
+
+	/**
+	 * Construtor da classe
+	 * @param from primeiro índice (inclusive)
+	 * @param to último índice (exclusive)
+	 * @param threshold tamanho máximo de um intervalo processado sem ser dividido
+	 * @param body operação aplicada a cada sub-intervalo
+	 */
+	private RangeTask(int from, int to, int threshold, BiConsumer<Integer, Integer> body) {
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+		this.body = body;
+	}
+
+	/**
+	 * Método que processa um intervalo em paralelo e espera que termine
+	 * @param from primeiro índice (inclusive)
+	 * @param to último índice (exclusive)
+	 * @param threshold tamanho máximo de um intervalo processado sem ser dividido
+	 * @param body operação aplicada a cada sub-intervalo (from, to)
+	 */
+	public static void run(int from, int to, int threshold, BiConsumer<Integer, Integer> body) {
+		if (from < to) {
+			ForkJoinPool.commonPool().invoke(new RangeTask(from, to, Math.max(1, threshold), body));
+		}
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= threshold) {
+			body.accept(from, to);
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		invokeAll(new RangeTask(from, middle, threshold, body), new RangeTask(middle, to, threshold, body));
+	}
+}
@@ -0,0 +1,91 @@
+package googol.backend;
+
+import java.io.Serializable;
+
+
+/**
+ * Classe que representa um resultado de pesquisa devolvido por um Barrel,
+ * com a informação do URL e a sua pontuação de relevância (BM25 somado ao PageRank)
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class SearchHit implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * URL do resultado
+	 */
+	private final String url;
+
+	/**
+	 * Título da página
+	 */
+	private final String title;
+
+	/**
+	 * Descrição da página
+	 */
+	private final String description;
+
+	/**
+	 * Pontuação de relevância do resultado
+	 */
+	private final double score;
+
+	/**
+	 * Construtor da classe
+	 * @param url URL do resultado
+	 * @param title título da página
+	 * @param description descrição da página
+	 * @param score pontuação de relevância
+	 */
+	public SearchHit(String url, String title, String description, double score) {
+		this.url = url;
+		this.title = title;
+		this.description = description;
+		this.score = score;
+	}
+
+	/**
+	 * Método que devolve o URL do resultado
+	 * @return URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Método que devolve o título da página
+	 * @return título
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Método que devolve a descrição da página
+	 * @return descrição
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Método que devolve a pontuação de relevância
+	 * @return pontuação
+	 */
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * Método que devolve o resultado no formato apresentado aos clientes
+	 * @return resultado formatado
+	 */
+	@Override
+	public String toString() {
+		return url + " | Título: " + title + " | Descrição: " + description;
+	}
+}
@@ -0,0 +1,146 @@
+package googol.backend;
+
+import java.io.Serializable;
+import java.util.*;
+
+
+/**
+ * Classe que representa uma pesquisa enviada aos Barrels: um conjunto de palavras
+ * que têm de ocorrer todas e, opcionalmente, frases entre aspas cujas palavras
+ * têm de ocorrer seguidas ("universidade de coimbra"). O texto passa pela mesma
+ * análise ({@link Analyzer}) que as páginas indexadas
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class SearchQuery implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Todas as palavras da pesquisa, sem repetições (inclui as palavras das frases)
+	 */
+	private final List<String> terms = new ArrayList<>();
+
+	/**
+	 * Palavras indexáveis de cada frase
+	 */
+	private final List<String[]> phraseTerms = new ArrayList<>();
+
+	/**
+	 * Posição de cada palavra indexável dentro da respetiva frase
+	 */
+	private final List<int[]> phraseOffsets = new ArrayList<>();
+
+	/**
+	 * Método que cria uma pesquisa a partir do texto escrito pelo utilizador.
+	 * O texto entre aspas é tratado como uma frase, o restante como palavras soltas
+	 * @param input texto da pesquisa
+	 * @return pesquisa correspondente
+	 */
+	public static SearchQuery parse(String input) {
+		return parse(input, Analyzer.standard());
+	}
+
+	/**
+	 * Método que cria uma pesquisa a partir do texto escrito pelo utilizador, com uma dada análise
+	 * @param input texto da pesquisa
+	 * @param analyzer análise aplicada ao texto, a mesma usada ao indexar as páginas
+	 * @return pesquisa correspondente
+	 */
+	public static SearchQuery parse(String input, Analyzer analyzer) {
+		SearchQuery query = new SearchQuery();
+		String[] parts = input.split("\"", -1);
+		for (int i = 0; i < parts.length; i++) {
+			if (i % 2 == 0) {
+				for (Analyzer.Token token : analyzer.analyze(parts[i])) {
+					query.addTerm(token.getTerm());
+				}
+			} else {
+				query.addPhrase(analyzer.analyze(parts[i]));
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Método que cria uma pesquisa apenas com palavras soltas
+	 * @param words palavras a pesquisar
+	 * @return pesquisa correspondente
+	 */
+	public static SearchQuery of(String[] words) {
+		SearchQuery query = new SearchQuery();
+		if (words != null) {
+			for (String word : words) {
+				for (Analyzer.Token token : Analyzer.standard().analyze(word)) {
+					query.addTerm(token.getTerm());
+				}
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Método para acrescentar uma palavra solta à pesquisa
+	 * @param term palavra já analisada
+	 */
+	private void addTerm(String term) {
+		if (!terms.contains(term)) {
+			terms.add(term);
+		}
+	}
+
+	/**
+	 * Método para acrescentar uma frase à pesquisa. As palavras descartadas pela análise
+	 * (palavras comuns) deixam um intervalo entre as posições das restantes, tal como nas
+	 * páginas indexadas
+	 * @param tokens palavras analisadas da frase
+	 */
+	private void addPhrase(List<Analyzer.Token> tokens) {
+		String[] kept = new String[tokens.size()];
+		int[] offsets = new int[tokens.size()];
+		for (int i = 0; i < kept.length; i++) {
+			kept[i] = tokens.get(i).getTerm();
+			offsets[i] = tokens.get(i).getPosition();
+			addTerm(kept[i]);
+		}
+		if (kept.length > 1) {
+			phraseTerms.add(kept);
+			phraseOffsets.add(offsets);
+		}
+	}
+
+	/**
+	 * Método que devolve todas as palavras da pesquisa
+	 * @return lista de palavras sem repetições
+	 */
+	public List<String> getTerms() {
+		return terms;
+	}
+
+	/**
+	 * Método que devolve o número de frases da pesquisa
+	 * @return número de frases
+	 */
+	public int getPhraseCount() {
+		return phraseTerms.size();
+	}
+
+	/**
+	 * Método que devolve as palavras de uma frase
+	 * @param phrase índice da frase
+	 * @return palavras da frase, pela ordem em que aparecem
+	 */
+	public String[] getPhraseTerms(int phrase) {
+		return phraseTerms.get(phrase);
+	}
+
+	/**
+	 * Método que devolve a posição relativa de cada palavra de uma frase
+	 * @param phrase índice da frase
+	 * @return posição de cada palavra dentro da frase
+	 */
+	public int[] getPhraseOffsets(int phrase) {
+		return phraseOffsets.get(phrase);
+	}
+}
@@ -0,0 +1,578 @@
+package googol.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+
+/**
+ * Classe que representa o índice de palavras de um Barrel, dividido numa pequena
+ * tabela em memória, que recebe todas as escritas, e em segmentos imutáveis gravados
+ * em disco ({@link IndexSegment}). Quando a tabela em memória fica cheia é congelada
+ * (continua a ser pesquisada, mas deixa de receber escritas), gravada num segmento novo
+ * e substituída por uma tabela vazia. Os segmentos são depois juntos em segundo plano
+ * segundo uma política por níveis: segmentos de tamanho parecido ficam no mesmo nível
+ * e, quando um nível tem segmentos suficientes, são juntos num só do nível seguinte.
+ * As pesquisas leem uma fotografia imutável da tabela, da tabela congelada e dos
+ * segmentos e juntam as posting lists de cada palavra. Os URLs apagados ou indexados
+ * de novo são retirados diretamente da tabela em memória e marcados em {@link Tombstones},
+ * que esconde as suas ocorrências antigas nas outras partes até uma junção as eliminar
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class SegmentedIndex {
+
+	/**
+	 * Tamanho de um segmento do primeiro nível da política de junção
+	 */
+	static final long TIER_BASE_BYTES = 1L << 20;
+
+	/**
+	 * Tamanho máximo de um segmento produzido por uma junção, para poder ser mapeado de uma só vez
+	 */
+	static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	/**
+	 * Classe interna que representa uma fotografia das partes do índice
+	 */
+	private static final class View {
+
+		/**
+		 * Tabela em memória que recebe as escritas
+		 */
+		final Map<String, PostingList> memtable;
+
+		/**
+		 * Tabela congelada à espera de ser gravada num segmento, ou null
+		 */
+		final Map<String, PostingList> frozen;
+
+		/**
+		 * Segmentos gravados em disco
+		 */
+		final List<IndexSegment> segments;
+
+		/**
+		 * Geração da tabela em memória
+		 */
+		final int memtableGeneration;
+
+		/**
+		 * Geração da tabela congelada
+		 */
+		final int frozenGeneration;
+
+		/**
+		 * Construtor da classe
+		 * @param memtable tabela em memória
+		 * @param frozen tabela congelada ou null
+		 * @param segments segmentos gravados
+		 * @param memtableGeneration geração da tabela em memória
+		 * @param frozenGeneration geração da tabela congelada
+		 */
+		View(Map<String, PostingList> memtable, Map<String, PostingList> frozen, List<IndexSegment> segments, int memtableGeneration, int frozenGeneration) {
+			this.memtable = memtable;
+			this.frozen = frozen;
+			this.segments = segments;
+			this.memtableGeneration = memtableGeneration;
+			this.frozenGeneration = frozenGeneration;
+		}
+	}
+
+	/**
+	 * Fração de URLs apagados a partir da qual um segmento é reescrito sozinho para os eliminar
+	 */
+	static final double EXPUNGE_RATIO = 0.25;
+
+	/**
+	 * Fotografia atual, substituída por inteiro sempre que uma parte muda
+	 */
+	private volatile View view = new View(new ConcurrentHashMap<>(), null, Collections.emptyList(), 1, 0);
+
+	/**
+	 * URLs apagados ou substituídos, cujas ocorrências antigas são ignoradas
+	 */
+	private final Tombstones tombstones = new Tombstones();
+
+	/**
+	 * Lock que separa as escritas de palavras (partilhado) da troca da tabela em memória (exclusivo)
+	 */
+	private final ReadWriteLock switchLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Número de ocorrências guardadas na tabela em memória
+	 */
+	private final AtomicLong memtablePostings = new AtomicLong();
+
+	/**
+	 * Número de palavras distintas no índice
+	 */
+	private final AtomicInteger termCount = new AtomicInteger();
+
+	/**
+	 * Número de alterações ao conteúdo do índice, usado para saber se o dicionário de palavras está atualizado
+	 */
+	private final LongAdder changes = new LongAdder();
+
+	/**
+	 * Indica se já foi pedida a gravação da tabela em memória atual
+	 */
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+	/**
+	 * Número de ocorrências a partir do qual a tabela em memória é gravada num segmento
+	 */
+	private volatile long flushThreshold = Long.MAX_VALUE;
+
+	/**
+	 * Ação chamada quando a tabela em memória fica cheia
+	 */
+	private volatile Runnable flushListener = () -> { };
+
+	/**
+	 * Segmentos substituídos por uma junção, cujos ficheiros ainda não podem ser apagados
+	 */
+	private final List<IndexSegment> retired = new ArrayList<>();
+
+	/**
+	 * Função que devolve o número exato de URLs com uma palavra, ou -1 se não o conhecer
+	 */
+	private volatile ToIntFunction<String> documentFrequencies = term -> -1;
+
+	/**
+	 * Método para configurar quando a tabela em memória é gravada num segmento
+	 * @param threshold número de ocorrências a partir do qual a tabela está cheia
+	 * @param listener ação chamada (uma vez por tabela) quando a tabela fica cheia
+	 */
+	public void setFlushPolicy(long threshold, Runnable listener) {
+		this.flushThreshold = Math.max(1, threshold);
+		this.flushListener = listener;
+	}
+
+	/**
+	 * Método para indicar onde é contado o número exato de URLs com cada palavra, usado como
+	 * número de URLs dos cursores em vez da soma dos tamanhos das listas
+	 * @param documentFrequencies função que devolve o número de URLs de uma palavra, ou -1 se não o conhecer
+	 */
+	public void setDocumentFrequencies(ToIntFunction<String> documentFrequencies) {
+		this.documentFrequencies = documentFrequencies;
+	}
+
+	/**
+	 * Método que devolve o lock partilhado pelas escritas de palavras. Cada escrita (guardada
+	 * na tabela e no registo) fica assim inteira antes ou depois de uma troca da tabela em memória
+	 * @return lock das escritas
+	 */
+	public Lock ingestLock() {
+		return switchLock.readLock();
+	}
+
+	/**
+	 * Método que devolve o lock exclusivo usado para trocar a tabela em memória
+	 * @return lock da troca
+	 */
+	public Lock switchLock() {
+		return switchLock.writeLock();
+	}
+
+	/**
+	 * Método para registar uma ocorrência de uma palavra num URL
+	 * @param term palavra
+	 * @param docId identificador do URL
+	 * @param position posição da palavra no URL, negativa se for desconhecida
+	 * @return número de ocorrências novas registadas
+	 */
+	public int add(String term, int docId, int position) {
+		return add(term, docId, 1, (position >= 0) ? new int[] { position } : PostingList.NO_POSITIONS);
+	}
+
+	/**
+	 * Método para registar várias ocorrências de uma palavra num URL, na tabela em memória
+	 * @param term palavra
+	 * @param docId identificador do URL
+	 * @param freq número de ocorrências
+	 * @param positions posições ordenadas das ocorrências (pode estar vazio)
+	 * @return número de ocorrências novas registadas
+	 */
+	public int add(String term, int docId, int freq, int[] positions) {
+		View current = view;
+		PostingList docs = current.memtable.get(term);
+		if (docs == null) {
+			docs = current.memtable.computeIfAbsent(term, key -> {
+				if (!containsOutsideMemtable(current, key)) {
+					termCount.incrementAndGet();
+				}
+				return new PostingList();
+			});
+		}
+		int added = docs.add(docId, freq, positions);
+		changes.increment();
+		if (added > 0 && memtablePostings.addAndGet(added) >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+			flushListener.run();
+		}
+		return added;
+	}
+
+	/**
+	 * Método para retirar um URL do índice, antes de ser apagado ou indexado de novo: as suas
+	 * ocorrências na tabela em memória são retiradas e as das restantes partes passam a ser
+	 * ignoradas. Deve ser chamado com o lock de {@link #ingestLock()}, tal como as escritas
+	 * @param docId identificador do URL
+	 * @param terms palavras em que o URL tem ocorrências
+	 * @return número de ocorrências retiradas da tabela em memória
+	 */
+	public int delete(int docId, String[] terms) {
+		View current = view;
+		tombstones.mark(docId, current.memtableGeneration);
+		int removed = 0;
+		for (String term : terms) {
+			PostingList docs = current.memtable.get(term);
+			if (docs != null) {
+				removed += docs.remove(docId);
+			}
+		}
+		memtablePostings.addAndGet(-removed);
+		changes.increment();
+		return removed;
+	}
+
+	/**
+	 * Método que devolve os URLs apagados ou substituídos do índice
+	 * @return marcas dos URLs apagados
+	 */
+	public Tombstones tombstones() {
+		return tombstones;
+	}
+
+	/**
+	 * Método que verifica se uma palavra existe na tabela congelada ou nos segmentos
+	 * @param current fotografia do índice
+	 * @param term palavra
+	 * @return true se a palavra existir
+	 */
+	private static boolean containsOutsideMemtable(View current, String term) {
+		if (current.frozen != null && current.frozen.containsKey(term)) {
+			return true;
+		}
+		if (current.segments.isEmpty()) {
+			return false;
+		}
+		byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+		for (IndexSegment segment : current.segments) {
+			if (segment.contains(bytes)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Método que devolve um cursor sobre todas as ocorrências de uma palavra, juntando
+	 * a tabela em memória, a tabela congelada e os segmentos. As ocorrências de URLs
+	 * apagados são ignoradas, e o número de URLs do cursor (usado como frequência da palavra)
+	 * é o número exato de {@link #setDocumentFrequencies(ToIntFunction)}, que não conta as
+	 * versões antigas de uma página. Só enquanto não é conhecido (durante o carregamento) é a soma
+	 * dos tamanhos das listas
+	 * @param term palavra
+	 * @return cursor posicionado antes do primeiro identificador, ou null se a palavra não existir
+	 */
+	public PostingCursor cursor(String term) {
+		View current = view;
+		List<PostingList> lists = new ArrayList<>(current.segments.size() + 2);
+		int[] generations = new int[current.segments.size() + 2];
+		if (!current.segments.isEmpty()) {
+			byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+			for (IndexSegment segment : current.segments) {
+				addList(lists, generations, segment.postings(bytes), segment.getGeneration());
+			}
+		}
+		if (current.frozen != null) {
+			addList(lists, generations, current.frozen.get(term), current.frozenGeneration);
+		}
+		// A tabela em memória nunca tem ocorrências apagadas, são retiradas diretamente
+		addList(lists, generations, current.memtable.get(term), current.memtableGeneration);
+		if (lists.isEmpty()) {
+			return null;
+		}
+		int documentFrequency = documentFrequencies.applyAsInt(term);
+		if (lists.size() == 1 && (documentFrequency < 0 || documentFrequency == lists.get(0).size())) {
+			return tombstones.filter(lists.get(0).cursor(), generations[0]);
+		}
+		PostingCursor[] cursors = new PostingCursor[lists.size()];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = tombstones.filter(lists.get(i).cursor(), generations[i]);
+		}
+		return new MergedCursor(cursors, (documentFrequency >= 0) ? documentFrequency : MergedCursor.sizeBound(lists));
+	}
+
+	/**
+	 * Método para acrescentar uma posting list e a geração da parte de onde vem, se existir e não estiver vazia
+	 * @param lists posting lists encontradas
+	 * @param generations geração de cada posting list encontrada
+	 * @param docs posting list ou null
+	 * @param generation geração da parte do índice
+	 */
+	private static void addList(List<PostingList> lists, int[] generations, PostingList docs, int generation) {
+		if (docs != null && docs.size() > 0) {
+			generations[lists.size()] = generation;
+			lists.add(docs);
+		}
+	}
+
+	/**
+	 * Método que percorre todas as palavras do índice por ordem alfabética
+	 * @param action ação chamada com cada palavra e um cursor sobre as suas ocorrências
+	 */
+	public void forEachTerm(BiConsumer<String, PostingCursor> action) {
+		View current = view;
+		SortedSet<String> terms = new TreeSet<>(current.memtable.keySet());
+		if (current.frozen != null) {
+			terms.addAll(current.frozen.keySet());
+		}
+		IndexSegment.TermMerger merger = new IndexSegment.TermMerger(current.segments);
+		while (merger.next()) {
+			terms.add(new String(merger.term(), StandardCharsets.UTF_8));
+		}
+		for (String term : terms) {
+			PostingCursor cursor = cursor(term);
+			if (cursor != null) {
+				action.accept(term, cursor);
+			}
+		}
+	}
+
+	/**
+	 * Método que devolve o número de palavras distintas do índice
+	 * @return número de palavras
+	 */
+	public int termCount() {
+		return termCount.get();
+	}
+
+	/**
+	 * Método para recontar as palavras distintas, depois de o índice ser carregado
+	 * sem passar por {@link #add(String, int, int, int[])}
+	 */
+	public void recountTerms() {
+		View current = view;
+		int count = 0;
+		IndexSegment.TermMerger merger = new IndexSegment.TermMerger(current.segments);
+		while (merger.next()) {
+			count++;
+		}
+		for (String term : current.memtable.keySet()) {
+			if (!containsOutsideMemtable(current, term)) {
+				count++;
+			}
+		}
+		termCount.set(count);
+		changes.increment();
+	}
+
+	/**
+	 * Método que devolve a versão atual do conteúdo do índice, que muda a cada escrita
+	 * @return versão do índice
+	 */
+	public long version() {
+		return changes.sum();
+	}
+
+	/**
+	 * Método que devolve a tabela em memória atual
+	 * @return tabela em memória
+	 */
+	public Map<String, PostingList> memtable() {
+		return view.memtable;
+	}
+
+	/**
+	 * Método que indica se a tabela em memória atingiu o tamanho a partir do qual é gravada
+	 * @return true se a tabela estiver cheia
+	 */
+	public boolean isFull() {
+		return memtablePostings.get() >= flushThreshold;
+	}
+
+	/**
+	 * Método que congela a tabela em memória e começa uma tabela vazia. Deve ser chamado com
+	 * o lock de {@link #switchLock()}, para nenhuma escrita ficar dividida entre as duas tabelas
+	 * @return tabela congelada
+	 */
+	public synchronized Map<String, PostingList> freeze() {
+		View current = view;
+		view = new View(new ConcurrentHashMap<>(), current.memtable, current.segments, current.memtableGeneration + 1, current.memtableGeneration);
+		memtablePostings.set(0);
+		flushRequested.set(false);
+		return current.memtable;
+	}
+
+	/**
+	 * Método que devolve a tabela congelada à espera de ser gravada
+	 * @return tabela congelada ou null
+	 */
+	public Map<String, PostingList> frozen() {
+		return view.frozen;
+	}
+
+	/**
+	 * Método que devolve a geração da tabela congelada, que passa para o segmento onde é gravada
+	 * @return geração da tabela congelada
+	 */
+	public int frozenGeneration() {
+		return view.frozenGeneration;
+	}
+
+	/**
+	 * Método que devolve a geração da tabela em memória
+	 * @return geração da tabela em memória
+	 */
+	public int memtableGeneration() {
+		return view.memtableGeneration;
+	}
+
+	/**
+	 * Método que substitui a tabela congelada pelo segmento onde foi gravada
+	 * @param segment segmento gravado, ou null se a tabela congelada estava vazia
+	 */
+	public synchronized void install(IndexSegment segment) {
+		View current = view;
+		List<IndexSegment> segments = new ArrayList<>(current.segments);
+		if (segment != null) {
+			segments.add(segment);
+		}
+		view = new View(current.memtable, null, Collections.unmodifiableList(segments), current.memtableGeneration, 0);
+	}
+
+	/**
+	 * Método que define os segmentos do índice, ao carregar o barrel. A tabela em memória
+	 * fica com uma geração posterior à de todos os segmentos e URLs apagados
+	 * @param segments segmentos abertos
+	 */
+	public synchronized void setSegments(List<IndexSegment> segments) {
+		View current = view;
+		int generation = Math.max(current.memtableGeneration, tombstones.latestGeneration());
+		for (IndexSegment segment : segments) {
+			generation = Math.max(generation, segment.getGeneration() + 1);
+		}
+		view = new View(current.memtable, current.frozen, Collections.unmodifiableList(new ArrayList<>(segments)), generation, current.frozenGeneration);
+	}
+
+	/**
+	 * Método que devolve os segmentos atuais
+	 * @return segmentos, do mais antigo para o mais recente
+	 */
+	public List<IndexSegment> segments() {
+		return view.segments;
+	}
+
+	/**
+	 * Método que devolve os números dos segmentos atuais
+	 * @return números dos segmentos
+	 */
+	public long[] segmentIds() {
+		List<IndexSegment> segments = view.segments;
+		long[] ids = new long[segments.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = segments.get(i).getId();
+		}
+		return ids;
+	}
+
+	/**
+	 * Método que escolhe os segmentos a juntar segundo a política por níveis: o nível de um
+	 * segmento é log na base mergeFactor do seu tamanho em unidades de TIER_BASE_BYTES, e o
+	 * primeiro nível com mergeFactor segmentos tem os seus mergeFactor menores segmentos juntos.
+	 * Se nenhum nível estiver cheio, o primeiro segmento com pelo menos EXPUNGE_RATIO dos seus
+	 * URLs apagados é reescrito sozinho, para que o índice acompanhe os URLs que ainda existem
+	 * @param mergeFactor número de segmentos de um nível que são juntos
+	 * @return segmentos a juntar, ou null se nenhum nível estiver cheio nem nenhum segmento tiver de ser limpo
+	 */
+	public List<IndexSegment> mergeCandidates(int mergeFactor) {
+		Map<Integer, List<IndexSegment>> tiers = new TreeMap<>();
+		for (IndexSegment segment : view.segments) {
+			tiers.computeIfAbsent(tier(segment.sizeInBytes(), mergeFactor), key -> new ArrayList<>()).add(segment);
+		}
+		for (List<IndexSegment> tier : tiers.values()) {
+			if (tier.size() < mergeFactor) {
+				continue;
+			}
+			tier.sort(Comparator.comparingLong(IndexSegment::sizeInBytes));
+			List<IndexSegment> candidates = tier.subList(0, mergeFactor);
+			long total = 0;
+			for (IndexSegment segment : candidates) {
+				total += segment.sizeInBytes();
+			}
+			if (total <= MAX_SEGMENT_BYTES) {
+				return new ArrayList<>(candidates);
+			}
+		}
+		for (IndexSegment segment : view.segments) {
+			if (tombstones.affects(segment.getGeneration())
+					&& segment.deadDocuments(tombstones) >= EXPUNGE_RATIO * Math.max(1, segment.documentCount())) {
+				return new ArrayList<>(Collections.singletonList(segment));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Método que calcula o nível de um segmento na política de junção
+	 * @param bytes tamanho do segmento
+	 * @param mergeFactor número de segmentos de um nível que são juntos
+	 * @return nível do segmento
+	 */
+	private static int tier(long bytes, int mergeFactor) {
+		int tier = 0;
+		for (long limit = TIER_BASE_BYTES * mergeFactor; bytes >= limit && tier < 62; limit *= mergeFactor) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Método que substitui vários segmentos pelo segmento resultante da sua junção. Os segmentos
+	 * substituídos continuam legíveis pelas pesquisas em curso e ficam à espera de ser apagados
+	 * @param inputs segmentos juntos
+	 * @param merged segmento resultante, ou null se ficou vazio
+	 */
+	public synchronized void replace(List<IndexSegment> inputs, IndexSegment merged) {
+		View current = view;
+		List<IndexSegment> segments = new ArrayList<>(current.segments.size());
+		boolean added = false;
+		for (IndexSegment segment : current.segments) {
+			if (!inputs.contains(segment)) {
+				segments.add(segment);
+			} else if (!added && merged != null) {
+				segments.add(merged);
+				added = true;
+			}
+		}
+		view = new View(current.memtable, current.frozen, Collections.unmodifiableList(segments), current.memtableGeneration, current.frozenGeneration);
+		retired.addAll(inputs);
+	}
+
+	/**
+	 * Método que retira os segmentos substituídos que já não são referidos pelo último checkpoint gravado
+	 * @param committed números dos segmentos referidos pelo checkpoint
+	 * @return segmentos cujos ficheiros podem ser apagados
+	 */
+	public synchronized List<IndexSegment> drainRetired(long[] committed) {
+		List<IndexSegment> drained = new ArrayList<>();
+		for (Iterator<IndexSegment> iterator = retired.iterator(); iterator.hasNext();) {
+			IndexSegment segment = iterator.next();
+			boolean referenced = false;
+			for (long id : committed) {
+				referenced |= id == segment.getId();
+			}
+			if (!referenced) {
+				drained.add(segment);
+				iterator.remove();
+			}
+		}
+		return drained;
+	}
+}
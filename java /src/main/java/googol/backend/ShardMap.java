@@ -0,0 +1,156 @@
+package googol.backend;
+
+import java.util.*;
+
+
+/**
+ * Classe que representa a divisão do índice pelos Barrels, lida do config.properties
+ * (shardingMode, shardCount e replicationFactor). Sem divisão, todos os Barrels guardam
+ * o índice inteiro e são réplicas uns dos outros. Na divisão por palavras, cada palavra
+ * pertence a um único shard, escolhido pelo hash da palavra, e só os Barrels desse shard
+ * guardam as suas ocorrências. Na divisão por páginas, cada página pertence a um único
+ * shard, escolhido pelo hash do URL, e só os Barrels desse shard guardam as suas palavras,
+ * o título e a descrição. Os links das páginas continuam em todos os Barrels nos dois modos
+ * (o PageRank é calculado sobre o grafo inteiro), e na divisão por palavras também a informação.
+ * Os Barrels são atribuídos aos shards pelo seu número, em grupos de replicationFactor
+ * réplicas: com 2 shards e 2 réplicas, os Barrels 1 e 2 ficam no shard 0, os Barrels 3 e 4
+ * no shard 1, e os seguintes voltam ao shard 0
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class ShardMap {
+
+	/**
+	 * Modo sem divisão: todos os Barrels guardam o índice inteiro
+	 */
+	public static final String NONE = "none";
+
+	/**
+	 * Modo de divisão por palavras
+	 */
+	public static final String TERM = "term";
+
+	/**
+	 * Modo de divisão por páginas
+	 */
+	public static final String DOCUMENT = "document";
+
+	/**
+	 * Divisão usada quando o config.properties não define nenhuma
+	 */
+	public static final ShardMap DEFAULT = new ShardMap(NONE, 1, 1);
+
+	/**
+	 * Modo de divisão
+	 */
+	private final String mode;
+
+	/**
+	 * Número de shards
+	 */
+	private final int shardCount;
+
+	/**
+	 * Número de Barrels consecutivos atribuídos a cada shard
+	 */
+	private final int replicationFactor;
+
+	/**
+	 * Construtor da classe
+	 * @param mode modo de divisão
+	 * @param shardCount número de shards
+	 * @param replicationFactor número de réplicas de cada shard
+	 */
+	public ShardMap(String mode, int shardCount, int replicationFactor) {
+		if (!mode.equals(NONE) && !mode.equals(TERM) && !mode.equals(DOCUMENT)) {
+			throw new IllegalArgumentException("Modo de divisão desconhecido: " + mode);
+		}
+		this.mode = mode;
+		this.shardCount = mode.equals(NONE) ? 1 : Math.max(1, shardCount);
+		this.replicationFactor = Math.max(1, replicationFactor);
+	}
+
+	/**
+	 * Método que lê a divisão do índice das propriedades de configuração
+	 * @param properties propriedades lidas do config.properties
+	 * @return divisão configurada
+	 */
+	public static ShardMap fromProperties(Properties properties) {
+		return new ShardMap(properties.getProperty("shardingMode", NONE).trim().toLowerCase(),
+				Integer.parseInt(properties.getProperty("shardCount", "1").trim()),
+				Integer.parseInt(properties.getProperty("replicationFactor", "1").trim()));
+	}
+
+	/**
+	 * Método que indica se o índice está dividido pelos Barrels
+	 * @return true na divisão por palavras ou por páginas
+	 */
+	public boolean isPartitioned() {
+		return !mode.equals(NONE);
+	}
+
+	/**
+	 * Método que indica se o índice está dividido por palavras
+	 * @return true na divisão por palavras
+	 */
+	public boolean isTermPartitioned() {
+		return mode.equals(TERM);
+	}
+
+	/**
+	 * Método que indica se o índice está dividido por páginas
+	 * @return true na divisão por páginas
+	 */
+	public boolean isDocumentPartitioned() {
+		return mode.equals(DOCUMENT);
+	}
+
+	/**
+	 * Método que devolve o número de shards
+	 * @return número de shards, 1 sem divisão
+	 */
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * Método que devolve o número de réplicas de cada shard
+	 * @return número de réplicas
+	 */
+	public int getReplicationFactor() {
+		return replicationFactor;
+	}
+
+	/**
+	 * Método que devolve o shard de um Barrel
+	 * @param barrelNumber número do Barrel, a começar em 1
+	 * @return shard do Barrel
+	 */
+	public int shardOfBarrel(int barrelNumber) {
+		return ((Math.max(1, barrelNumber) - 1) / replicationFactor) % shardCount;
+	}
+
+	/**
+	 * Método que devolve o shard a que pertence uma chave (uma palavra, na divisão por palavras,
+	 * ou um URL, na divisão por páginas)
+	 * @param key chave
+	 * @return shard da chave
+	 */
+	public int shardOf(String key) {
+		return Math.floorMod(key.hashCode(), shardCount);
+	}
+
+	/**
+	 * Método que devolve a descrição da divisão, apresentada nas estatísticas
+	 * @return modo, shards e réplicas
+	 */
+	@Override
+	public String toString() {
+		if (!isPartitioned()) {
+			return "sem divisão, todos os Barrels são réplicas";
+		}
+		return String.format("divisão por %s em %d shards com %d réplicas",
+				isTermPartitioned() ? "palavras" : "páginas", shardCount, replicationFactor);
+	}
+}
@@ -0,0 +1,85 @@
+package googol.backend;
+
+import java.io.Serializable;
+
+
+/**
+ * Classe que representa as estatísticas que um Barrel envia ao Gateway para pontuar
+ * os resultados de uma pesquisa num índice dividido por palavras: o número de URLs da
+ * coleção e a soma dos comprimentos do shard, e o comprimento e a pontuação estática (PageRank
+ * com o respetivo peso) de cada URL pedido. Cada shard só conhece a parte do comprimento
+ * de um URL que corresponde às suas palavras, pelo que o Gateway soma os de todos os shards
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class ShardStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Número de URLs da coleção guardados no shard
+	 */
+	private final int documentCount;
+
+	/**
+	 * Soma dos comprimentos dos URLs no shard
+	 */
+	private final long totalLength;
+
+	/**
+	 * Comprimento de cada URL pedido no shard
+	 */
+	private final int[] lengths;
+
+	/**
+	 * Pontuação estática de cada URL pedido
+	 */
+	private final double[] staticScores;
+
+	/**
+	 * Construtor da classe
+	 * @param documentCount número de URLs da coleção
+	 * @param totalLength soma dos comprimentos dos URLs
+	 * @param lengths comprimento de cada URL pedido
+	 * @param staticScores pontuação estática de cada URL pedido
+	 */
+	public ShardStatistics(int documentCount, long totalLength, int[] lengths, double[] staticScores) {
+		this.documentCount = documentCount;
+		this.totalLength = totalLength;
+		this.lengths = lengths;
+		this.staticScores = staticScores;
+	}
+
+	/**
+	 * Método que devolve o número de URLs da coleção guardados no shard
+	 * @return número de URLs
+	 */
+	public int getDocumentCount() {
+		return documentCount;
+	}
+
+	/**
+	 * Método que devolve a soma dos comprimentos dos URLs no shard
+	 * @return soma dos comprimentos
+	 */
+	public long getTotalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Método que devolve o comprimento de cada URL pedido no shard
+	 * @return comprimentos, pela ordem dos URLs pedidos
+	 */
+	public int[] getLengths() {
+		return lengths;
+	}
+
+	/**
+	 * Método que devolve a pontuação estática de cada URL pedido
+	 * @return pontuações, pela ordem dos URLs pedidos
+	 */
+	public double[] getStaticScores() {
+		return staticScores;
+	}
+}
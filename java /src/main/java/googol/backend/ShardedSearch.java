@@ -0,0 +1,440 @@
+package googol.backend;
+
+import java.rmi.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+/**
+ * Classe usada pelo Gateway para responder a pesquisas num índice dividido ({@link ShardMap}).
+ * Na divisão por palavras, as ocorrências das palavras da pesquisa são pedidas a uma réplica
+ * do shard a que cada palavra pertence, um shard de cada vez: cada shard interseta as suas
+ * palavras e só devolve os URLs que estão entre os candidatos dos shards anteriores, com as
+ * posições apenas das palavras de frases. O Gateway junta as listas já cortadas, verifica as
+ * frases com as posições e só pede os comprimentos dos URLs que sobram. Os URLs comuns são pontuados com o mesmo
+ * BM25 dos Barrels: a frequência documental de cada palavra é exata, porque só um shard a
+ * guarda, o comprimento de cada URL é a soma dos comprimentos parciais de todos os shards, e o
+ * número de URLs da coleção é o de qualquer shard, porque todos os Barrels guardam a informação
+ * de todas as páginas.
+ * Na divisão por páginas, a pesquisa é enviada em paralelo a uma réplica de cada shard, em duas
+ * fases: primeiro as estatísticas de cada shard, que são somadas, e depois a pesquisa com as
+ * estatísticas somadas, para que os shards pontuem os seus URLs como se o índice fosse um só.
+ * Os melhores resultados de cada shard são juntos por ordem de pontuação com uma fila de
+ * prioridade, e a página pedida só é cortada depois da junção.
+ * Se uma réplica não responder, é usada a seguinte do mesmo shard
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class ShardedSearch {
+
+	/**
+	 * Interface que representa um pedido remoto a um Barrel
+	 * @param <T> tipo da resposta
+	 */
+	private interface RemoteCall<T> {
+
+		/**
+		 * Método que faz o pedido
+		 * @param barrel Barrel que responde
+		 * @return resposta do Barrel
+		 * @throws RemoteException se o Barrel não responder
+		 */
+		T call(BarrelInterface barrel) throws RemoteException;
+	}
+
+	/**
+	 * Divisão do índice pelos Barrels
+	 */
+	private final ShardMap shardMap;
+
+	/**
+	 * Shard de cada Barrel, pedido uma única vez a cada um
+	 */
+	private final Map<BarrelInterface, Integer> shards = new ConcurrentHashMap<>();
+
+	/**
+	 * Contador usado para repartir os pedidos pelas réplicas de cada shard
+	 */
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	/**
+	 * Threads que enviam os pedidos aos shards em paralelo
+	 */
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "gateway-shard");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Construtor da classe
+	 * @param shardMap divisão do índice
+	 */
+	public ShardedSearch(ShardMap shardMap) {
+		this.shardMap = shardMap;
+	}
+
+	/**
+	 * Método que devolve uma página dos resultados de uma pesquisa, do mais para o menos relevante
+	 * @param barrels Barrels registados
+	 * @param query pesquisa com as palavras e as frases
+	 * @param k número máximo de resultados
+	 * @param offset número de resultados melhores a saltar (páginas anteriores)
+	 * @return resultados da página
+	 */
+	public List<SearchHit> search(List<BarrelInterface> barrels, SearchQuery query, int k, int offset) {
+		if (query.getTerms().isEmpty() || k <= 0 || offset < 0) {
+			return new ArrayList<>();
+		}
+		Map<Integer, List<BarrelInterface>> replicas = replicasByShard(barrels);
+		return shardMap.isDocumentPartitioned()
+				? searchByDocument(replicas, query, k, offset)
+				: searchByTerm(replicas, query, k, offset);
+	}
+
+	/**
+	 * Método que responde a uma pesquisa num índice dividido por páginas
+	 * @param replicas réplicas de cada shard
+	 * @param query pesquisa com as palavras e as frases
+	 * @param k número máximo de resultados
+	 * @param offset número de resultados melhores a saltar (páginas anteriores)
+	 * @return resultados da página
+	 */
+	private List<SearchHit> searchByDocument(Map<Integer, List<BarrelInterface>> replicas, SearchQuery query, int k, int offset) {
+		List<String> terms = query.getTerms();
+		CollectionStatistics statistics = CollectionStatistics.sum(scatter(replicas, barrel -> barrel.getCollectionStatistics(terms)));
+		// Cada shard devolve os seus melhores resultados até ao fim da página pedida
+		int depth = (int) Math.min(Integer.MAX_VALUE, (long) offset + k);
+		return merge(scatter(replicas, barrel -> barrel.searchTopK(query, depth, 0, statistics)), k, offset);
+	}
+
+	/**
+	 * Método que responde a uma pesquisa num índice dividido por palavras
+	 * @param replicas réplicas de cada shard
+	 * @param query pesquisa com as palavras e as frases
+	 * @param k número máximo de resultados
+	 * @param offset número de resultados melhores a saltar (páginas anteriores)
+	 * @return resultados da página
+	 */
+	private List<SearchHit> searchByTerm(Map<Integer, List<BarrelInterface>> replicas, SearchQuery query, int k, int offset) {
+		List<String> terms = query.getTerms();
+
+		// Um único pedido por shard com todas as palavras da pesquisa que lhe pertencem
+		Map<Integer, List<String>> termsByShard = new TreeMap<>();
+		for (String term : terms) {
+			termsByShard.computeIfAbsent(shardMap.shardOf(term), key -> new ArrayList<>()).add(term);
+		}
+		Set<String> phraseTerms = new HashSet<>();
+		for (int p = 0; p < query.getPhraseCount(); p++) {
+			phraseTerms.addAll(Arrays.asList(query.getPhraseTerms(p)));
+		}
+		// Os shards com mais palavras da pesquisa têm a interseção mais pequena e são consultados primeiro;
+		// cada shard seguinte só devolve os URLs que ainda são candidatos
+		List<Map.Entry<Integer, List<String>>> shardOrder = new ArrayList<>(termsByShard.entrySet());
+		shardOrder.sort(Comparator.comparingInt(entry -> -entry.getValue().size()));
+		Map<String, TermPostings> postings = new HashMap<>();
+		List<String> restrict = null;
+		for (Map.Entry<Integer, List<String>> entry : shardOrder) {
+			List<String> candidates = restrict;
+			List<TermPostings> found = callReplica(replicas.get(entry.getKey()), barrel -> barrel.getPostings(entry.getValue(), phraseTerms, candidates));
+			if (found == null) {
+				System.err.println("Nenhuma réplica do shard " + entry.getKey() + " respondeu à pesquisa");
+				return new ArrayList<>();
+			}
+			for (TermPostings termPostings : found) {
+				postings.put(termPostings.getTerm(), termPostings);
+			}
+			restrict = Arrays.asList(found.get(0).getUrls());
+			if (restrict.isEmpty()) {
+				// Uma palavra inexistente, ou sem URLs em comum com as anteriores, torna a interseção vazia
+				return new ArrayList<>();
+			}
+		}
+
+		TermPostings[] lists = new TermPostings[terms.size()];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = postings.get(terms.get(i));
+			if (lists[i] == null || lists[i].getUrls().length == 0) {
+				// Uma palavra inexistente torna a interseção vazia
+				return new ArrayList<>();
+			}
+		}
+		Arrays.sort(lists, Comparator.comparingInt(list -> list.getUrls().length));
+		List<String> candidates = new ArrayList<>();
+		List<int[]> rows = new ArrayList<>();
+		intersect(query, lists, candidates, rows);
+		if (candidates.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		// Os comprimentos de cada URL estão repartidos pelos shards das suas palavras
+		int documentCount = 0;
+		long totalLength = 0;
+		int[] lengths = new int[candidates.size()];
+		double[] staticScores = null;
+		for (List<BarrelInterface> shardReplicas : replicas.values()) {
+			ShardStatistics statistics = callReplica(shardReplicas, barrel -> barrel.getShardStatistics(candidates));
+			if (statistics == null) {
+				continue;
+			}
+			// Todos os Barrels guardam a informação de todas as páginas, o número de URLs é o mesmo em todos os shards
+			documentCount = statistics.getDocumentCount();
+			totalLength += statistics.getTotalLength();
+			for (int i = 0; i < lengths.length; i++) {
+				lengths[i] += statistics.getLengths()[i];
+			}
+			if (staticScores == null) {
+				// Todos os Barrels guardam os links, o PageRank é o mesmo em todos os shards
+				staticScores = statistics.getStaticScores();
+			}
+		}
+		double averageLength = (documentCount == 0) ? 1.0 : (double) totalLength / documentCount;
+
+		double[] idfs = new double[lists.length];
+		for (int j = 0; j < lists.length; j++) {
+			idfs[j] = QueryEvaluator.idf(lists[j].getDocumentFrequency(), documentCount);
+		}
+		Integer[] order = new Integer[candidates.size()];
+		double[] scores = new double[candidates.size()];
+		for (int i = 0; i < scores.length; i++) {
+			double norm = QueryEvaluator.lengthNorm(lengths[i], averageLength);
+			for (int j = 0; j < lists.length; j++) {
+				scores[i] += QueryEvaluator.termScore(idfs[j], lists[j].getFrequencies()[rows.get(i)[j]], norm);
+			}
+			scores[i] += (staticScores != null) ? staticScores[i] : 0;
+			order[i] = i;
+		}
+		// Os empates são resolvidos pelo URL, pelo que páginas consecutivas são coerentes
+		Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> -scores[i]).thenComparing(candidates::get));
+
+		List<String> pageUrls = new ArrayList<>();
+		double[] pageScores = new double[Math.max(0, Math.min(k, order.length - offset))];
+		for (int i = 0; i < pageScores.length; i++) {
+			pageUrls.add(candidates.get(order[offset + i]));
+			pageScores[i] = scores[order[offset + i]];
+		}
+		if (pageUrls.isEmpty()) {
+			return new ArrayList<>();
+		}
+		List<SearchHit> hits = callReplica(allReplicas(replicas), barrel -> barrel.getSearchHits(pageUrls, pageScores));
+		return (hits != null) ? hits : new ArrayList<>();
+	}
+
+	/**
+	 * Método que junta os resultados ordenados de cada shard numa única lista ordenada, com uma
+	 * fila de prioridade que guarda o próximo resultado de cada shard, e devolve a página pedida.
+	 * Os empates são resolvidos pelo número do shard, pelo que páginas consecutivas são coerentes
+	 * @param results resultados de cada shard, do mais para o menos relevante
+	 * @param k número máximo de resultados
+	 * @param offset número de resultados melhores a saltar (páginas anteriores)
+	 * @return resultados da página
+	 */
+	private static List<SearchHit> merge(List<List<SearchHit>> results, int k, int offset) {
+		// Cada elemento da fila é um par shard, posição do próximo resultado do shard
+		PriorityQueue<int[]> heads = new PriorityQueue<>(
+				Comparator.<int[]>comparingDouble(head -> -results.get(head[0]).get(head[1]).getScore())
+						.thenComparingInt(head -> head[0]));
+		for (int shard = 0; shard < results.size(); shard++) {
+			if (!results.get(shard).isEmpty()) {
+				heads.add(new int[] { shard, 0 });
+			}
+		}
+		List<SearchHit> page = new ArrayList<>();
+		int skipped = 0;
+		while (!heads.isEmpty() && page.size() < k) {
+			int[] head = heads.poll();
+			List<SearchHit> shardResults = results.get(head[0]);
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				page.add(shardResults.get(head[1]));
+			}
+			if (++head[1] < shardResults.size()) {
+				heads.add(head);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Método que completa um prefixo juntando as palavras de uma réplica de cada shard
+	 * @param barrels Barrels registados
+	 * @param prefix prefixo a completar
+	 * @param limit número máximo de palavras
+	 * @return palavras, da mais para a menos frequente
+	 */
+	public List<String> suggest(List<BarrelInterface> barrels, String prefix, int limit) {
+		Map<String, Integer> counts = new HashMap<>();
+		for (List<BarrelInterface> shardReplicas : replicasByShard(barrels).values()) {
+			LinkedHashMap<String, Integer> found = callReplica(shardReplicas, barrel -> barrel.suggest(prefix, limit));
+			if (found != null) {
+				// Na divisão por páginas a mesma palavra pode existir em vários shards
+				found.forEach((term, count) -> counts.merge(term, count, Integer::sum));
+			}
+		}
+		List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+		List<String> suggestions = new ArrayList<>();
+		for (int i = 0; i < Math.min(limit, entries.size()); i++) {
+			suggestions.add(entries.get(i).getKey());
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Método que interseta as ocorrências das palavras e verifica as frases da pesquisa
+	 * @param query pesquisa com as frases
+	 * @param lists ocorrências de cada palavra, da lista mais pequena para a maior
+	 * @param candidates URLs que satisfazem a pesquisa, preenchido pelo método
+	 * @param rows posição de cada URL encontrado em cada lista, preenchido pelo método
+	 */
+	private static void intersect(SearchQuery query, TermPostings[] lists, List<String> candidates, List<int[]> rows) {
+		List<Map<String, Integer>> lookups = new ArrayList<>(lists.length);
+		Map<String, Integer> listOfTerm = new HashMap<>();
+		for (int j = 0; j < lists.length; j++) {
+			listOfTerm.put(lists[j].getTerm(), j);
+			Map<String, Integer> lookup = new HashMap<>();
+			if (j > 0) {
+				String[] urls = lists[j].getUrls();
+				for (int i = 0; i < urls.length; i++) {
+					lookup.put(urls[i], i);
+				}
+			}
+			lookups.add(lookup);
+		}
+		String[] first = lists[0].getUrls();
+		for (int i = 0; i < first.length; i++) {
+			int[] row = new int[lists.length];
+			row[0] = i;
+			boolean all = true;
+			for (int j = 1; j < lists.length && all; j++) {
+				Integer found = lookups.get(j).get(first[i]);
+				all = found != null;
+				row[j] = all ? found : 0;
+			}
+			if (all && matchesPhrases(query, lists, listOfTerm, row)) {
+				candidates.add(first[i]);
+				rows.add(row);
+			}
+		}
+	}
+
+	/**
+	 * Método que verifica se as frases da pesquisa ocorrem num URL comum a todas as listas
+	 * @param query pesquisa com as frases
+	 * @param lists ocorrências de cada palavra
+	 * @param listOfTerm posição da lista de cada palavra
+	 * @param row posição do URL em cada lista
+	 * @return true se todas as frases ocorrem
+	 */
+	private static boolean matchesPhrases(SearchQuery query, TermPostings[] lists, Map<String, Integer> listOfTerm, int[] row) {
+		for (int p = 0; p < query.getPhraseCount(); p++) {
+			String[] phraseTerms = query.getPhraseTerms(p);
+			int[][] positions = new int[phraseTerms.length][];
+			for (int t = 0; t < phraseTerms.length; t++) {
+				int j = listOfTerm.get(phraseTerms[t]);
+				positions[t] = lists[j].getPositions()[row[j]];
+			}
+			if (!QueryEvaluator.matchesPhrase(positions, query.getPhraseOffsets(p))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Método que agrupa os Barrels registados pelo seu shard
+	 * @param barrels Barrels registados
+	 * @return réplicas de cada shard
+	 */
+	private Map<Integer, List<BarrelInterface>> replicasByShard(List<BarrelInterface> barrels) {
+		Map<Integer, List<BarrelInterface>> replicas = new TreeMap<>();
+		for (BarrelInterface barrel : barrels) {
+			Integer shard = shards.get(barrel);
+			if (shard == null) {
+				try {
+					shard = barrel.getShard();
+					shards.put(barrel, shard);
+				} catch (RemoteException e) {
+					System.err.println("Erro ao obter o shard de um Barrel: " + e.getMessage());
+					continue;
+				}
+			}
+			replicas.computeIfAbsent(shard, key -> new ArrayList<>()).add(barrel);
+		}
+		return replicas;
+	}
+
+	/**
+	 * Método que envia o mesmo pedido a uma réplica de cada shard, em paralelo
+	 * @param replicas réplicas de cada shard
+	 * @param call pedido
+	 * @param <T> tipo da resposta
+	 * @return respostas dos shards que responderam, por ordem do número do shard
+	 */
+	private <T> List<T> scatter(Map<Integer, List<BarrelInterface>> replicas, RemoteCall<T> call) {
+		List<Future<T>> futures = new ArrayList<>();
+		for (int shard = 0; shard < shardMap.getShardCount(); shard++) {
+			List<BarrelInterface> shardReplicas = replicas.get(shard);
+			futures.add(executor.submit(() -> callReplica(shardReplicas, call)));
+		}
+		List<T> results = new ArrayList<>();
+		for (int shard = 0; shard < futures.size(); shard++) {
+			try {
+				T result = futures.get(shard).get();
+				if (result != null) {
+					results.add(result);
+				} else {
+					// Os resultados ficam incompletos, sem os URLs do shard
+					System.err.println("Nenhuma réplica do shard " + shard + " respondeu à pesquisa");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				System.err.println("Erro ao consultar o shard " + shard + ": " + e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Método que devolve todas as réplicas de todos os shards
+	 * @param replicas réplicas de cada shard
+	 * @return lista de Barrels
+	 */
+	private static List<BarrelInterface> allReplicas(Map<Integer, List<BarrelInterface>> replicas) {
+		List<BarrelInterface> all = new ArrayList<>();
+		for (List<BarrelInterface> shardReplicas : replicas.values()) {
+			all.addAll(shardReplicas);
+		}
+		return all;
+	}
+
+	/**
+	 * Método que faz um pedido a uma réplica de um shard, começando por uma réplica diferente
+	 * em cada pedido e passando à seguinte se a réplica não responder
+	 * @param replicas réplicas do shard, ou null se o shard não tiver nenhuma
+	 * @param call pedido
+	 * @param <T> tipo da resposta
+	 * @return resposta, ou null se nenhuma réplica respondeu
+	 */
+	private <T> T callReplica(List<BarrelInterface> replicas, RemoteCall<T> call) {
+		if (replicas == null || replicas.isEmpty()) {
+			return null;
+		}
+		int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+		for (int i = 0; i < replicas.size(); i++) {
+			BarrelInterface barrel = replicas.get((start + i) % replicas.size());
+			try {
+				return call.call(barrel);
+			} catch (RemoteException e) {
+				System.err.println("Réplica sem resposta, a tentar a seguinte: " + e.getMessage());
+				shards.remove(barrel);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,136 @@
+package googol.backend;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Classe que guarda, para cada palavra do índice (sem acentos e reduzida pelo stemmer), a
+ * forma original mais frequente nas páginas indexadas, usada para mostrar as sugestões de
+ * pesquisa como o utilizador as escreveria ("canção" em vez de "cancao"). Em vez de contar
+ * todas as formas de cada palavra, a forma mais frequente é escolhida por votação: cada
+ * palavra guarda uma só forma e um contador, que sobe quando uma página traz a mesma forma
+ * e desce quando traz outra, sendo a forma substituída quando o contador chega a zero.
+ * Só são guardadas as palavras com uma forma original diferente da palavra do índice
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class SurfaceForms {
+
+	/**
+	 * Classe que representa a forma escolhida para uma palavra e o seu contador
+	 */
+	static final class Vote {
+
+		/**
+		 * Forma original escolhida
+		 */
+		private String surface;
+
+		/**
+		 * Votos a favor da forma escolhida, descontados os das outras formas
+		 */
+		private int count;
+
+		/**
+		 * Método que devolve a forma original escolhida
+		 * @return forma original
+		 */
+		synchronized String getSurface() {
+			return surface;
+		}
+
+		/**
+		 * Método que devolve o contador da forma escolhida
+		 * @return votos a favor
+		 */
+		synchronized int getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Forma escolhida para cada palavra
+	 */
+	private final Map<String, Vote> votes = new ConcurrentHashMap<>();
+
+	/**
+	 * Palavras cuja forma mudou desde o último checkpoint
+	 */
+	private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Método para registar a forma original de uma palavra numa página
+	 * @param term palavra do índice
+	 * @param surface forma original, ou null se for igual à palavra
+	 */
+	public void add(String term, String surface) {
+		String form = (surface != null) ? surface : term;
+		// Uma palavra sem forma diferente só é guardada quando aparece outra forma
+		Vote vote = form.equals(term) ? votes.get(term) : votes.computeIfAbsent(term, key -> new Vote());
+		if (vote == null) {
+			return;
+		}
+		synchronized (vote) {
+			if (vote.count == 0) {
+				vote.surface = form;
+				vote.count = 1;
+			} else if (vote.surface.equals(form)) {
+				vote.count++;
+			} else {
+				vote.count--;
+			}
+		}
+		changed.add(term);
+	}
+
+	/**
+	 * Método que devolve a forma a mostrar para uma palavra do índice
+	 * @param term palavra do índice
+	 * @return forma original mais frequente, ou a própria palavra se não for conhecida
+	 */
+	public String get(String term) {
+		Vote vote = votes.get(term);
+		String surface = (vote != null) ? vote.getSurface() : null;
+		return (surface != null) ? surface : term;
+	}
+
+	/**
+	 * Método para repor a forma de uma palavra lida de um checkpoint
+	 * @param term palavra do índice
+	 * @param surface forma original
+	 * @param count votos a favor da forma
+	 */
+	public void restore(String term, String surface, int count) {
+		Vote vote = votes.computeIfAbsent(term, key -> new Vote());
+		synchronized (vote) {
+			vote.surface = surface;
+			vote.count = count;
+		}
+	}
+
+	/**
+	 * Método que devolve as formas a gravar num checkpoint e limpa as marcas de alteração.
+	 * Uma palavra alterada de novo depois de copiada fica para o checkpoint seguinte
+	 * @param full true para devolver todas as formas, false para só as que mudaram
+	 * @return forma de cada palavra
+	 */
+	public Map<String, Vote> checkpointEntries(boolean full) {
+		Map<String, Vote> entries = new HashMap<>();
+		if (full) {
+			changed.clear();
+			entries.putAll(votes);
+			return entries;
+		}
+		for (Iterator<String> iterator = changed.iterator(); iterator.hasNext();) {
+			String term = iterator.next();
+			iterator.remove();
+			Vote vote = votes.get(term);
+			if (vote != null) {
+				entries.put(term, vote);
+			}
+		}
+		return entries;
+	}
+}
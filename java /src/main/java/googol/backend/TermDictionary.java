@@ -0,0 +1,456 @@
+package googol.backend;
+
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ * Classe que representa o dicionário ordenado das palavras de um Barrel, usado para
+ * completar prefixos. As palavras ficam num único array de bytes, em UTF-8 e pela ordem
+ * dos bytes (a mesma dos segmentos), em blocos de BLOCK_SIZE palavras: a primeira palavra
+ * de cada bloco é guardada inteira e as seguintes apenas com o número de bytes em comum
+ * com a anterior e o resto (front coding). Cada palavra guarda o número de URLs em que
+ * ocorre, e uma árvore de segmentos com a palavra mais frequente de cada intervalo permite
+ * obter as k palavras mais frequentes com um prefixo sem percorrer todas as que o têm.
+ * Um índice de trigramas ({@link TrigramIndex}) sobre as mesmas palavras permite corrigir
+ * palavras escritas com erros. O dicionário é imutável e é reconstruído a partir do índice
+ * quando este muda
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class TermDictionary {
+
+	/**
+	 * Número de palavras de cada bloco, só a primeira é guardada inteira
+	 */
+	static final int BLOCK_SIZE = 16;
+
+	/**
+	 * Dicionário vazio, usado enquanto o primeiro dicionário não está construído
+	 */
+	static final TermDictionary EMPTY = new TermDictionary(new byte[0], new int[0], new int[0], TrigramIndex.EMPTY, -1);
+
+	/**
+	 * Palavras codificadas em blocos
+	 */
+	private final byte[] terms;
+
+	/**
+	 * Posição do início de cada bloco em terms
+	 */
+	private final int[] blockOffsets;
+
+	/**
+	 * Número de URLs em que ocorre cada palavra, pela ordem das palavras
+	 */
+	private final int[] docFreqs;
+
+	/**
+	 * Árvore de segmentos com a posição da palavra mais frequente de cada intervalo (-1 se vazio)
+	 */
+	private final int[] tree;
+
+	/**
+	 * Número de folhas da árvore, a menor potência de 2 maior ou igual ao número de palavras
+	 */
+	private final int leaves;
+
+	/**
+	 * Índice de trigramas das palavras, usado para as correções
+	 */
+	private final TrigramIndex trigrams;
+
+	/**
+	 * Versão do índice a partir da qual o dicionário foi construído
+	 */
+	private final long version;
+
+	/**
+	 * Construtor da classe
+	 * @param terms palavras codificadas em blocos
+	 * @param blockOffsets posição do início de cada bloco
+	 * @param docFreqs número de URLs de cada palavra
+	 * @param trigrams índice de trigramas das palavras
+	 * @param version versão do índice
+	 */
+	private TermDictionary(byte[] terms, int[] blockOffsets, int[] docFreqs, TrigramIndex trigrams, long version) {
+		this.terms = terms;
+		this.blockOffsets = blockOffsets;
+		this.docFreqs = docFreqs;
+		this.trigrams = trigrams;
+		this.version = version;
+		int leaves = 1;
+		while (leaves < docFreqs.length) {
+			leaves <<= 1;
+		}
+		this.leaves = leaves;
+		this.tree = new int[2 * leaves];
+		Arrays.fill(tree, -1);
+		for (int i = 0; i < docFreqs.length; i++) {
+			tree[leaves + i] = i;
+		}
+		for (int node = leaves - 1; node > 0; node--) {
+			tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+		}
+	}
+
+	/**
+	 * Método que constrói o dicionário com todas as palavras de um índice
+	 * @param index índice do barrel
+	 * @return dicionário construído
+	 */
+	public static TermDictionary build(SegmentedIndex index) {
+		// A versão é lida antes de percorrer o índice, as escritas durante a construção deixam o dicionário desatualizado
+		long version = index.version();
+		List<Map.Entry<byte[], Integer>> entries = new ArrayList<>(index.termCount());
+		index.forEachTerm((term, cursor) -> entries.add(new AbstractMap.SimpleEntry<>(term.getBytes(StandardCharsets.UTF_8), cursor.cost())));
+		entries.sort((first, second) -> Arrays.compareUnsigned(first.getKey(), second.getKey()));
+
+		long capacity = 0;
+		for (Map.Entry<byte[], Integer> entry : entries) {
+			capacity += entry.getKey().length + 10;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, capacity));
+		int[] blockOffsets = new int[(entries.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		int[] docFreqs = new int[entries.size()];
+		byte[] previous = new byte[0];
+		List<String> words = new ArrayList<>(docFreqs.length);
+		for (int i = 0; i < docFreqs.length; i++) {
+			byte[] term = entries.get(i).getKey();
+			words.add(new String(term, StandardCharsets.UTF_8));
+			int shared = 0;
+			if (i % BLOCK_SIZE == 0) {
+				blockOffsets[i / BLOCK_SIZE] = buffer.position();
+			} else {
+				int mismatch = Arrays.mismatch(previous, term);
+				shared = (mismatch < 0) ? term.length : mismatch;
+				PostingBlock.writeVarint(buffer, shared);
+			}
+			PostingBlock.writeVarint(buffer, term.length - shared);
+			buffer.put(term, shared, term.length - shared);
+			docFreqs[i] = entries.get(i).getValue();
+			previous = term;
+		}
+		return new TermDictionary(Arrays.copyOf(buffer.array(), buffer.position()), blockOffsets, docFreqs,
+				TrigramIndex.build(words), version);
+	}
+
+	/**
+	 * Método que devolve a versão do índice a partir da qual o dicionário foi construído
+	 * @return versão do índice, -1 para o dicionário vazio
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Método que devolve o número de palavras do dicionário
+	 * @return número de palavras
+	 */
+	public int size() {
+		return docFreqs.length;
+	}
+
+	/**
+	 * Método que devolve o número de bytes ocupados pelas palavras codificadas
+	 * @return número de bytes
+	 */
+	public int sizeInBytes() {
+		return terms.length;
+	}
+
+	/**
+	 * Método que devolve as palavras mais frequentes que começam por um prefixo
+	 * @param prefix prefixo, já em minúsculas
+	 * @param limit número máximo de palavras
+	 * @return palavras e respetivo número de URLs, da mais para a menos frequente
+	 */
+	public LinkedHashMap<String, Integer> complete(String prefix, int limit) {
+		LinkedHashMap<String, Integer> completions = new LinkedHashMap<>();
+		if (limit <= 0 || docFreqs.length == 0) {
+			return completions;
+		}
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		byte[] end = successor(key);
+		int from = lowerBound(key);
+		int to = (end == null) ? docFreqs.length : lowerBound(end);
+
+		// Cada intervalo é representado pela sua palavra mais frequente; ao retirar uma palavra
+		// o intervalo é dividido nas partes à esquerda e à direita dela
+		PriorityQueue<int[]> ranges = new PriorityQueue<>((first, second) -> (docFreqs[first[2]] != docFreqs[second[2]])
+				? Integer.compare(docFreqs[second[2]], docFreqs[first[2]])
+				: Integer.compare(first[2], second[2]));
+		addRange(ranges, from, to);
+		Reader reader = new Reader();
+		while (completions.size() < limit && !ranges.isEmpty()) {
+			int[] range = ranges.poll();
+			completions.put(reader.termAt(range[2]), docFreqs[range[2]]);
+			addRange(ranges, range[0], range[2]);
+			addRange(ranges, range[2] + 1, range[1]);
+		}
+		return completions;
+	}
+
+	/**
+	 * Método que devolve as palavras do dicionário mais parecidas com uma palavra escrita com erros.
+	 * As candidatas vêm do índice de trigramas e só essas são comparadas com a palavra
+	 * @param word palavra, já em minúsculas
+	 * @param limit número máximo de palavras
+	 * @return palavras e respetivo número de URLs, primeiro as de menor distância e, com a mesma
+	 *         distância, as mais frequentes
+	 */
+	public LinkedHashMap<String, Integer> corrections(String word, int limit) {
+		LinkedHashMap<String, Integer> corrections = new LinkedHashMap<>();
+		int maxEdits = maxEdits(word.length());
+		if (limit <= 0 || maxEdits == 0) {
+			return corrections;
+		}
+		// Cada entrada é {distância, posição da palavra}
+		List<int[]> matches = new ArrayList<>();
+		Reader reader = new Reader();
+		for (int candidate : trigrams.candidates(word, maxEdits)) {
+			String term = reader.termAt(candidate);
+			int distance = editDistance(word, term, maxEdits);
+			if (distance > 0 && distance <= maxEdits) {
+				matches.add(new int[] { distance, candidate });
+			}
+		}
+		matches.sort((first, second) -> (first[0] != second[0]) ? Integer.compare(first[0], second[0])
+				: (docFreqs[first[1]] != docFreqs[second[1]]) ? Integer.compare(docFreqs[second[1]], docFreqs[first[1]])
+				: Integer.compare(first[1], second[1]));
+		for (int i = 0; i < Math.min(limit, matches.size()); i++) {
+			corrections.put(reader.termAt(matches.get(i)[1]), docFreqs[matches.get(i)[1]]);
+		}
+		return corrections;
+	}
+
+	/**
+	 * Método que devolve o número máximo de edições aceite numa correção, segundo o comprimento
+	 * da palavra: palavras curtas não são corrigidas e palavras longas aceitam mais erros
+	 * @param length número de caracteres da palavra
+	 * @return número máximo de edições
+	 */
+	static int maxEdits(int length) {
+		if (length < 3) {
+			return 0;
+		}
+		return (length < 6) ? 1 : 2;
+	}
+
+	/**
+	 * Método que calcula a distância de edição entre duas palavras, contando inserções, remoções,
+	 * substituições e trocas de letras vizinhas. O cálculo para quando a distância já excede o máximo
+	 * @param first primeira palavra
+	 * @param second segunda palavra
+	 * @param max distância máxima que interessa
+	 * @return distância entre as palavras, ou max + 1 se for maior do que max
+	 */
+	static int editDistance(String first, String second, int max) {
+		if (Math.abs(first.length() - second.length()) > max) {
+			return max + 1;
+		}
+		int[] beforePrevious = new int[second.length() + 1];
+		int[] previous = new int[second.length() + 1];
+		int[] current = new int[second.length() + 1];
+		for (int j = 0; j <= second.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= first.length(); i++) {
+			current[0] = i;
+			int rowMin = current[0];
+			for (int j = 1; j <= second.length(); j++) {
+				int cost = (first.charAt(i - 1) == second.charAt(j - 1)) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && first.charAt(i - 1) == second.charAt(j - 2) && first.charAt(i - 2) == second.charAt(j - 1)) {
+					current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+				}
+				rowMin = Math.min(rowMin, current[j]);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+			int[] oldest = beforePrevious;
+			beforePrevious = previous;
+			previous = current;
+			current = oldest;
+		}
+		return Math.min(previous[second.length()], max + 1);
+	}
+
+	/**
+	 * Método para acrescentar um intervalo de palavras à fila, se não estiver vazio
+	 * @param ranges fila de intervalos
+	 * @param from primeira palavra do intervalo
+	 * @param to posição a seguir à última palavra do intervalo
+	 */
+	private void addRange(PriorityQueue<int[]> ranges, int from, int to) {
+		if (from < to) {
+			ranges.add(new int[] { from, to, mostFrequent(from, to) });
+		}
+	}
+
+	/**
+	 * Método que devolve a palavra mais frequente de um intervalo, percorrendo a árvore de segmentos
+	 * @param from primeira palavra do intervalo
+	 * @param to posição a seguir à última palavra do intervalo
+	 * @return posição da palavra mais frequente (a primeira, em caso de empate)
+	 */
+	private int mostFrequent(int from, int to) {
+		int best = -1;
+		for (int left = from + leaves, right = to + leaves; left < right; left >>= 1, right >>= 1) {
+			if ((left & 1) == 1) {
+				best = better(best, tree[left++]);
+			}
+			if ((right & 1) == 1) {
+				best = better(best, tree[--right]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Método que escolhe a mais frequente de duas palavras
+	 * @param first posição da primeira palavra, -1 se não existir
+	 * @param second posição da segunda palavra, -1 se não existir
+	 * @return posição da palavra mais frequente, a menor em caso de empate
+	 */
+	private int better(int first, int second) {
+		if (first < 0 || second < 0) {
+			return Math.max(first, second);
+		}
+		if (docFreqs[first] != docFreqs[second]) {
+			return (docFreqs[first] > docFreqs[second]) ? first : second;
+		}
+		return Math.min(first, second);
+	}
+
+	/**
+	 * Método que devolve a menor sequência de bytes maior do que todas as que começam por um prefixo
+	 * @param prefix prefixo
+	 * @return sequência seguinte, ou null se não existir (todas as palavras são maiores ou iguais ao prefixo)
+	 */
+	private static byte[] successor(byte[] prefix) {
+		for (int i = prefix.length - 1; i >= 0; i--) {
+			if (prefix[i] != (byte) 0xFF) {
+				byte[] next = Arrays.copyOf(prefix, i + 1);
+				next[i]++;
+				return next;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Método que devolve a posição da primeira palavra maior ou igual a uma chave
+	 * @param key chave em UTF-8
+	 * @return posição da palavra, size() se todas forem menores
+	 */
+	private int lowerBound(byte[] key) {
+		Reader reader = new Reader();
+		// Último bloco cuja primeira palavra é menor do que a chave
+		int block = -1;
+		int low = 0;
+		int high = blockOffsets.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			reader.seek(middle);
+			reader.next();
+			if (reader.compareTo(key) < 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (block < 0) {
+			return 0;
+		}
+		reader.seek(block);
+		int end = Math.min(docFreqs.length, (block + 1) * BLOCK_SIZE);
+		for (int i = block * BLOCK_SIZE; i < end; i++) {
+			reader.next();
+			if (reader.compareTo(key) >= 0) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Classe interna que descodifica as palavras de um bloco, uma a uma
+	 */
+	private final class Reader {
+
+		/**
+		 * Palavras codificadas, lidas por posição absoluta
+		 */
+		private final ByteBuffer buffer = ByteBuffer.wrap(terms);
+
+		/**
+		 * Posição de leitura em buffer
+		 */
+		private final int[] offset = new int[1];
+
+		/**
+		 * Bytes da palavra atual
+		 */
+		private byte[] term = new byte[32];
+
+		/**
+		 * Número de bytes da palavra atual
+		 */
+		private int length;
+
+		/**
+		 * Posição da palavra atual no bloco
+		 */
+		private int inBlock;
+
+		/**
+		 * Método para posicionar o leitor antes da primeira palavra de um bloco
+		 * @param block número do bloco
+		 */
+		void seek(int block) {
+			offset[0] = blockOffsets[block];
+			inBlock = 0;
+		}
+
+		/**
+		 * Método que descodifica a palavra seguinte do bloco
+		 */
+		void next() {
+			int shared = (inBlock++ == 0) ? 0 : PostingBlock.readVarint(buffer, offset);
+			int suffix = PostingBlock.readVarint(buffer, offset);
+			if (shared + suffix > term.length) {
+				term = Arrays.copyOf(term, Math.max(2 * term.length, shared + suffix));
+			}
+			System.arraycopy(terms, offset[0], term, shared, suffix);
+			offset[0] += suffix;
+			length = shared + suffix;
+		}
+
+		/**
+		 * Método que compara a palavra atual com uma chave, pela ordem dos bytes
+		 * @param key chave em UTF-8
+		 * @return valor negativo, zero ou positivo se a palavra for menor, igual ou maior
+		 */
+		int compareTo(byte[] key) {
+			return Arrays.compareUnsigned(term, 0, length, key, 0, key.length);
+		}
+
+		/**
+		 * Método que descodifica a palavra numa posição do dicionário
+		 * @param index posição da palavra
+		 * @return palavra
+		 */
+		String termAt(int index) {
+			seek(index / BLOCK_SIZE);
+			for (int i = index % BLOCK_SIZE; i >= 0; i--) {
+				next();
+			}
+			return new String(term, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+}
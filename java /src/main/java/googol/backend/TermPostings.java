@@ -0,0 +1,101 @@
+package googol.backend;
+
+import java.io.Serializable;
+
+
+/**
+ * Classe que representa as ocorrências de uma palavra enviadas por um Barrel ao Gateway,
+ * quando o índice está dividido por palavras e a pesquisa é juntada no Gateway. Só seguem
+ * os URLs que contêm todas as palavras da pesquisa do mesmo shard (e que estão entre os
+ * candidatos dos shards já consultados), com as posições apenas para as palavras de frases.
+ * O número de URLs da palavra segue à parte, porque a lista já vem cortada. Os URLs
+ * seguem por extenso, porque os identificadores de cada Barrel não são partilhados
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class TermPostings implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Palavra
+	 */
+	private final String term;
+
+	/**
+	 * URLs onde a palavra ocorre
+	 */
+	private final String[] urls;
+
+	/**
+	 * Número de ocorrências da palavra em cada URL
+	 */
+	private final int[] frequencies;
+
+	/**
+	 * Posições ordenadas das ocorrências em cada URL (vazio se forem desconhecidas ou não pedidas)
+	 */
+	private final int[][] positions;
+
+	/**
+	 * Número de URLs do shard onde a palavra ocorre, antes da interseção
+	 */
+	private final int documentFrequency;
+
+	/**
+	 * Construtor da classe
+	 * @param term palavra
+	 * @param urls URLs onde a palavra ocorre
+	 * @param frequencies número de ocorrências em cada URL
+	 * @param positions posições das ocorrências em cada URL
+	 * @param documentFrequency número de URLs onde a palavra ocorre, antes da interseção
+	 */
+	public TermPostings(String term, String[] urls, int[] frequencies, int[][] positions, int documentFrequency) {
+		this.term = term;
+		this.urls = urls;
+		this.frequencies = frequencies;
+		this.positions = positions;
+		this.documentFrequency = documentFrequency;
+	}
+
+	/**
+	 * Método que devolve a palavra
+	 * @return palavra
+	 */
+	public String getTerm() {
+		return term;
+	}
+
+	/**
+	 * Método que devolve os URLs onde a palavra ocorre
+	 * @return URLs
+	 */
+	public String[] getUrls() {
+		return urls;
+	}
+
+	/**
+	 * Método que devolve o número de ocorrências da palavra em cada URL
+	 * @return frequências, pela ordem dos URLs
+	 */
+	public int[] getFrequencies() {
+		return frequencies;
+	}
+
+	/**
+	 * Método que devolve as posições das ocorrências em cada URL
+	 * @return posições, pela ordem dos URLs
+	 */
+	public int[][] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Método que devolve o número de URLs do shard onde a palavra ocorre, usado no idf
+	 * @return número de URLs, antes da interseção
+	 */
+	public int getDocumentFrequency() {
+		return documentFrequency;
+	}
+}
@@ -0,0 +1,248 @@
+package googol.backend;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+/**
+ * Classe que guarda os URLs apagados ou substituídos do índice de um Barrel. Cada parte
+ * do índice (tabela em memória, tabela congelada, segmento) tem uma geração: a tabela em
+ * memória começa uma geração nova sempre que é trocada, e um segmento fica com a geração
+ * da tabela de onde veio (ou, numa junção, com a maior das gerações juntas). Quando um URL
+ * é apagado ou volta a ser indexado, as suas ocorrências na tabela em memória são retiradas
+ * diretamente e fica registada a geração atual da tabela: as ocorrências do URL nas partes
+ * de gerações anteriores, que são imutáveis, passam a ser ignoradas pelas pesquisas, e só
+ * desaparecem dos ficheiros quando os segmentos são juntos ou reescritos em segundo plano
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class Tombstones {
+
+	/**
+	 * Número de URLs guardados em cada página
+	 */
+	private static final int PAGE_SIZE = 4096;
+
+	/**
+	 * Páginas com a geração a partir da qual as ocorrências de cada URL são válidas (0 se nunca foi apagado)
+	 */
+	private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[0];
+
+	/**
+	 * Maior geração registada, para as partes mais recentes não precisarem de ser filtradas
+	 */
+	private final AtomicInteger maxGeneration = new AtomicInteger();
+
+	/**
+	 * URLs apagados desde o último checkpoint
+	 */
+	private final Set<Integer> changed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Método para registar que as ocorrências de um URL nas partes anteriores a uma geração deixaram de ser válidas
+	 * @param docId identificador do URL
+	 * @param generation geração da tabela em memória no momento em que o URL foi apagado
+	 */
+	public void mark(int docId, int generation) {
+		AtomicIntegerArray page = page(docId);
+		page.accumulateAndGet(docId % PAGE_SIZE, generation, Math::max);
+		maxGeneration.accumulateAndGet(generation, Math::max);
+		changed.add(docId);
+	}
+
+	/**
+	 * Método para repor a geração de um URL lida de um checkpoint, sem a marcar como alterada
+	 * @param docId identificador do URL
+	 * @param generation geração gravada
+	 */
+	public void restore(int docId, int generation) {
+		page(docId).accumulateAndGet(docId % PAGE_SIZE, generation, Math::max);
+		maxGeneration.accumulateAndGet(generation, Math::max);
+	}
+
+	/**
+	 * Método que devolve a geração a partir da qual as ocorrências de um URL são válidas
+	 * @param docId identificador do URL
+	 * @return geração, 0 se o URL nunca foi apagado
+	 */
+	public int generation(int docId) {
+		AtomicIntegerArray[] current = pages;
+		int page = docId / PAGE_SIZE;
+		return (page < current.length) ? current[page].get(docId % PAGE_SIZE) : 0;
+	}
+
+	/**
+	 * Método que indica se as ocorrências de um URL numa parte do índice foram apagadas
+	 * @param docId identificador do URL
+	 * @param generation geração da parte do índice
+	 * @return true se as ocorrências devem ser ignoradas
+	 */
+	public boolean isDeleted(int docId, int generation) {
+		return generation(docId) > generation;
+	}
+
+	/**
+	 * Método que devolve a maior geração registada
+	 * @return geração, 0 se nenhum URL foi apagado
+	 */
+	public int latestGeneration() {
+		return maxGeneration.get();
+	}
+
+	/**
+	 * Método que indica se uma parte do índice pode conter ocorrências apagadas
+	 * @param generation geração da parte do índice
+	 * @return true se algum URL foi apagado depois da geração
+	 */
+	public boolean affects(int generation) {
+		return maxGeneration.get() > generation;
+	}
+
+	/**
+	 * Método que devolve um cursor que ignora as ocorrências apagadas de uma parte do índice.
+	 * As partes que não podem conter ocorrências apagadas não são filtradas
+	 * @param cursor cursor sobre as ocorrências da parte
+	 * @param generation geração da parte do índice
+	 * @return cursor filtrado, ou o próprio cursor
+	 */
+	public PostingCursor filter(PostingCursor cursor, int generation) {
+		return affects(generation) ? new LiveCursor(cursor, generation) : cursor;
+	}
+
+	/**
+	 * Método que copia as gerações registadas, para um checkpoint
+	 * @param onlyChanged true para copiar só os URLs apagados desde a cópia anterior
+	 * @return pares identificador, geração
+	 */
+	public int[][] checkpointEntries(boolean onlyChanged) {
+		List<Integer> docIds = new ArrayList<>();
+		if (onlyChanged) {
+			for (Iterator<Integer> iterator = changed.iterator(); iterator.hasNext();) {
+				docIds.add(iterator.next());
+				iterator.remove();
+			}
+		} else {
+			changed.clear();
+			AtomicIntegerArray[] current = pages;
+			for (int page = 0; page < current.length; page++) {
+				for (int i = 0; i < PAGE_SIZE; i++) {
+					if (current[page].get(i) != 0) {
+						docIds.add(page * PAGE_SIZE + i);
+					}
+				}
+			}
+		}
+		int[][] entries = new int[docIds.size()][];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new int[] { docIds.get(i), generation(docIds.get(i)) };
+		}
+		return entries;
+	}
+
+	/**
+	 * Método que devolve a página que contém um identificador, criando-a se necessário
+	 * @param docId identificador do URL
+	 * @return página de gerações
+	 */
+	private AtomicIntegerArray page(int docId) {
+		int page = docId / PAGE_SIZE;
+		AtomicIntegerArray[] current = pages;
+		if (page < current.length) {
+			return current[page];
+		}
+		synchronized (this) {
+			current = pages;
+			if (page >= current.length) {
+				AtomicIntegerArray[] grown = Arrays.copyOf(current, page + 1);
+				for (int i = current.length; i < grown.length; i++) {
+					grown[i] = new AtomicIntegerArray(PAGE_SIZE);
+				}
+				pages = grown;
+				current = grown;
+			}
+			return current[page];
+		}
+	}
+
+	/**
+	 * Classe interna que percorre as ocorrências de uma parte do índice saltando os URLs apagados.
+	 * Os limites de frequência e o número de URLs são os da parte inteira, que continuam a ser
+	 * limites superiores válidos
+	 */
+	private final class LiveCursor implements PostingCursor {
+
+		/**
+		 * Cursor sobre todas as ocorrências da parte
+		 */
+		private final PostingCursor cursor;
+
+		/**
+		 * Geração da parte do índice
+		 */
+		private final int generation;
+
+		/**
+		 * Construtor da classe
+		 * @param cursor cursor sobre todas as ocorrências da parte
+		 * @param generation geração da parte do índice
+		 */
+		private LiveCursor(PostingCursor cursor, int generation) {
+			this.cursor = cursor;
+			this.generation = generation;
+		}
+
+		@Override
+		public int cost() {
+			return cursor.cost();
+		}
+
+		@Override
+		public int docId() {
+			return cursor.docId();
+		}
+
+		@Override
+		public int freq() {
+			return cursor.freq();
+		}
+
+		@Override
+		public int[] positions() {
+			return cursor.positions();
+		}
+
+		@Override
+		public int maxFreqFrom(int target) {
+			return cursor.maxFreqFrom(target);
+		}
+
+		@Override
+		public int maxFreqUpTo() {
+			return cursor.maxFreqUpTo();
+		}
+
+		@Override
+		public int nextDoc() {
+			return skipDeleted(cursor.nextDoc());
+		}
+
+		@Override
+		public int advance(int target) {
+			return skipDeleted(cursor.advance(target));
+		}
+
+		/**
+		 * Método que avança o cursor enquanto estiver num URL apagado
+		 * @param doc identificador atual
+		 * @return primeiro identificador não apagado a partir do atual, ou NO_MORE_DOCS
+		 */
+		private int skipDeleted(int doc) {
+			while (doc != PostingList.NO_MORE_DOCS && isDeleted(doc, generation)) {
+				doc = cursor.nextDoc();
+			}
+			return doc;
+		}
+	}
+}
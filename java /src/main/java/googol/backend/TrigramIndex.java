@@ -0,0 +1,194 @@
+package googol.backend;
+
+import java.util.*;
+
+
+/**
+ * Classe que representa um índice de trigramas sobre as palavras do dicionário, usado
+ * para encontrar palavras parecidas com uma palavra escrita com erros. Cada palavra é
+ * rodeada de dois caracteres de início e de fim e partida em trigramas, e cada trigrama
+ * guarda a lista ordenada das posições no dicionário das palavras que o contêm. Uma edição
+ * altera no máximo quatro trigramas (três numa inserção, remoção ou substituição, quatro
+ * numa troca de letras vizinhas), pelo que uma palavra a k edições de distância tem pelo
+ * menos 4k trigramas a menos do que a palavra pesquisada em comum com ela: só as palavras
+ * de comprimento próximo que atingem esse número nas listas dos trigramas são candidatas
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class TrigramIndex {
+
+	/**
+	 * Caractere usado para marcar o início e o fim das palavras
+	 */
+	private static final char PAD = '\0';
+
+	/**
+	 * Índice sem trigramas
+	 */
+	static final TrigramIndex EMPTY = new TrigramIndex(new long[0], new int[] { 0 }, new int[0], new byte[0]);
+
+	/**
+	 * Trigramas existentes, ordenados, cada um com os três caracteres num long
+	 */
+	private final long[] grams;
+
+	/**
+	 * Início da lista de cada trigrama em terms (com uma posição extra para o fim da última lista)
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Posições das palavras de todas as listas, seguidas
+	 */
+	private final int[] terms;
+
+	/**
+	 * Número de caracteres de cada palavra (limitado a Byte.MAX_VALUE), para filtrar candidatas sem as descodificar
+	 */
+	private final byte[] lengths;
+
+	/**
+	 * Construtor da classe
+	 * @param grams trigramas ordenados
+	 * @param offsets início da lista de cada trigrama
+	 * @param terms posições das palavras de todas as listas
+	 * @param lengths número de caracteres de cada palavra
+	 */
+	private TrigramIndex(long[] grams, int[] offsets, int[] terms, byte[] lengths) {
+		this.grams = grams;
+		this.offsets = offsets;
+		this.terms = terms;
+		this.lengths = lengths;
+	}
+
+	/**
+	 * Método que constrói o índice de trigramas de uma lista de palavras
+	 * @param words palavras, pela ordem das posições do dicionário
+	 * @return índice construído
+	 */
+	static TrigramIndex build(List<String> words) {
+		// Primeira passagem: tamanho da lista de cada trigrama
+		Map<Long, Integer> counts = new HashMap<>();
+		for (String word : words) {
+			for (long gram : grams(word)) {
+				counts.merge(gram, 1, Integer::sum);
+			}
+		}
+		long[] grams = new long[counts.size()];
+		int g = 0;
+		for (long gram : counts.keySet()) {
+			grams[g++] = gram;
+		}
+		Arrays.sort(grams);
+		int[] offsets = new int[grams.length + 1];
+		for (int i = 0; i < grams.length; i++) {
+			offsets[i + 1] = offsets[i] + counts.get(grams[i]);
+		}
+
+		// Segunda passagem: as palavras são percorridas por ordem, pelo que cada lista fica ordenada
+		int[] terms = new int[offsets[grams.length]];
+		int[] next = Arrays.copyOf(offsets, grams.length);
+		byte[] lengths = new byte[words.size()];
+		for (int i = 0; i < words.size(); i++) {
+			for (long gram : grams(words.get(i))) {
+				terms[next[Arrays.binarySearch(grams, gram)]++] = i;
+			}
+			lengths[i] = (byte) Math.min(Byte.MAX_VALUE, words.get(i).length());
+		}
+		return new TrigramIndex(grams, offsets, terms, lengths);
+	}
+
+	/**
+	 * Método que devolve os trigramas distintos de uma palavra, rodeada de dois caracteres de início e de fim
+	 * @param word palavra
+	 * @return trigramas ordenados e sem repetições
+	 */
+	static long[] grams(String word) {
+		String padded = "" + PAD + PAD + word + PAD + PAD;
+		long[] grams = new long[padded.length() - 2];
+		for (int i = 0; i < grams.length; i++) {
+			grams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+		}
+		Arrays.sort(grams);
+		int distinct = 0;
+		for (int i = 0; i < grams.length; i++) {
+			if (i == 0 || grams[i] != grams[i - 1]) {
+				grams[distinct++] = grams[i];
+			}
+		}
+		return Arrays.copyOf(grams, distinct);
+	}
+
+	/**
+	 * Método que devolve as palavras que podem estar a um número máximo de edições de uma palavra:
+	 * as de comprimento próximo que partilham trigramas suficientes com ela. Uma candidata tem de
+	 * estar em pelo menos uma das listas mais curtas dos trigramas da palavra (todas menos as
+	 * minShared - 1 mais longas), pelo que só essas são percorridas, em simultâneo e por ordem
+	 * crescente de posição; nas listas longas cada candidata é procurada por pesquisa binária
+	 * @param word palavra pesquisada
+	 * @param maxEdits número máximo de edições
+	 * @return posições no dicionário das palavras candidatas, por ordem crescente
+	 */
+	int[] candidates(String word, int maxEdits) {
+		int length = Math.min(Byte.MAX_VALUE, word.length());
+		List<Integer> lists = new ArrayList<>();
+		long[] wordGrams = grams(word);
+		for (long gram : wordGrams) {
+			int g = Arrays.binarySearch(grams, gram);
+			if (g >= 0) {
+				lists.add(g);
+			}
+		}
+		int minShared = Math.max(1, wordGrams.length - 4 * maxEdits);
+		if (lists.size() < minShared) {
+			return new int[0];
+		}
+		lists.sort(Comparator.comparingInt(g -> offsets[g + 1] - offsets[g]));
+		int shortLists = lists.size() - minShared + 1;
+
+		// Cada entrada da fila é {posição da palavra atual, posição na lista, fim da lista}
+		PriorityQueue<int[]> queue = new PriorityQueue<>(Comparator.comparingInt(list -> list[0]));
+		for (int g : lists.subList(0, shortLists)) {
+			queue.add(new int[] { terms[offsets[g]], offsets[g], offsets[g + 1] });
+		}
+		int[] candidates = new int[16];
+		int found = 0;
+		while (!queue.isEmpty()) {
+			int term = queue.peek()[0];
+			int shared = 0;
+			while (!queue.isEmpty() && queue.peek()[0] == term) {
+				int[] list = queue.poll();
+				shared++;
+				if (++list[1] < list[2]) {
+					list[0] = terms[list[1]];
+					queue.add(list);
+				}
+			}
+			if (Math.abs(lengths[term] - length) > maxEdits) {
+				continue;
+			}
+			for (int i = shortLists; i < lists.size() && shared < minShared; i++) {
+				int g = lists.get(i);
+				if (Arrays.binarySearch(terms, offsets[g], offsets[g + 1], term) >= 0) {
+					shared++;
+				}
+			}
+			if (shared >= minShared) {
+				if (found == candidates.length) {
+					candidates = Arrays.copyOf(candidates, 2 * found);
+				}
+				candidates[found++] = term;
+			}
+		}
+		return Arrays.copyOf(candidates, found);
+	}
+
+	/**
+	 * Método que devolve o número de trigramas distintos do índice
+	 * @return número de trigramas
+	 */
+	public int size() {
+		return grams.length;
+	}
+}
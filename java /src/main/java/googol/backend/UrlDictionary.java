@@ -0,0 +1,278 @@
+package googol.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ * Classe que representa o dicionário de URLs de um Barrel, atribui a cada URL
+ * um identificador inteiro denso (0, 1, 2, ...) para que o índice, as informações
+ * dos URLs e os links guardem apenas inteiros em vez de cópias das strings.
+ * É a única cópia dos URLs no Barrel: cada URL é guardado uma vez em UTF-8, precedido
+ * do seu tamanho, em páginas de bytes partilhadas, e a procura de um URL é feita numa
+ * tabela de dispersão de endereçamento aberto que só guarda identificadores.
+ * As consultas não usam locks, só a atribuição de novos identificadores é sincronizada:
+ * um identificador só é considerado depois de o contador de URLs (volatile) o incluir,
+ * o que garante que os seus bytes já estão visíveis
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public class UrlDictionary {
+
+	/**
+	 * Tamanho de cada página de bytes (um URL maior fica sozinho numa página à sua medida)
+	 */
+	private static final int PAGE_SIZE = 1 << 18;
+
+	/**
+	 * Páginas com os bytes dos URLs
+	 */
+	private volatile byte[][] pages = new byte[][] { new byte[PAGE_SIZE] };
+
+	/**
+	 * Número da página onde são acrescentados os novos URLs
+	 */
+	private int currentPage = 0;
+
+	/**
+	 * Primeira posição livre da página atual
+	 */
+	private int pagePosition = 0;
+
+	/**
+	 * Posição de cada URL, indexada pelo identificador: número da página nos 32 bits altos, posição na página nos baixos
+	 */
+	private volatile long[] locations = new long[16];
+
+	/**
+	 * Valor de dispersão de cada URL, indexado pelo identificador, para comparar e redistribuir sem ler os bytes
+	 */
+	private volatile int[] hashes = new int[16];
+
+	/**
+	 * Tabela de dispersão com o identificador + 1 de cada URL (0 marca uma posição livre), ocupada no máximo a metade
+	 */
+	private volatile int[] table = new int[32];
+
+	/**
+	 * Número de URLs no dicionário
+	 */
+	private volatile int count = 0;
+
+	/**
+	 * Método que devolve o identificador de um URL, atribuindo um novo caso ainda não exista
+	 * @param url URL
+	 * @return identificador do URL
+	 */
+	public int getOrAssign(String url) {
+		byte[] key = url.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(key);
+		int id = find(key, hash);
+		if (id >= 0) {
+			return id;
+		}
+		synchronized (this) {
+			id = find(key, hash);
+			if (id < 0) {
+				id = count;
+				append(id, key, hash);
+				// Publica o novo URL: tudo o que foi escrito antes fica visível para quem ler o contador
+				count = id + 1;
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Método que devolve o identificador de um URL
+	 * @param url URL
+	 * @return identificador do URL ou -1 se o URL não existir
+	 */
+	public int getId(String url) {
+		byte[] key = url.getBytes(StandardCharsets.UTF_8);
+		return find(key, hash(key));
+	}
+
+	/**
+	 * Método que devolve o URL associado a um identificador
+	 * @param id identificador do URL
+	 * @return URL correspondente
+	 */
+	public String getUrl(int id) {
+		if (id < 0 || id >= count) {
+			throw new IndexOutOfBoundsException("URL " + id + " não existe no dicionário");
+		}
+		long location = locations[id];
+		byte[] page = pages[(int) (location >>> 32)];
+		int[] position = { (int) location };
+		int length = readLength(page, position);
+		return new String(page, position[0], length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Método que devolve o número de URLs no dicionário
+	 * @return número de URLs
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Método que devolve a memória ocupada pelo dicionário
+	 * @return número aproximado de bytes
+	 */
+	public long sizeInBytes() {
+		long bytes = 0;
+		for (byte[] page : pages) {
+			if (page != null) {
+				bytes += page.length;
+			}
+		}
+		return bytes + 8L * locations.length + 4L * hashes.length + 4L * table.length;
+	}
+
+	/**
+	 * Método que procura um URL na tabela de dispersão sem usar locks. Os identificadores
+	 * atribuídos depois da leitura do contador são ignorados, o que equivale a fazer a
+	 * consulta antes da sua atribuição
+	 * @param key bytes do URL em UTF-8
+	 * @param hash valor de dispersão dos bytes
+	 * @return identificador do URL ou -1 se não existir
+	 */
+	private int find(byte[] key, int hash) {
+		int limit = count;
+		int[] table = this.table;
+		int[] hashes = this.hashes;
+		int mask = table.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				return -1;
+			}
+			if (id < limit && hashes[id] == hash && matches(id, key)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Método que compara os bytes de um URL do dicionário com os de outro URL
+	 * @param id identificador do URL do dicionário
+	 * @param key bytes do outro URL em UTF-8
+	 * @return true se forem iguais
+	 */
+	private boolean matches(int id, byte[] key) {
+		long location = locations[id];
+		byte[] page = pages[(int) (location >>> 32)];
+		int[] position = { (int) location };
+		int length = readLength(page, position);
+		return length == key.length && Arrays.equals(page, position[0], position[0] + length, key, 0, length);
+	}
+
+	/**
+	 * Método que acrescenta um URL novo ao dicionário, chamado com o lock do dicionário
+	 * @param id identificador atribuído ao URL
+	 * @param key bytes do URL em UTF-8
+	 * @param hash valor de dispersão dos bytes
+	 */
+	private void append(int id, byte[] key, int hash) {
+		int needed = 5 + key.length;
+		byte[][] pages = this.pages;
+		if (pagePosition + needed > pages[currentPage].length) {
+			if (currentPage + 1 == pages.length) {
+				pages = Arrays.copyOf(pages, pages.length * 2);
+			}
+			pages[++currentPage] = new byte[Math.max(PAGE_SIZE, needed)];
+			pagePosition = 0;
+			this.pages = pages;
+		}
+		long location = ((long) currentPage << 32) | pagePosition;
+		pagePosition = writeLength(pages[currentPage], pagePosition, key.length);
+		System.arraycopy(key, 0, pages[currentPage], pagePosition, key.length);
+		pagePosition += key.length;
+
+		if (id == locations.length) {
+			locations = Arrays.copyOf(locations, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		locations[id] = location;
+		hashes[id] = hash;
+
+		if (2 * (id + 1) > table.length) {
+			// A tabela antiga não é alterada, quem ainda a estiver a ler encontra os URLs já publicados
+			int[] grown = new int[table.length * 2];
+			for (int other = 0; other < id; other++) {
+				insert(grown, other);
+			}
+			insert(grown, id);
+			table = grown;
+		} else {
+			insert(table, id);
+		}
+	}
+
+	/**
+	 * Método que coloca um identificador na primeira posição livre da tabela a partir da do seu valor de dispersão
+	 * @param table tabela de dispersão
+	 * @param id identificador do URL
+	 */
+	private void insert(int[] table, int id) {
+		int mask = table.length - 1;
+		int slot = hashes[id] & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = id + 1;
+	}
+
+	/**
+	 * Método que calcula o valor de dispersão dos bytes de um URL (FNV-1a seguido de uma mistura final
+	 * para que os bits baixos, usados para escolher a posição na tabela, dependam de todos os bytes)
+	 * @param key bytes do URL
+	 * @return valor de dispersão
+	 */
+	private static int hash(byte[] key) {
+		int hash = 0x811c9dc5;
+		for (byte b : key) {
+			hash = (hash ^ b) * 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+	/**
+	 * Método que escreve o tamanho de um URL com 7 bits por byte
+	 * @param page página de destino
+	 * @param position posição onde escrever
+	 * @param length tamanho do URL
+	 * @return posição a seguir ao tamanho escrito
+	 */
+	private static int writeLength(byte[] page, int position, int length) {
+		while ((length & ~0x7F) != 0) {
+			page[position++] = (byte) ((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		page[position++] = (byte) length;
+		return position;
+	}
+
+	/**
+	 * Método que lê o tamanho de um URL escrito com 7 bits por byte
+	 * @param page página de origem
+	 * @param position posição do tamanho, avançada para o início dos bytes do URL
+	 * @return tamanho do URL
+	 */
+	private static int readLength(byte[] page, int[] position) {
+		int length = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = page[position[0]++];
+			length |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return length;
+			}
+		}
+	}
+}
@@ -0,0 +1,652 @@
+package googol.backend;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+
+/**
+ * Classe que representa o registo de escritas (write-ahead log) de um Barrel.
+ * Cada palavra, informação de URL, link e página recebidos são acrescentados a um lote
+ * em memória; uma thread em segundo plano grava o lote no ficheiro e força-o
+ * para o disco (fsync) de poucos em poucos milissegundos, pelo que os downloaders
+ * nunca esperam pelo disco. A contrapartida é uma janela de perda: um registo só
+ * sobrevive a uma falha do processo ou da máquina depois do fsync do seu lote, até
+ * walFlushMillis (20 ms por omissão) depois de ser acrescentado. As páginas recebidas são
+ * registadas quando entram na fila de ingestão ({@link IngestQueue}), antes de o Barrel
+ * responder ao Downloader, pelo que numa falha só se perdem as páginas aceites nesse
+ * último intervalo. O registo é dividido em segmentos numerados
+ * (barrelN-1.wal, barrelN-2.wal, ...): quando é gravado um snapshot começa-se
+ * um segmento novo e os anteriores podem ser apagados. Como o snapshot não inclui as
+ * páginas que ainda estão na fila, os seus registos são copiados para o segmento novo.
+ * Se a gravação de um lote falhar, os seus registos podem não estar no disco: o registo
+ * passa a recusar escritas até um snapshot incluir o estado que esses registos descreviam
+ * @author Álvaro Terroso
+ * @author Mariana Sousa
+ * @version 1.0
+ */
+public final class WriteAheadLog implements Closeable {
+
+	/**
+	 * Tipo de registo de uma palavra
+	 */
+	private static final byte WORD = 1;
+
+	/**
+	 * Tipo de registo do título e descrição de um URL
+	 */
+	private static final byte URL_INFO = 2;
+
+	/**
+	 * Tipo de registo de um link
+	 */
+	private static final byte LINK = 3;
+
+	/**
+	 * Tipo de registo de uma página inteira (palavras, informação e links)
+	 */
+	private static final byte DOCUMENT = 4;
+
+	/**
+	 * Tipo de registo de uma página apagada
+	 */
+	private static final byte DELETE = 5;
+
+	/**
+	 * Tipo de registo dos links de uma página, sem palavras nem informação
+	 */
+	private static final byte LINKS = 6;
+
+	/**
+	 * Interface que recebe os registos lidos durante a recuperação
+	 */
+	public interface Handler {
+
+		/**
+		 * Método chamado para cada palavra registada
+		 * @param url URL onde a palavra foi encontrada
+		 * @param word palavra
+		 * @param position posição da palavra, negativa se for desconhecida
+		 */
+		void word(String url, String word, int position);
+
+		/**
+		 * Método chamado para cada informação de URL registada
+		 * @param url URL
+		 * @param title título da página
+		 * @param description descrição da página
+		 */
+		void urlInfo(String url, String title, String description);
+
+		/**
+		 * Método chamado para cada link registado
+		 * @param sourceUrl URL de origem
+		 * @param targetUrl URL de destino
+		 */
+		void link(String sourceUrl, String targetUrl);
+
+		/**
+		 * Método chamado para cada página registada por inteiro
+		 * @param document página com as palavras, a informação e os links
+		 */
+		void document(IndexDocument document);
+
+		/**
+		 * Método chamado para cada página apagada
+		 * @param url URL da página
+		 */
+		void delete(String url);
+	}
+
+	/**
+	 * Diretoria onde estão os segmentos
+	 */
+	private final Path directory;
+
+	/**
+	 * Prefixo do nome dos segmentos (por exemplo "barrel1")
+	 */
+	private final String prefix;
+
+	/**
+	 * Registos ainda não gravados no ficheiro
+	 */
+	private ByteArrayOutputStream batch = new ByteArrayOutputStream(1 << 16);
+
+	/**
+	 * Registos das páginas aceites e ainda não aplicadas, pela ordem em que foram feitos
+	 */
+	private final NavigableMap<Long, byte[]> unapplied = new TreeMap<>();
+
+	/**
+	 * Número do último registo de uma página
+	 */
+	private long lastRecord = 0;
+
+	/**
+	 * Segmento atual, só é usado com o flushLock
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Número do segmento atual
+	 */
+	private volatile long segment;
+
+	/**
+	 * Lock que garante uma gravação de cada vez, para os lotes ficarem no ficheiro
+	 * pela ordem em que foram criados e nunca serem escritos num segmento já fechado
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Thread que grava os lotes periodicamente
+	 */
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * Erro da última gravação falhada, ou null se o registo está no disco
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Segmento em que a gravação falhou, só é usado com o flushLock
+	 */
+	private long failedSegment;
+
+	/**
+	 * Construtor da classe, abre um segmento novo a seguir aos que já existem
+	 * (que só são lidos por {@link #replay(Handler)})
+	 * @param directory diretoria dos segmentos
+	 * @param prefix prefixo do nome dos segmentos
+	 * @param flushMillis intervalo, em milissegundos, entre gravações no disco
+	 * @throws IOException se o segmento não puder ser criado
+	 */
+	public WriteAheadLog(Path directory, String prefix, long flushMillis) throws IOException {
+		this.directory = directory;
+		this.prefix = prefix;
+		List<Long> existing = segments();
+		this.segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+		this.channel = openSegment(segment);
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, prefix + "-wal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(() -> {
+			// Depois de uma falha, que já foi mostrada, o lote só volta a ser gravado num segmento novo
+			if (failure != null) {
+				return;
+			}
+			try {
+				flush();
+			} catch (IOException e) {
+				System.err.println("Erro ao gravar o registo de escritas: " + e.getMessage());
+			}
+		}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Método para registar uma palavra
+	 * @param url URL onde a palavra foi encontrada
+	 * @param word palavra
+	 * @param position posição da palavra, negativa se for desconhecida
+	 */
+	public void logWord(String url, String word, int position) {
+		append(WORD, new String[] { url, word }, position);
+	}
+
+	/**
+	 * Método para registar o título e a descrição de um URL
+	 * @param url URL
+	 * @param title título da página
+	 * @param description descrição da página
+	 */
+	public void logUrlInfo(String url, String title, String description) {
+		append(URL_INFO, new String[] { url, title, description }, 0);
+	}
+
+	/**
+	 * Método para registar um link
+	 * @param sourceUrl URL de origem
+	 * @param targetUrl URL de destino
+	 */
+	public void logLink(String sourceUrl, String targetUrl) {
+		append(LINK, new String[] { sourceUrl, targetUrl }, 0);
+	}
+
+	/**
+	 * Método para registar uma página aceite num único registo, que na recuperação é reaplicado
+	 * por inteiro ou, se estiver incompleto, não é reaplicado. O registo é copiado para cada
+	 * segmento novo até a página ser aplicada ({@link #applied(long)})
+	 * @param document página com as palavras, a informação e os links, só com os links, ou apagada
+	 * @return número do registo
+	 */
+	public long logDocument(IndexDocument document) {
+		byte[] framed = frame(encodeDocument(document));
+		synchronized (this) {
+			checkFailure();
+			batch.write(framed, 0, framed.length);
+			unapplied.put(++lastRecord, framed);
+			return lastRecord;
+		}
+	}
+
+	/**
+	 * Método para registar que uma página foi aplicada (ou falhou), e que o seu registo já não
+	 * precisa de passar para os segmentos seguintes
+	 * @param record número do registo devolvido por {@link #logDocument(IndexDocument)}
+	 */
+	public synchronized void applied(long record) {
+		unapplied.remove(record);
+	}
+
+	/**
+	 * Método para codificar o registo de uma página
+	 * @param document página com as palavras, a informação e os links, só com os links, ou apagada
+	 * @return conteúdo do registo, começando pelo tipo
+	 */
+	private static byte[] encodeDocument(IndexDocument document) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + 8 * document.getPositions().length);
+			DataOutputStream record = new DataOutputStream(bytes);
+			if (document.isDeletion()) {
+				record.writeByte(DELETE);
+				writeString(record, document.getUrl());
+				return bytes.toByteArray();
+			}
+			if (!document.hasInfo()) {
+				record.writeByte(LINKS);
+				writeString(record, document.getUrl());
+				writeLinks(record, document.getLinks());
+				return bytes.toByteArray();
+			}
+			record.writeByte(DOCUMENT);
+			writeString(record, document.getUrl());
+			writeString(record, document.getTitle());
+			writeString(record, document.getDescription());
+			String[] terms = document.getTerms();
+			int[] frequencies = document.getFrequencies();
+			String[] surfaces = document.getSurfaces();
+			record.writeInt(terms.length);
+			for (int i = 0; i < terms.length; i++) {
+				writeString(record, terms[i]);
+				record.writeInt(frequencies[i]);
+				// Uma forma original vazia é igual à palavra
+				writeString(record, surfaces[i]);
+			}
+			for (int position : document.getPositions()) {
+				record.writeInt(position);
+			}
+			writeLinks(record, document.getLinks());
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// A escrita num ByteArrayOutputStream não falha
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Método para acrescentar um registo ao lote
+	 * @param type tipo do registo
+	 * @param fields strings do registo
+	 * @param position posição da palavra (só usada nos registos de palavras)
+	 */
+	private void append(byte type, String[] fields, int position) {
+		byte[][] encoded = new byte[fields.length][];
+		int length = 1 + ((type == WORD) ? Integer.BYTES : 0);
+		for (int i = 0; i < fields.length; i++) {
+			encoded[i] = (fields[i] != null ? fields[i] : "").getBytes(StandardCharsets.UTF_8);
+			length += Integer.BYTES + encoded[i].length;
+		}
+		ByteBuffer record = ByteBuffer.allocate(length);
+		record.put(type);
+		for (byte[] field : encoded) {
+			record.putInt(field.length);
+			record.put(field);
+		}
+		if (type == WORD) {
+			record.putInt(position);
+		}
+		write(record.array());
+	}
+
+	/**
+	 * Método para acrescentar ao lote um registo já codificado
+	 * @param record conteúdo do registo, começando pelo tipo
+	 */
+	private void write(byte[] record) {
+		byte[] framed = frame(record);
+		synchronized (this) {
+			checkFailure();
+			batch.write(framed, 0, framed.length);
+		}
+	}
+
+	/**
+	 * Método que recusa um registo novo depois de uma gravação falhada, para a escrita
+	 * não ser dada como feita quando registos anteriores podem não estar no disco
+	 * @throws UncheckedIOException se uma gravação falhou e ainda não há um snapshot posterior
+	 */
+	private void checkFailure() {
+		IOException error = failure;
+		if (error != null) {
+			throw new UncheckedIOException("O registo de escritas de " + prefix + " falhou", error);
+		}
+	}
+
+	/**
+	 * Método que junta a um registo o seu tamanho e CRC32, para que um registo cortado
+	 * a meio por uma falha seja detetado
+	 * @param record conteúdo do registo, começando pelo tipo
+	 * @return registo tal como é gravado no segmento
+	 */
+	private static byte[] frame(byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		ByteBuffer framed = ByteBuffer.allocate(2 * Integer.BYTES + record.length);
+		framed.putInt(record.length);
+		framed.putInt((int) crc.getValue());
+		framed.put(record);
+		return framed.array();
+	}
+
+	/**
+	 * Método para gravar o lote atual no segmento e forçá-lo para o disco.
+	 * Todos os registos acumulados desde a última gravação partilham o mesmo fsync
+	 * @throws IOException se ocorrer um erro de escrita, ou se uma gravação anterior falhou
+	 */
+	public void flush() throws IOException {
+		synchronized (flushLock) {
+			if (failure != null) {
+				throw new IOException("O registo de escritas de " + prefix + " falhou", failure);
+			}
+			ByteArrayOutputStream pending;
+			synchronized (this) {
+				if (batch.size() == 0) {
+					return;
+				}
+				pending = batch;
+				batch = new ByteArrayOutputStream(1 << 16);
+			}
+			writeToSegment(pending);
+		}
+	}
+
+	/**
+	 * Método para gravar um lote no segmento atual e forçá-lo para o disco.
+	 * Deve ser chamado com o flushLock. Se a gravação falhar o registo fica marcado como falhado,
+	 * porque parte do lote pode não estar no disco e um fsync repetido pode não o detetar
+	 * @param pending lote a gravar
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	private void writeToSegment(ByteArrayOutputStream pending) throws IOException {
+		try {
+			// Os downloaders continuam a acrescentar ao lote novo enquanto este é gravado
+			ByteBuffer bytes = ByteBuffer.wrap(pending.toByteArray());
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			failedSegment = segment;
+			failure = e;
+			throw e;
+		}
+	}
+
+	/**
+	 * Método que começa um segmento novo, gravando antes os registos pendentes no segmento atual.
+	 * Os registos feitos depois desta chamada já não pertencem aos segmentos anteriores, e o
+	 * segmento novo começa com os registos das páginas aceites e ainda não aplicadas.
+	 * Se o segmento atual falhou, o lote por gravar é descartado: o snapshot que se segue
+	 * inclui o estado descrito pelos seus registos, e as páginas ainda na fila passam na mesma
+	 * para o segmento novo. As escritas continuam recusadas até esse snapshot ser gravado
+	 * @return número do segmento novo
+	 * @throws IOException se o segmento não puder ser criado
+	 */
+	public long rotate() throws IOException {
+		synchronized (flushLock) {
+			ByteArrayOutputStream pending;
+			synchronized (this) {
+				pending = batch;
+				batch = new ByteArrayOutputStream(1 << 16);
+				// As páginas ainda na fila não estão no snapshot que se segue, e os seus registos
+				// ficam no segmento novo antes dos de qualquer página aceite depois da troca
+				for (byte[] record : unapplied.values()) {
+					batch.write(record, 0, record.length);
+				}
+			}
+			if (failure == null) {
+				try {
+					writeToSegment(pending);
+				} catch (IOException e) {
+					System.err.println("Erro ao gravar o registo de escritas: " + e.getMessage());
+				}
+			}
+			FileChannel previous = channel;
+			channel = openSegment(segment + 1);
+			segment++;
+			previous.close();
+			return segment;
+		}
+	}
+
+	/**
+	 * Método para apagar os segmentos anteriores a um segmento, já incluídos num snapshot.
+	 * Se a gravação falhada foi num desses segmentos, o registo volta a aceitar escritas
+	 * @param first número do primeiro segmento a manter
+	 * @throws IOException se um segmento não puder ser apagado
+	 */
+	public void deleteSegmentsBefore(long first) throws IOException {
+		for (long number : segments()) {
+			if (number < first) {
+				Files.deleteIfExists(segmentPath(number));
+			}
+		}
+		synchronized (flushLock) {
+			// O snapshot já inclui o que os registos de um segmento falhado descreviam
+			if (failure != null && failedSegment < first) {
+				failure = null;
+			}
+		}
+	}
+
+	/**
+	 * Método para reaplicar os registos de todos os segmentos anteriores ao atual.
+	 * A leitura de um segmento para no primeiro registo incompleto ou corrompido
+	 * @param handler destino dos registos lidos
+	 * @return número de registos reaplicados
+	 * @throws IOException se um segmento não puder ser lido
+	 */
+	public int replay(Handler handler) throws IOException {
+		int records = 0;
+		for (long number : segments()) {
+			if (number >= segment) {
+				continue;
+			}
+			byte[] bytes = Files.readAllBytes(segmentPath(number));
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while (buffer.remaining() >= 2 * Integer.BYTES) {
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) {
+					break;
+				}
+				CRC32 crc = new CRC32();
+				crc.update(bytes, buffer.position(), length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				ByteBuffer record = buffer.slice();
+				record.limit(length);
+				buffer.position(buffer.position() + length);
+				apply(record, handler);
+				records++;
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Método para entregar um registo ao handler
+	 * @param record conteúdo do registo
+	 * @param handler destino do registo
+	 */
+	private static void apply(ByteBuffer record, Handler handler) {
+		byte type = record.get();
+		if (type == WORD) {
+			String url = readString(record);
+			String word = readString(record);
+			handler.word(url, word, record.getInt());
+		} else if (type == URL_INFO) {
+			handler.urlInfo(readString(record), readString(record), readString(record));
+		} else if (type == LINK) {
+			handler.link(readString(record), readString(record));
+		} else if (type == DOCUMENT) {
+			handler.document(readDocument(record));
+		} else if (type == DELETE) {
+			handler.delete(readString(record));
+		} else if (type == LINKS) {
+			String url = readString(record);
+			handler.document(IndexDocument.linksOnly(url, readLinks(record)));
+		}
+	}
+
+	/**
+	 * Método para ler uma página registada por {@link #logDocument(IndexDocument)}
+	 * @param record conteúdo do registo, a seguir ao tipo
+	 * @return página lida
+	 */
+	private static IndexDocument readDocument(ByteBuffer record) {
+		String url = readString(record);
+		String title = readString(record);
+		String description = readString(record);
+		String[] terms = new String[record.getInt()];
+		int[] frequencies = new int[terms.length];
+		String[] surfaces = new String[terms.length];
+		int total = 0;
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = readString(record);
+			frequencies[i] = record.getInt();
+			String surface = readString(record);
+			surfaces[i] = surface.isEmpty() ? null : surface;
+			total += frequencies[i];
+		}
+		int[] positions = new int[total];
+		for (int i = 0; i < total; i++) {
+			positions[i] = record.getInt();
+		}
+		return new IndexDocument(url, title, description, terms, frequencies, positions, surfaces, readLinks(record));
+	}
+
+	/**
+	 * Método para escrever os links de uma página, precedidos do seu número
+	 * @param output destino dos dados
+	 * @param links URLs para onde a página aponta
+	 * @throws IOException se a escrita falhar
+	 */
+	private static void writeLinks(DataOutputStream output, String[] links) throws IOException {
+		output.writeInt(links.length);
+		for (String link : links) {
+			writeString(output, link);
+		}
+	}
+
+	/**
+	 * Método para ler os links escritos por {@link #writeLinks(DataOutputStream, String[])}
+	 * @param record conteúdo do registo
+	 * @return URLs para onde a página aponta
+	 */
+	private static String[] readLinks(ByteBuffer record) {
+		String[] links = new String[record.getInt()];
+		for (int i = 0; i < links.length; i++) {
+			links[i] = readString(record);
+		}
+		return links;
+	}
+
+	/**
+	 * Método que grava os registos pendentes e termina a thread de gravação
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	@Override
+	public void close() throws IOException {
+		flusher.shutdown();
+		synchronized (flushLock) {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Método que devolve os números dos segmentos existentes, por ordem crescente
+	 * @return números dos segmentos
+	 * @throws IOException se a diretoria não puder ser lida
+	 */
+	private List<Long> segments() throws IOException {
+		List<Long> numbers = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "-*.wal")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					numbers.add(Long.parseLong(name.substring(prefix.length() + 1, name.length() - 4)));
+				} catch (NumberFormatException e) {
+					// Ficheiro com um nome parecido que não é um segmento
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Método que devolve o caminho de um segmento
+	 * @param number número do segmento
+	 * @return caminho do segmento
+	 */
+	private Path segmentPath(long number) {
+		return directory.resolve(prefix + "-" + number + ".wal");
+	}
+
+	/**
+	 * Método para abrir um segmento para escrita no fim
+	 * @param number número do segmento
+	 * @return canal do segmento
+	 * @throws IOException se o segmento não puder ser aberto
+	 */
+	private FileChannel openSegment(long number) throws IOException {
+		return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Método para escrever uma string precedida do seu tamanho, no formato lido por {@link #readString(ByteBuffer)}
+	 * @param output destino dos dados
+	 * @param value string a escrever (null é escrito como vazia)
+	 * @throws IOException se ocorrer um erro de escrita
+	 */
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Método para ler uma string precedida do seu tamanho
+	 * @param buffer origem dos dados
+	 * @return string lida
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -58,6 +59,33 @@ public class SearchController {
         return "redirect:/search/results?query=" + query + "&page=1&isPagination=false";
     }
     
+	/**
+	 * Método que devolve, em JSON, sugestões para a caixa de pesquisa. A última palavra escrita
+	 * é completada com as palavras mais frequentes do índice e as anteriores são mantidas
+	 * @param prefix texto escrito até agora
+	 * @param limit número máximo de sugestões
+	 * @return lista de pesquisas sugeridas
+	*/
+    @GetMapping("/suggest")
+    @ResponseBody
+    public List<String> suggest(@RequestParam String prefix, @RequestParam(defaultValue = "8") int limit) {
+        List<String> suggestions = new ArrayList<>();
+        int lastSpace = prefix.lastIndexOf(' ');
+        String start = prefix.substring(0, lastSpace + 1);
+        String word = prefix.substring(lastSpace + 1);
+        if (word.isEmpty()) {
+            return suggestions;
+        }
+        try {
+            for (String completion : backendClient.getGateway().suggest(word, limit)) {
+                suggestions.add(start + completion);
+            }
+        } catch (Exception e) {
+            System.err.println("Erro ao obter sugestões: " + e.getMessage());
+        }
+        return suggestions;
+    }
+    
 	/**
 	 * Método que apresenta os resultados paginados da pesquisa.
 	 * @param query a string de pesquisa
@@ -82,6 +110,9 @@ public class SearchController {
 			}
 			
 			boolean isLastPage = pageResults.size() < RESULTS_PER_PAGE;
+			if (page == 1) {
+				model.addAttribute("correction", backendClient.getGateway().didYouMean(query));
+			}
 			statsController.checkForUpdates();
 
 			if (!pageResults.isEmpty()) {
@@ -0,0 +1,34 @@
+document.addEventListener('DOMContentLoaded', function () {
+    const input = document.querySelector('input[name="query"]');
+    const list = document.getElementById('suggestions');
+    if (!input || !list) {
+        return;
+    }
+
+    let timer = null;
+    input.addEventListener('input', function () {
+        clearTimeout(timer);
+        timer = setTimeout(function () {
+            const prefix = input.value;
+            if (prefix.trim().length === 0) {
+                list.innerHTML = '';
+                return;
+            }
+            fetch('/search/suggest?prefix=' + encodeURIComponent(prefix))
+                .then(response => response.ok ? response.json() : [])
+                .then(suggestions => {
+                    // Respostas atrasadas de texto que já foi alterado são ignoradas
+                    if (input.value !== prefix) {
+                        return;
+                    }
+                    list.innerHTML = '';
+                    suggestions.forEach(suggestion => {
+                        const option = document.createElement('option');
+                        option.value = suggestion;
+                        list.appendChild(option);
+                    });
+                })
+                .catch(() => { list.innerHTML = ''; });
+        }, 150);
+    });
+});